@@ -0,0 +1,77 @@
+package transactionlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import transactionlib.Transaction;
+import transactionlib.TransactionMetrics;
+
+/**
+ * appendFile einer Zeile in einer vollständigen Transaktion, für verschiedene Dateigrößen.
+ * Mit Hardlink-Snapshots teilt die Live-Datei ihren Inode mit dem Snapshot; der Commit kopiert dann die ganze
+ * Datei, statt nur die Zeile anzuhängen. Wie oft das geschieht, zeigt der Zähler "appendCopyFallbacks"; nur mit
+ * hardLinks=false misst der Benchmark das Anhängen an Ort und Stelle.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class AppendBenchmark {
+
+    private static final byte[] LINE = "RandomText_42\n".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"65536", "1048576"})
+    public int fileSize;
+
+    @Param({"true", "false"})
+    public boolean hardLinks;
+
+    private BenchmarkEnvironment environment;
+    private File file;
+
+    /**
+     * Zusätzliche Ausgabe je Iteration: Commits und davon mit vollständiger Kopie installierte Anhänge.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Fallbacks {
+        public long commits;
+        public long appendCopyFallbacks;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commits = 0;
+            appendCopyFallbacks = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment(hardLinks, false);
+        environment.manager.setDurableCommits(false);
+        file = environment.createFile("data.txt", fileSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public boolean appendFile(Fallbacks fallbacks) throws Exception {
+        TransactionMetrics metrics = environment.manager.getMetrics();
+        long before = metrics.getAppendCopyFallbacks();
+        Transaction tx = environment.manager.beginTransaction();
+        tx.appendFile(file, LINE);
+        boolean committed = tx.commit();
+        fallbacks.commits++;
+        fallbacks.appendCopyFallbacks += metrics.getAppendCopyFallbacks() - before;
+        return committed;
+    }
+}
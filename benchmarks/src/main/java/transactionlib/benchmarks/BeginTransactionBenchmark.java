@@ -0,0 +1,46 @@
+package transactionlib.benchmarks;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import transactionlib.Transaction;
+
+/**
+ * Kosten von TransactionManager.beginTransaction; der Snapshot entsteht erst beim ersten Schreiben.
+ * Jede begonnene Transaktion wird nach dem Aufruf ungemessen zurückgerollt, damit sich keine aktiven
+ * Transaktionen, Snapshot-Referenzen oder Leases im Manager ansammeln.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BeginTransactionBenchmark {
+
+    private BenchmarkEnvironment environment;
+    private Transaction transaction;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @TearDown(Level.Invocation)
+    public void rollbackTransaction() throws Exception {
+        transaction.rollback();
+    }
+
+    @Benchmark
+    public Transaction beginTransaction() throws Exception {
+        transaction = environment.manager.beginTransaction();
+        return transaction;
+    }
+}
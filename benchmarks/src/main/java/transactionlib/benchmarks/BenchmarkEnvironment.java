@@ -0,0 +1,79 @@
+package transactionlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.stream.Stream;
+
+import transactionlib.LocalSnapshotBackend;
+import transactionlib.TransactionLog;
+import transactionlib.TransactionManager;
+
+/**
+ * Gemeinsame Umgebung der Benchmarks: ein temporäres Verzeichnis mit LocalSnapshotBackend,
+ * damit die Messungen auf jedem Linux-Rechner ohne ZFS-Pool laufen.
+ */
+final class BenchmarkEnvironment {
+    // Die Bibliothek meldet jeden Commit und Rollback auf System.out; diese Ausgaben würden die Messung
+    // dominieren und werden deshalb für die Dauer eines Benchmarks abgeschaltet.
+
+    final File directory;
+    final TransactionManager manager;
+    private final File intentDirectory;
+    private final boolean logEnabled;
+
+    BenchmarkEnvironment() throws IOException {
+        this(true, false);
+    }
+
+    /**
+     * @param useHardLinks false für Snapshots aus vollständigen Kopien; nur dann teilen die Live-Dateien ihren
+     *                     Inode nicht mit dem Snapshot und appendFile kann an Ort und Stelle anhängen
+     * @param intentLog true für einen Manager mit Intent-Log, Voraussetzung für blockweise Commits
+     */
+    BenchmarkEnvironment(boolean useHardLinks, boolean intentLog) throws IOException {
+        directory = Files.createTempDirectory("transactionlib-bench").toFile();
+        LocalSnapshotBackend backend = new LocalSnapshotBackend(directory, useHardLinks);
+        if (intentLog) {
+            intentDirectory = Files.createTempDirectory("transactionlib-bench-intent").toFile();
+            manager = new TransactionManager(backend, intentDirectory);
+        } else {
+            intentDirectory = null;
+            manager = new TransactionManager(backend);
+        }
+        // Einzelne Threads sollen nicht durch Leases auf "heißen" Dateien gebremst werden.
+        manager.setPessimisticThresholds(2, 2);
+        logEnabled = TransactionLog.isEnabled();
+        TransactionLog.setEnabled(false);
+    }
+
+    /**
+     * Legt eine Datei mit size Bytes ASCII-Inhalt an.
+     */
+    File createFile(String name, int size) throws IOException {
+        File file = new File(directory, name);
+        byte[] content = new byte[size];
+        for (int i = 0; i < size; i++) {
+            content[i] = (byte) ('a' + i % 26);
+        }
+        Files.write(file.toPath(), content);
+        return file;
+    }
+
+    void close() throws IOException {
+        manager.close();
+        TransactionLog.setEnabled(logEnabled);
+        delete(directory);
+        if (intentDirectory != null) {
+            delete(intentDirectory);
+        }
+    }
+
+    private static void delete(File directory) throws IOException {
+        try (Stream<Path> paths = Files.walk(directory.toPath())) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> path.toFile().delete());
+        }
+    }
+}
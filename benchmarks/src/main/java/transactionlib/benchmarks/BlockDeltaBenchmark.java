@@ -0,0 +1,81 @@
+package transactionlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import transactionlib.Transaction;
+import transactionlib.TransactionMetrics;
+
+/**
+ * Commit einer großen Datei, in der eine Transaktion nur wenige Bytes per writeBytes geändert hat.
+ * Blockweise übernommen wird nur mit Intent-Log und dauerhaften Commits, beides ist hier eingeschaltet.
+ * Mit Hardlink-Snapshots teilt die Live-Datei ihren Inode mit dem Snapshot; der Commit stellt dann die ganze
+ * Datei bereit. Wie oft das geschieht, zeigt der Zähler "blockDeltaFallbacks"; nur mit hardLinks=false misst
+ * der Benchmark die blockweise Übernahme.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class BlockDeltaBenchmark {
+
+    private static final byte[] PATCH = "patched".getBytes(StandardCharsets.UTF_8);
+
+    @Param({"1048576", "16777216"})
+    public int fileSize;
+
+    @Param({"true", "false"})
+    public boolean hardLinks;
+
+    private BenchmarkEnvironment environment;
+    private File file;
+    private long position;
+
+    /**
+     * Zusätzliche Ausgabe je Iteration: Commits und davon vollständig bereitgestellte große Dateien.
+     */
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Fallbacks {
+        public long commits;
+        public long blockDeltaFallbacks;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            commits = 0;
+            blockDeltaFallbacks = 0;
+        }
+    }
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment(hardLinks, true);
+        file = environment.createFile("data.bin", fileSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public boolean writeBytes(Fallbacks fallbacks) throws Exception {
+        TransactionMetrics metrics = environment.manager.getMetrics();
+        long before = metrics.getBlockDeltaFallbacks();
+        // Jeder Commit ändert eine andere Stelle der Datei.
+        position = (position + 4099 * PATCH.length) % (fileSize - PATCH.length);
+        Transaction tx = environment.manager.beginTransaction();
+        tx.writeBytes(file, position, ByteBuffer.wrap(PATCH));
+        boolean committed = tx.commit();
+        fallbacks.commits++;
+        fallbacks.blockDeltaFallbacks += metrics.getBlockDeltaFallbacks() - before;
+        return committed;
+    }
+}
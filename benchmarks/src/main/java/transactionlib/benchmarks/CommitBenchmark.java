@@ -0,0 +1,86 @@
+package transactionlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import transactionlib.Transaction;
+
+/**
+ * commit() und rollback() einer Transaktion, die FILES Dateien gelesen und neu geschrieben hat.
+ * Vor jedem Aufruf committet eine zweite Transaktion "conflicts" dieser Dateien, sodass der Commit
+ * bei 0 Konflikten durchläuft und sonst scheitert. Vorbereitung und Konflikt-Commit werden nicht gemessen.
+ * Für rollback() spielt "conflicts" keine Rolle, da die Transaktion noch nichts installiert hat.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommitBenchmark {
+
+    private static final int FILES = 8;
+
+    @Param({"0", "1", "8"})
+    public int conflicts;
+
+    @Param({"false", "true"})
+    public boolean durable;
+
+    private BenchmarkEnvironment environment;
+    private File[] files;
+    private Transaction transaction;
+    private int round;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        environment.manager.setDurableCommits(durable);
+        files = new File[FILES];
+        for (int i = 0; i < FILES; i++) {
+            files[i] = environment.createFile("file" + i + ".txt", 4096);
+        }
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Setup(Level.Invocation)
+    public void prepareTransaction() throws Exception {
+        round++;
+        transaction = environment.manager.beginTransaction();
+        for (File file : files) {
+            transaction.writeFile(file, transaction.readFile(file).substring(1) + (char) ('a' + round % 26));
+        }
+        if (conflicts > 0) {
+            Transaction other = environment.manager.beginTransaction();
+            for (int i = 0; i < conflicts; i++) {
+                other.writeFile(files[i], other.readFile(files[i]));
+            }
+            other.commit();
+        }
+    }
+
+    @TearDown(Level.Invocation)
+    public void finishTransaction() throws Exception {
+        // Nach commit() und rollback() ist die Transaktion bereits beendet.
+        if (transaction.isActive()) {
+            transaction.rollback();
+        }
+    }
+
+    @Benchmark
+    public boolean commit() throws Exception {
+        return transaction.commit();
+    }
+
+    @Benchmark
+    public void rollback() throws Exception {
+        transaction.rollback();
+    }
+}
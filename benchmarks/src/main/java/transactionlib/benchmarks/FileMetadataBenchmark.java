@@ -0,0 +1,56 @@
+package transactionlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import transactionlib.FileMetadata;
+import transactionlib.FingerprintCache;
+import transactionlib.HashAlgorithm;
+
+/**
+ * FileMetadata.fromFile für jedes Hash-Verfahren und mehrere Dateigrößen,
+ * einmal ohne Cache (vollständiges Hashen) und einmal mit Fingerprint-Cache (nur stat).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FileMetadataBenchmark {
+
+    @Param({"1024", "1048576", "16777216"})
+    public int fileSize;
+
+    @Param({"SHA_256", "CRC32C", "XXH64"})
+    public HashAlgorithm algorithm;
+
+    private BenchmarkEnvironment environment;
+    private File file;
+    private FingerprintCache cache;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        file = environment.createFile("data.bin", fileSize);
+        cache = new FingerprintCache(16);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public FileMetadata hashWithoutCache() throws Exception {
+        return FileMetadata.fromFile(file, null, algorithm);
+    }
+
+    @Benchmark
+    public FileMetadata hashWithCache() throws Exception {
+        return FileMetadata.fromFile(file, cache, algorithm);
+    }
+}
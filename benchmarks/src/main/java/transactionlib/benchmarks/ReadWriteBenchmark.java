@@ -0,0 +1,60 @@
+package transactionlib.benchmarks;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.*;
+
+import transactionlib.Transaction;
+
+/**
+ * readFile und writeFile jeweils in einer vollständigen Transaktion, für verschiedene Dateigrößen.
+ * Eine reine Lesetransaktion kommt ohne Snapshot aus; eine schreibende erstellt beim Commit einen
+ * (Hardlink-)Snapshot und installiert die Datei per Rename.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ReadWriteBenchmark {
+
+    @Param({"1024", "65536", "1048576"})
+    public int fileSize;
+
+    private BenchmarkEnvironment environment;
+    private File file;
+    private String content;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        environment = new BenchmarkEnvironment();
+        environment.manager.setDurableCommits(false);
+        file = environment.createFile("data.txt", fileSize);
+        content = new String(Files.readAllBytes(file.toPath()), StandardCharsets.UTF_8);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        environment.close();
+    }
+
+    @Benchmark
+    public String readFile() throws Exception {
+        Transaction tx = environment.manager.beginTransaction();
+        String result = tx.readFile(file);
+        tx.commit();
+        return result;
+    }
+
+    @Benchmark
+    public boolean writeFile() throws Exception {
+        Transaction tx = environment.manager.beginTransaction();
+        tx.writeFile(file, content);
+        return tx.commit();
+    }
+}
@@ -0,0 +1,45 @@
+package transactionlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ContentionTrackerTest {
+
+    private final File file = new File("a.txt");
+
+    @Test
+    void conflictsMakeFileHotUntilItCools() {
+        ContentionTracker tracker = new ContentionTracker(100);
+        for (int i = 0; i < 5; i++) {
+            tracker.record(List.of(file), file);
+        }
+        assertTrue(tracker.isHot(file));
+        assertEquals(1, tracker.hotCount());
+
+        while (tracker.isHot(file)) {
+            tracker.record(List.of(file), null);
+        }
+        assertTrue(tracker.conflictRate(List.of(file)) < 0.2);
+    }
+
+    @Test
+    void removesFilesThatHaveCooledDown() {
+        ContentionTracker tracker = new ContentionTracker(100);
+        for (int i = 0; i < 1000; i++) {
+            File other = new File("datei" + i);
+            tracker.record(List.of(other), other);
+            while (tracker.size() > 0) {
+                tracker.record(List.of(other), null);
+            }
+        }
+        assertEquals(0, tracker.size());
+        assertFalse(tracker.isHot(file));
+        assertEquals(0.0, tracker.conflictRate(List.of(file)));
+    }
+}
@@ -0,0 +1,95 @@
+package transactionlib;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+class FingerprintCacheTest {
+
+    private static final byte[] HASH = {1, 2, 3, 4};
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void quiet() {
+        TransactionLog.setEnabled(false);
+    }
+
+    @Test
+    void returnsStoredHashWhileStatIsUnchanged() throws IOException {
+        Path file = write("a.txt", "alt", Instant.now().minusSeconds(60));
+        FingerprintCache cache = new FingerprintCache(10);
+        cache.store(file, attrs(file), HashAlgorithm.SHA_256, HASH);
+
+        assertArrayEquals(HASH, cache.lookup(file, attrs(file), HashAlgorithm.SHA_256));
+        assertNull(cache.lookup(file, attrs(file), HashAlgorithm.XXH64), "Jedes Verfahren hat eigene Einträge");
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+
+        write("a.txt", "neuer Inhalt", Instant.now().minusSeconds(30));
+        assertNull(cache.lookup(file, attrs(file), HashAlgorithm.SHA_256));
+    }
+
+    @Test
+    void doesNotStoreHashOfRecentlyModifiedFile() throws IOException {
+        // Eine weitere Änderung im selben Zeitstempel-Takt hätte dasselbe Stat-Tupel. Die mtime liegt knapp in der
+        // Zukunft, damit ein langsamer Testlauf sie nicht vor dem Speichern aus dem Fenster schiebt.
+        Path file = write("a.txt", "alt", Instant.now().plusSeconds(1));
+        FingerprintCache cache = new FingerprintCache(10);
+        cache.store(file, attrs(file), HashAlgorithm.SHA_256, HASH);
+
+        assertEquals(0, cache.size());
+        assertNull(cache.lookup(file, attrs(file), HashAlgorithm.SHA_256));
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedEntry() throws IOException {
+        Instant old = Instant.now().minusSeconds(60);
+        Path a = write("a.txt", "a", old);
+        Path b = write("b.txt", "b", old);
+        Path c = write("c.txt", "c", old);
+        FingerprintCache cache = new FingerprintCache(2);
+        cache.store(a, attrs(a), HashAlgorithm.SHA_256, HASH);
+        cache.store(b, attrs(b), HashAlgorithm.SHA_256, HASH);
+        cache.lookup(a, attrs(a), HashAlgorithm.SHA_256);
+        cache.store(c, attrs(c), HashAlgorithm.SHA_256, HASH);
+
+        assertEquals(2, cache.size());
+        assertNull(cache.lookup(b, attrs(b), HashAlgorithm.SHA_256));
+        assertArrayEquals(HASH, cache.lookup(a, attrs(a), HashAlgorithm.SHA_256));
+    }
+
+    @Test
+    void survivesRestartThroughPersistFile() throws IOException {
+        Path file = write("a.txt", "alt", Instant.now().minusSeconds(60));
+        Path persistFile = dir.resolve("fingerprints");
+        FingerprintCache cache = new FingerprintCache(10, persistFile.toFile());
+        cache.store(file, attrs(file), HashAlgorithm.SHA_256, HASH);
+        cache.save();
+
+        FingerprintCache restarted = new FingerprintCache(10, persistFile.toFile());
+        assertArrayEquals(HASH, restarted.lookup(file, attrs(file), HashAlgorithm.SHA_256));
+    }
+
+    private Path write(String name, String content, Instant mtime) throws IOException {
+        Path file = Files.writeString(dir.resolve(name), content);
+        Files.setLastModifiedTime(file, FileTime.from(mtime));
+        return file;
+    }
+
+    private static BasicFileAttributes attrs(Path file) throws IOException {
+        return Files.readAttributes(file, BasicFileAttributes.class);
+    }
+}
@@ -0,0 +1,54 @@
+package transactionlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class HashAlgorithmTest {
+    // Referenzwerte von XXH64 mit Seed 0 (xxHash-Referenzimplementierung).
+
+    @Test
+    void xxh64MatchesReferenceVectors() {
+        assertEquals(0xEF46DB3751D8E999L, xxh64(""));
+        assertEquals(0xD24EC4F1A98C6E5BL, xxh64("a"));
+        assertEquals(0x44BC2CF5AD770999L, xxh64("abc"));
+        assertEquals(0xFBCEA83C8A378BF1L, xxh64("Nobody inspects the spammish repetition"));
+        assertEquals(0x0B242D361FDA71BCL, xxh64("The quick brown fox jumps over the lazy dog"));
+    }
+
+    @Test
+    void xxh64IsIndependentOfBufferBoundaries() {
+        byte[] data = new byte[1000];
+        new Random(7).nextBytes(data);
+        byte[] expected = digest(data, data.length);
+        for (int chunk : new int[]{1, 3, 8, 31, 32, 33, 100, 999}) {
+            assertArrayEquals(expected, digest(data, chunk), "Puffergröße " + chunk);
+        }
+    }
+
+    @Test
+    void xxh64ConsumesTheBuffer() {
+        ByteBuffer buffer = ByteBuffer.wrap("abc".getBytes(StandardCharsets.UTF_8));
+        HashAlgorithm.Hasher hasher = new HashAlgorithm.Xxh64Hasher(0);
+        hasher.update(buffer);
+        assertEquals(0, buffer.remaining());
+    }
+
+    private static long xxh64(String text) {
+        byte[] data = text.getBytes(StandardCharsets.UTF_8);
+        return ByteBuffer.wrap(digest(data, Math.max(1, data.length))).getLong();
+    }
+
+    private static byte[] digest(byte[] data, int chunk) {
+        HashAlgorithm.Hasher hasher = new HashAlgorithm.Xxh64Hasher(0);
+        for (int offset = 0; offset < data.length; offset += chunk) {
+            hasher.update(ByteBuffer.wrap(data, offset, Math.min(chunk, data.length - offset)));
+        }
+        return hasher.digest();
+    }
+}
@@ -0,0 +1,292 @@
+package transactionlib;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+
+class IntentLogTest {
+    // Ein Absturz nach dem COMMIT-Eintrag wird nachgestellt, indem das Log ohne finish geschlossen wird:
+    // Die Segmente bleiben dann liegen und recover spielt sie nach.
+
+    @TempDir
+    Path dir;
+
+    @BeforeAll
+    static void quiet() {
+        TransactionLog.setEnabled(false);
+    }
+
+    @Test
+    void replaysRenameOfCommittedTransaction() throws IOException {
+        Path live = write("test.txt", "alt");
+        Path staged = write(".test.txt.tx_1.tmp", "neu");
+        IntentLog log = new IntentLog(logDir());
+        IntentLog.Entry entry = log.prepare("tx_1", List.of(staged));
+        log.commit(entry, "tx_1", List.of(IntentLog.Action.expect(live, false), IntentLog.Action.rename(staged, live)));
+        log.close();
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("neu", read(live));
+        assertFalse(Files.exists(staged));
+        assertEquals(0, IntentLog.recover(logDir()), "Das Log wird nach dem Nachspielen entfernt");
+    }
+
+    @Test
+    void discardsStagedFilesOfUndecidedTransaction() throws IOException {
+        Path live = write("test.txt", "alt");
+        Path staged = write(".test.txt.tx_1.tmp", "neu");
+        IntentLog log = new IntentLog(logDir());
+        log.prepare("tx_1", List.of(staged));
+        log.close();
+
+        assertEquals(0, IntentLog.recover(logDir()));
+        assertEquals("alt", read(live));
+        assertFalse(Files.exists(staged));
+    }
+
+    @Test
+    void skipsFinishedTransactions() throws IOException {
+        Path live = write("test.txt", "neu");
+        Path staged = write(".test.txt.tx_1.tmp", "veraltet");
+        IntentLog log = new IntentLog(logDir());
+        IntentLog.Entry entry = log.commit(null, "tx_1", List.of(IntentLog.Action.rename(staged, live)));
+        log.finish(entry, true, null);
+        log.close();
+
+        assertEquals(0, IntentLog.recover(logDir()));
+        assertEquals("neu", read(live));
+    }
+
+    @Test
+    void doesNotTouchLogOfRunningManager() throws IOException {
+        Path live = write("test.txt", "alt");
+        Path staged = write(".test.txt.tx_1.tmp", "neu");
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.rename(staged, live)));
+        try {
+            assertEquals(0, IntentLog.recover(logDir()));
+            assertEquals("alt", read(live));
+        } finally {
+            log.close();
+        }
+    }
+
+    @Test
+    void replaysDelete() throws IOException {
+        Path live = write("test.txt", "alt");
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.expect(live, false), IntentLog.Action.delete(live)));
+        log.close();
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertFalse(Files.exists(live));
+    }
+
+    @Test
+    void completesPartialAppendExactlyOnce() throws IOException {
+        Path partial = write("partial.txt", "base|mo");
+        Path complete = write("complete.txt", "base|more|");
+        byte[] data = "more|".getBytes(StandardCharsets.UTF_8);
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.append(partial, 5, data),
+                IntentLog.Action.append(complete, 5, data)));
+        log.close();
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("base|more|", read(partial));
+        assertEquals("base|more|", read(complete));
+    }
+
+    @Test
+    void completesPartialAppendOnUnchangedBase() throws IOException {
+        Path live = write("log.txt", "base|");
+        byte[] data = "more|".getBytes(StandardCharsets.UTF_8);
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.expect(live, true), IntentLog.Action.append(live, 5, data)));
+        log.close();
+        Files.writeString(live, "mo", StandardOpenOption.APPEND);
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("base|more|", read(live));
+    }
+
+    @Test
+    void replaysBlocksOnBaseState() throws IOException {
+        BlockRedo redo = new BlockRedo();
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertArrayEquals(redo.modified, Files.readAllBytes(redo.live));
+    }
+
+    @Test
+    void replaysBlocksOnPartiallyInstalledFile() throws IOException {
+        BlockRedo redo = new BlockRedo();
+        byte[] partial = redo.original.clone();
+        partial[10] = redo.modified[10];
+        Files.write(redo.live, partial);
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertArrayEquals(redo.modified, Files.readAllBytes(redo.live));
+    }
+
+    @Test
+    void replaysBlocksOnCompletelyInstalledFile() throws IOException {
+        BlockRedo redo = new BlockRedo();
+        Files.write(redo.live, redo.modified);
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertArrayEquals(redo.modified, Files.readAllBytes(redo.live));
+    }
+
+    @Test
+    void keepsNewerVersionInsteadOfReplayingBlocks() throws IOException {
+        BlockRedo redo = new BlockRedo();
+        byte[] newer = redo.original.clone();
+        newer[200_000] ^= 7;
+        Path temp = write(".big.bin.tx_2.tmp", "");
+        Files.write(temp, newer);
+        Files.move(temp, redo.live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertArrayEquals(newer, Files.readAllBytes(redo.live));
+    }
+
+    @Test
+    void keepsNewerVersionInsteadOfReplayingRename() throws IOException {
+        Path live = write("test.txt", "alt");
+        Path staged = write(".test.txt.tx_1.tmp", "neu");
+        IntentLog log = new IntentLog(logDir());
+        IntentLog.Entry entry = log.prepare("tx_1", List.of(staged));
+        log.commit(entry, "tx_1", List.of(IntentLog.Action.expect(live, false), IntentLog.Action.rename(staged, live)));
+        log.close();
+        replaceLiveFile(live, "neuer");
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("neuer", read(live));
+        assertFalse(Files.exists(staged), "Die bereitgestellte Datei wird verworfen");
+    }
+
+    @Test
+    void keepsNewerVersionInsteadOfReplayingDelete() throws IOException {
+        Path live = write("test.txt", "alt");
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.expect(live, false), IntentLog.Action.delete(live)));
+        log.close();
+        replaceLiveFile(live, "neuer");
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("neuer", read(live));
+    }
+
+    @Test
+    void keepsNewerVersionInsteadOfReplayingDeleteOfNewFile() throws IOException {
+        Path live = dir.resolve("test.txt");
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.expect(live, false), IntentLog.Action.delete(live)));
+        log.close();
+        write("test.txt", "neuer");
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("neuer", read(live));
+    }
+
+    @Test
+    void keepsNewerVersionInsteadOfCompletingAppend() throws IOException {
+        Path live = write("log.txt", "base|");
+        byte[] data = "more|".getBytes(StandardCharsets.UTF_8);
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.expect(live, true), IntentLog.Action.append(live, 5, data)));
+        log.close();
+        // Gleiche Länge und gleicher Inode wie ein halbes Anhängen, aber ein anderer Ausgangsstand.
+        Files.writeString(live, "BASE|mo");
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("BASE|mo", read(live));
+    }
+
+    @Test
+    void keepsForeignBytesInsteadOfCompletingAppend() throws IOException {
+        Path live = write("log.txt", "base|");
+        byte[] data = "more|".getBytes(StandardCharsets.UTF_8);
+        IntentLog log = new IntentLog(logDir());
+        log.commit(null, "tx_1", List.of(IntentLog.Action.expect(live, true), IntentLog.Action.append(live, 5, data)));
+        log.close();
+        Files.writeString(live, "xy", StandardOpenOption.APPEND);
+
+        assertEquals(1, IntentLog.recover(logDir()));
+        assertEquals("base|xy", read(live));
+    }
+
+    @Test
+    void replaysGrowingAndShrinkingBlockChanges() throws IOException {
+        for (int delta : new int[]{70_000, -70_000}) {
+            BlockRedo redo = new BlockRedo(delta);
+            assertEquals(1, IntentLog.recover(logDir()));
+            assertArrayEquals(redo.modified, Files.readAllBytes(redo.live), "Längenänderung " + delta);
+        }
+    }
+
+    /**
+     * Ersetzt die Live-Datei wie ein späterer Commit per Rename durch eine neuere Version.
+     */
+    private void replaceLiveFile(Path live, String content) throws IOException {
+        Path temp = write("." + live.getFileName() + ".tx_2.tmp", content);
+        Files.move(temp, live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    private Path logDir() {
+        return dir.resolve("intents");
+    }
+
+    private Path write(String name, String content) throws IOException {
+        return Files.writeString(dir.resolve(name), content);
+    }
+
+    private static String read(Path file) throws IOException {
+        return Files.readString(file);
+    }
+
+    /**
+     * Eine große Datei mit blockweise übernommenen Änderungen, deren COMMIT im Log steht, aber noch nicht
+     * installiert ist.
+     */
+    private final class BlockRedo {
+        final Path live = dir.resolve("big.bin");
+        final byte[] original = new byte[2 * 1024 * 1024 + 100];
+        final byte[] modified;
+
+        BlockRedo() throws IOException {
+            this(0);
+        }
+
+        BlockRedo(int lengthChange) throws IOException {
+            new Random(1).nextBytes(original);
+            Files.write(live, original);
+            BlockDelta.Base base = BlockDelta.Base.of(live);
+            byte[] changed = original.clone();
+            changed[10] ^= 1;
+            changed[700_000] ^= 1;
+            changed[original.length - 1] ^= 1;
+            modified = Arrays.copyOf(changed, changed.length + lengthChange);
+            Path work = dir.resolve("work.bin");
+            Files.write(work, modified);
+            BlockDelta delta = BlockDelta.compute(work, base);
+            IntentLog log = new IntentLog(logDir());
+            log.commit(null, "tx_1", delta.redoActions(live));
+            log.close();
+        }
+    }
+}
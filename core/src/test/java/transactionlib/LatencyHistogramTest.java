@@ -0,0 +1,85 @@
+package transactionlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Locale;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LatencyHistogramTest {
+
+    @Test
+    void bucketsAreContiguousAndCoverTheLongRange() {
+        assertEquals(0, LatencyHistogram.bucketIndex(0));
+        for (int i = 0; i < LatencyHistogram.BUCKETS - 1; i++) {
+            long upper = LatencyHistogram.bucketUpperBound(i);
+            assertEquals(i, LatencyHistogram.bucketIndex(upper), "Obergrenze von Bucket " + i);
+            assertEquals(i + 1, LatencyHistogram.bucketIndex(upper + 1), "Untergrenze von Bucket " + (i + 1));
+        }
+        assertEquals(Long.MAX_VALUE, LatencyHistogram.bucketUpperBound(LatencyHistogram.BUCKETS - 1));
+        assertEquals(LatencyHistogram.BUCKETS - 1, LatencyHistogram.bucketIndex(Long.MAX_VALUE));
+    }
+
+    @Test
+    void smallValuesAreExact() {
+        for (long value = 0; value < 32; value++) {
+            assertEquals(value, LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value)));
+        }
+    }
+
+    @Test
+    void bucketWidthStaysWithinRelativeError() {
+        for (long value = 32; value > 0 && value < Long.MAX_VALUE / 3; value = value * 3 + 1) {
+            long upper = LatencyHistogram.bucketUpperBound(LatencyHistogram.bucketIndex(value));
+            assertTrue(upper >= value, "Obergrenze unter dem Wert " + value);
+            assertTrue(upper - value <= value / 32, "Bucket zu breit für " + value);
+        }
+    }
+
+    @Test
+    void percentilesOfUniformValues() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 1; value <= 100; value++) {
+            histogram.record(value);
+        }
+        assertEquals(100, histogram.getCount());
+        assertEquals(50.5, histogram.getMeanNanos(), 1e-9);
+        assertEquals(50, histogram.getPercentileNanos(50));
+        assertEquals(99, histogram.getPercentileNanos(99));
+        assertEquals(100, histogram.getPercentileNanos(99.9));
+        assertEquals(100, histogram.getMaxNanos());
+    }
+
+    @Test
+    void percentileIsCappedAtMaximum() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(1_000_000);
+        assertEquals(1_000_000, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    void negativeValuesCountAsZeroAndResetClears() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getPercentileNanos(99));
+        histogram.record(-5);
+        assertEquals(1, histogram.getCount());
+        assertEquals(0, histogram.getMaxNanos());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getPercentileNanos(50));
+    }
+
+    @Test
+    void summaryUsesDecimalPointInEveryLocale() {
+        Locale previous = Locale.getDefault();
+        Locale.setDefault(Locale.GERMANY);
+        try {
+            LatencyHistogram histogram = new LatencyHistogram();
+            histogram.record(1_500_000);
+            assertTrue(histogram.toString().startsWith("n=1 mean=1.5ms"), histogram.toString());
+        } finally {
+            Locale.setDefault(previous);
+        }
+    }
+}
@@ -0,0 +1,46 @@
+package transactionlib;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class LeaseTableTest {
+
+    private final File file = new File("a.txt");
+
+    @Test
+    void sharedLeasesExcludeExclusiveLease() throws InterruptedException {
+        LeaseTable table = new LeaseTable();
+        assertTrue(table.acquire(file, false, 0));
+        assertTrue(table.acquire(file, false, 0));
+        assertFalse(table.acquire(file, true, 10));
+        assertFalse(table.tryUpgrade(file), "Ein zweiter Leser verhindert die Aufwertung");
+
+        table.release(file, false);
+        assertTrue(table.tryUpgrade(file));
+        table.release(file, true);
+        assertTrue(table.acquire(file, true, 0));
+        table.release(file, true);
+    }
+
+    @Test
+    void removesEntryWhenNoOneHoldsOrWaits() throws InterruptedException {
+        LeaseTable table = new LeaseTable();
+        for (int i = 0; i < 100; i++) {
+            File other = new File("datei" + i);
+            assertTrue(table.acquire(other, true, 0));
+            table.release(other, true);
+        }
+        assertEquals(0, table.size());
+
+        assertTrue(table.acquire(file, true, 0));
+        assertFalse(table.acquire(file, false, 10), "Der Wartende gibt nach der Wartezeit auf");
+        assertEquals(1, table.size(), "Die gehaltene Lease bleibt eingetragen");
+        table.release(file, true);
+        assertEquals(0, table.size());
+    }
+}
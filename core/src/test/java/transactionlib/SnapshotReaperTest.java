@@ -0,0 +1,119 @@
+package transactionlib;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class SnapshotReaperTest {
+
+    private final RecordingBackend backend = new RecordingBackend();
+    private SnapshotReaper reaper;
+
+    @BeforeAll
+    static void quiet() {
+        TransactionLog.setEnabled(false);
+    }
+
+    @BeforeEach
+    void createReaper() {
+        reaper = new SnapshotReaper(backend);
+        // Die Tests rufen reap() selbst auf; der Hintergrund-Thread soll nicht dazwischenkommen.
+        reaper.setIntervalMillis(60_000);
+    }
+
+    @AfterEach
+    void closeReaper() {
+        reaper.close();
+    }
+
+    @Test
+    void keepsLastSnapshotsAndDestroysTheRestInOneBatch() {
+        reaper.setRetention(2, 0);
+        for (String name : List.of("a", "b", "c", "d", "e")) {
+            reaper.enqueue(name);
+        }
+        reaper.reap();
+
+        assertEquals(List.of(List.of("a", "b", "c")), backend.batches);
+        assertEquals(3, reaper.getSnapshotsDestroyed());
+        assertEquals(2, reaper.getPendingCount());
+    }
+
+    @Test
+    void keepsSnapshotsWithinRetentionTime() {
+        reaper.setRetention(0, 1);
+        reaper.enqueue("a");
+        reaper.reap();
+
+        assertEquals(List.of(), backend.batches);
+        assertEquals(1, reaper.getPendingCount());
+    }
+
+    @Test
+    void requeuesSnapshotsTheBackendCouldNotDestroy() {
+        backend.failing.add("b");
+        backend.failing.add("c");
+        for (String name : List.of("a", "b", "c", "d")) {
+            reaper.enqueue(name);
+        }
+        reaper.reap();
+        assertEquals(2, reaper.getSnapshotsDestroyed());
+        assertEquals(2, reaper.getPendingCount());
+
+        backend.failing.clear();
+        reaper.reap();
+        assertEquals(List.of("b", "c"), backend.batches.get(1), "Wieder vorne und in ursprünglicher Reihenfolge");
+        assertEquals(4, reaper.getSnapshotsDestroyed());
+        assertEquals(0, reaper.getPendingCount());
+    }
+
+    /**
+     * Backend, das nur die Lösch-Batches aufzeichnet; Snapshots in "failing" kann es nicht löschen.
+     */
+    private static final class RecordingBackend implements SnapshotBackend {
+        final List<List<String>> batches = new ArrayList<>();
+        final Set<String> failing = new HashSet<>();
+
+        @Override
+        public List<String> destroySnapshots(List<String> snapshotNames) {
+            batches.add(new ArrayList<>(snapshotNames));
+            List<String> destroyed = new ArrayList<>(snapshotNames);
+            destroyed.removeAll(failing);
+            return destroyed;
+        }
+
+        @Override
+        public String createSnapshot(String transactionId) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void rollbackToSnapshot(String snapshotName) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean snapshotExists(String snapshotName) {
+            return false;
+        }
+
+        @Override
+        public File resolveInSnapshot(String snapshotName, File liveFile) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public void destroySnapshot(String snapshotName) {
+            throw new UnsupportedOperationException();
+        }
+    }
+}
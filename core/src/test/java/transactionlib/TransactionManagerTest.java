@@ -0,0 +1,301 @@
+package transactionlib;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeFalse;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TransactionManagerTest {
+
+    @TempDir
+    Path dir;
+    Path data;
+
+    @BeforeAll
+    static void quiet() {
+        TransactionLog.setEnabled(false);
+        System.setProperty("transactionlib.jmx", "false");
+    }
+
+    @BeforeEach
+    void createDataDirectory() throws IOException {
+        data = Files.createDirectories(dir.resolve("data"));
+    }
+
+    @Test
+    void concurrentTransactionsShareOneSnapshot() throws Exception {
+        File a = write("a.txt", "a");
+        File b = write("b.txt", "b");
+        try (TransactionManager manager = manager()) {
+            manager.setSnapshotCoalescingWindowMillis(60_000);
+            manager.setSnapshotReapIntervalMillis(60_000);
+            Transaction first = manager.beginTransaction();
+            first.writeFile(a, "1");
+            Transaction second = manager.beginTransaction();
+            second.writeFile(b, "2");
+            assertEquals(1, manager.getSnapshotsCreated());
+            assertEquals(1, manager.getSnapshotsShared());
+
+            assertTrue(first.commit());
+            assertEquals(0, manager.getPendingSnapshotCount(), "Die zweite Transaktion hält den Snapshot noch");
+            assertTrue(second.commit());
+            assertEquals(1, manager.getPendingSnapshotCount(), "Nach der letzten Referenz wird er freigegeben");
+
+            Transaction third = manager.beginTransaction();
+            third.writeFile(a, "3");
+            assertEquals(2, manager.getSnapshotsCreated(), "Über einen Commit hinweg wird nicht geteilt");
+            third.rollback();
+        }
+        assertEquals(0, snapshotCount(), "close() löscht die freigegebenen Snapshots");
+    }
+
+    @Test
+    void retriesAfterConflict() throws Exception {
+        File file = write("a.txt", "0");
+        AtomicInteger runs = new AtomicInteger();
+        try (TransactionManager manager = manager()) {
+            TransactionResult<String> result = manager.runInTransaction(tx -> {
+                String value = tx.readFile(file);
+                if (runs.incrementAndGet() == 1) {
+                    commitConcurrently(manager, file, "1");
+                }
+                tx.writeFile(file, value + "+");
+                return value;
+            }, new RetryPolicy(3, 0, 0, 0));
+
+            assertTrue(result.isCommitted());
+            assertEquals(2, result.getAttempts());
+            assertEquals("1", result.getValue(), "Der zweite Versuch sieht den neuen Stand");
+            assertEquals("1+", read(file));
+            assertEquals(1, manager.getRetryCount());
+        }
+    }
+
+    @Test
+    void givesUpAfterMaxAttempts() throws Exception {
+        File file = write("a.txt", "0");
+        AtomicInteger runs = new AtomicInteger();
+        try (TransactionManager manager = manager()) {
+            TransactionResult<String> result = manager.runInTransaction(tx -> {
+                tx.readFile(file);
+                commitConcurrently(manager, file, String.valueOf(runs.incrementAndGet()));
+                tx.writeFile(file, "verloren");
+                return "ergebnis";
+            }, new RetryPolicy(3, 0, 0, 0));
+
+            assertFalse(result.isCommitted());
+            assertEquals(3, result.getAttempts());
+            assertNull(result.getValue());
+            assertEquals("3", read(file));
+            assertEquals(2, manager.getRetryCount());
+        }
+    }
+
+    @Test
+    void givesUpAtDeadline() throws Exception {
+        File file = write("a.txt", "0");
+        try (TransactionManager manager = manager()) {
+            TransactionResult<Void> result = manager.runInTransaction(tx -> {
+                tx.readFile(file);
+                commitConcurrently(manager, file, "neu");
+                tx.writeFile(file, "verloren");
+                return null;
+            }, new RetryPolicy(1000, 20, 20, 100));
+
+            assertFalse(result.isCommitted());
+            assertTrue(result.getAttempts() > 1 && result.getAttempts() < 1000, "Versuche: " + result.getAttempts());
+            assertTrue(result.getElapsedMillis() < 1000, "Laufzeit: " + result.getElapsedMillis());
+        }
+    }
+
+    @Test
+    void doesNotRetryOtherExceptions() throws Exception {
+        File file = write("a.txt", "alt");
+        AtomicInteger runs = new AtomicInteger();
+        try (TransactionManager manager = manager()) {
+            assertThrows(IllegalStateException.class, () -> manager.runInTransaction(tx -> {
+                runs.incrementAndGet();
+                tx.writeFile(file, "neu");
+                throw new IllegalStateException("Fehler im Rumpf");
+            }));
+            assertEquals(1, runs.get());
+            assertEquals("alt", read(file));
+        }
+    }
+
+    @Test
+    void hotFileIsLeasedInsteadOfValidated() throws Exception {
+        File file = write("a.txt", "0");
+        try (TransactionManager manager = manager()) {
+            manager.setPessimisticThresholds(0, 0);
+            manager.setLeaseTimeoutMillis(50);
+            // Ein Konflikt macht die Datei heiß.
+            Transaction loser = manager.beginTransaction();
+            loser.readFile(file);
+            loser.writeFile(file, "verloren");
+            commitConcurrently(manager, file, "1");
+            assertFalse(loser.commit());
+            assertEquals(1, manager.getHotFileCount());
+
+            Transaction reader = manager.beginTransaction();
+            reader.readFile(file);
+            Transaction writer = manager.beginTransaction();
+            assertThrows(TransactionConflictException.class, () -> writer.writeFile(file, "2"),
+                    "Der Schreiber wartet vergeblich auf die Lease des Lesers");
+            reader.writeFile(file, "3");
+            assertTrue(reader.commit(), "Der Leser hält die Lease und kann nicht mehr scheitern");
+            assertEquals("3", read(file));
+        }
+    }
+
+    @Test
+    void durableCommitSyncsAndCanBeDisabled() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager()) {
+            commitConcurrently(manager, file, "neu");
+            long syncs = manager.getSyncCount();
+            assertTrue(syncs > 0);
+
+            manager.setDurableCommits(false);
+            commitConcurrently(manager, file, "ohne fsync");
+            assertEquals(syncs, manager.getSyncCount());
+            assertEquals("ohne fsync", read(file));
+        }
+    }
+
+    @Test
+    void intentLogIsOptIn() throws Exception {
+        try (TransactionManager manager = manager()) {
+            assertNull(manager.getIntentLog());
+        }
+        try (TransactionManager manager = new TransactionManager(
+                new LocalSnapshotBackend(data.toFile()), dir.resolve("intent").toFile())) {
+            assertNotNull(manager.getIntentLog());
+        }
+    }
+
+    @Test
+    void recoversCommitOfCrashedProcess() throws Exception {
+        File file = write("a.txt", "alt");
+        Path staged = data.resolve(".a.txt.tx_1.tmp");
+        Files.writeString(staged, "neu");
+        Path logDir = dir.resolve("intent");
+        IntentLog log = new IntentLog(logDir);
+        IntentLog.Entry entry = log.prepare("tx_1", List.of(staged));
+        log.commit(entry, "tx_1", List.of(
+                IntentLog.Action.expect(file.toPath(), false), IntentLog.Action.rename(staged, file.toPath())));
+        log.close();
+
+        try (TransactionManager manager = new TransactionManager(new LocalSnapshotBackend(data.toFile()), logDir.toFile())) {
+            assertEquals(1, manager.getRecoveredCommitCount());
+        }
+        assertEquals("neu", read(file));
+        assertFalse(Files.exists(staged));
+    }
+
+    @Test
+    void beginsAndCommitsAsynchronously() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager()) {
+            Transaction tx = manager.beginAsync().get(10, TimeUnit.SECONDS);
+            tx.writeFile(file, "neu");
+            assertTrue(manager.commitAsync(tx).get(10, TimeUnit.SECONDS));
+            assertEquals("neu", read(file));
+        }
+    }
+
+    @Test
+    void asyncTransactionsRunConcurrentlyOnVirtualThreads() throws Exception {
+        assumeTrue(TransactionManager.supportsVirtualThreads(), "Erst ab Java 21");
+        // Mehr gleichzeitig blockierende Rümpfe, als der Plattform-Pool Threads hätte.
+        int count = TransactionManager.PLATFORM_THREAD_LIMIT * 2;
+        CountDownLatch allRunning = new CountDownLatch(count);
+        try (TransactionManager manager = manager()) {
+            List<CompletableFuture<TransactionResult<Boolean>>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                results.add(manager.runInTransactionAsync(tx -> {
+                    allRunning.countDown();
+                    return allRunning.await(30, TimeUnit.SECONDS);
+                }, RetryPolicy.DEFAULT));
+            }
+            for (CompletableFuture<TransactionResult<Boolean>> result : results) {
+                assertTrue(result.get(60, TimeUnit.SECONDS).getValue());
+            }
+        }
+    }
+
+    @Test
+    void asyncFallbackIsBoundedByPlatformThreadLimit() throws Exception {
+        assumeFalse(TransactionManager.supportsVirtualThreads(), "Nur ohne virtuelle Threads");
+        int count = TransactionManager.PLATFORM_THREAD_LIMIT + 16;
+        AtomicInteger running = new AtomicInteger();
+        AtomicInteger maxRunning = new AtomicInteger();
+        try (TransactionManager manager = manager()) {
+            List<CompletableFuture<TransactionResult<Void>>> results = new ArrayList<>();
+            for (int i = 0; i < count; i++) {
+                results.add(manager.runInTransactionAsync(tx -> {
+                    maxRunning.accumulateAndGet(running.incrementAndGet(), Math::max);
+                    Thread.sleep(20);
+                    running.decrementAndGet();
+                    return null;
+                }, RetryPolicy.DEFAULT));
+            }
+            for (CompletableFuture<TransactionResult<Void>> result : results) {
+                assertTrue(result.get(60, TimeUnit.SECONDS).isCommitted());
+            }
+        }
+        assertTrue(maxRunning.get() <= TransactionManager.PLATFORM_THREAD_LIMIT, "Gleichzeitig: " + maxRunning.get());
+    }
+
+    private TransactionManager manager() {
+        return new TransactionManager(new LocalSnapshotBackend(data.toFile()));
+    }
+
+    /**
+     * Schreibt die Datei in einer eigenen Transaktion, wie es ein gleichzeitiger Client täte.
+     */
+    private static void commitConcurrently(TransactionManager manager, File file, String content) throws Exception {
+        Transaction tx = manager.beginTransaction();
+        tx.writeFile(file, content);
+        assertTrue(tx.commit());
+    }
+
+    private long snapshotCount() throws IOException {
+        Path snapshots = data.resolve(".snapshots");
+        if (!Files.exists(snapshots)) {
+            return 0;
+        }
+        try (Stream<Path> entries = Files.list(snapshots)) {
+            return entries.count();
+        }
+    }
+
+    private File write(String name, String content) throws IOException {
+        return Files.writeString(data.resolve(name), content).toFile();
+    }
+
+    private static String read(File file) throws IOException {
+        return Files.readString(file.toPath());
+    }
+}
@@ -0,0 +1,89 @@
+package transactionlib;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import javax.management.JMX;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class TransactionMetricsTest {
+
+    @TempDir
+    Path data;
+
+    @BeforeAll
+    static void quiet() {
+        TransactionLog.setEnabled(false);
+    }
+
+    @BeforeEach
+    @AfterEach
+    void withoutJmx() {
+        System.setProperty("transactionlib.jmx", "false");
+    }
+
+    @Test
+    void countsPhasesAndAbortsOfConflictingTransaction() throws Exception {
+        File file = Files.writeString(data.resolve("a.txt"), "alt").toFile();
+        try (TransactionManager manager = new TransactionManager(new LocalSnapshotBackend(data.toFile()))) {
+            TransactionMetrics metrics = manager.getMetrics();
+            Transaction loser = manager.beginTransaction();
+            loser.readFile(file);
+            loser.writeFile(file, "verloren");
+            Transaction winner = manager.beginTransaction();
+            winner.writeFile(file, "neu");
+            assertEquals(2, metrics.getActiveTransactions());
+            assertTrue(winner.commit());
+            assertFalse(loser.commit());
+
+            assertEquals(0, metrics.getActiveTransactions());
+            assertEquals(1, metrics.getCommits());
+            // Der Commit des Gewinners hat den Verlierer schon vor dessen Commit benachrichtigt.
+            assertEquals(1, metrics.getAbortsByReason().get(AbortReason.DOOMED.name()));
+            assertEquals(Map.of(file.toPath().toAbsolutePath().normalize().toString(), 1L), metrics.getAbortsByPath());
+            assertEquals(1, metrics.getPhaseLatencies().get(TransactionPhase.COMMIT.name()).getCount());
+            assertEquals(2, metrics.getPhaseLatencies().get(TransactionPhase.BEGIN.name()).getCount());
+            assertTrue(metrics.getPhaseLatencies().get(TransactionPhase.VALIDATE.name()).getCount() > 0);
+
+            metrics.reset();
+            assertEquals(0, metrics.getAbortsByReason().get(AbortReason.DOOMED.name()));
+            assertTrue(metrics.getAbortsByPath().isEmpty());
+        }
+    }
+
+    @Test
+    void registersMXBeanUntilClose() throws Exception {
+        System.setProperty("transactionlib.jmx", "true");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        ObjectName pattern = new ObjectName("transactionlib:type=TransactionManager,*");
+        Set<ObjectName> before = server.queryNames(pattern, null);
+        ObjectName name;
+        try (TransactionManager manager = new TransactionManager(new LocalSnapshotBackend(data.toFile()))) {
+            Set<ObjectName> registered = new HashSet<>(server.queryNames(pattern, null));
+            registered.removeAll(before);
+            assertEquals(1, registered.size());
+            name = registered.iterator().next();
+
+            manager.beginTransaction();
+            TransactionMetricsMXBean proxy = JMX.newMXBeanProxy(server, name, TransactionMetricsMXBean.class);
+            assertEquals(1, proxy.getActiveTransactions());
+            assertEquals(1L, server.getAttribute(name, "ActiveTransactions"));
+        }
+        assertFalse(server.isRegistered(name), "close() meldet die Metriken ab");
+    }
+}
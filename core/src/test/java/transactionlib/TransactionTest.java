@@ -0,0 +1,455 @@
+package transactionlib;
+
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.SeekableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class TransactionTest {
+    // Alle Tests laufen gegen das LocalSnapshotBackend; das Datenverzeichnis wird gesichert, das Intent-Log
+    // liegt daneben, damit es nicht in den Snapshots landet.
+
+    @TempDir
+    Path dir;
+    Path data;
+
+    @BeforeAll
+    static void quiet() {
+        TransactionLog.setEnabled(false);
+        System.setProperty("transactionlib.jmx", "false");
+    }
+
+    @BeforeEach
+    void createDataDirectory() throws IOException {
+        data = Files.createDirectories(dir.resolve("data"));
+    }
+
+    @Test
+    void secondWriterOfSameFileConflicts() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction first = manager.beginTransaction();
+            Transaction second = manager.beginTransaction();
+            assertEquals("alt", first.readFile(file));
+            assertEquals("alt", second.readFile(file));
+            first.writeFile(file, "erster");
+            second.writeFile(file, "zweiter");
+
+            assertTrue(second.commit());
+            assertFalse(first.commit(), "Die gelesene Version ist veraltet");
+            assertFalse(first.isActive());
+            assertEquals("zweiter", read(file));
+            assertEquals(1, manager.getMetrics().getCommits());
+        }
+    }
+
+    @Test
+    void readOnlyCommitNeedsNoSnapshot() throws Exception {
+        File file = write("a.txt", "inhalt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            assertEquals("inhalt", tx.readFile(file));
+            assertTrue(tx.commit());
+
+            assertEquals(1, manager.getSnapshotsAvoided());
+            assertEquals(0, manager.getSnapshotsCreated());
+            assertFalse(Files.exists(data.resolve(".snapshots")));
+        }
+    }
+
+    @Test
+    void concurrentAppendsDoNotConflict() throws Exception {
+        File file = write("log.txt", "start\n");
+        try (TransactionManager manager = manager(false)) {
+            Transaction first = manager.beginTransaction();
+            Transaction second = manager.beginTransaction();
+            first.appendFile(file, "eins\n".getBytes(StandardCharsets.UTF_8));
+            second.appendFile(file, "zwei\n".getBytes(StandardCharsets.UTF_8));
+
+            assertTrue(first.commit());
+            assertTrue(second.commit(), "Anhängen kommutiert");
+            assertEquals("start\neins\nzwei\n", read(file));
+            assertEquals(0, manager.getMetrics().getAppendCopyFallbacks());
+        }
+    }
+
+    @Test
+    void appendToHardLinkedFileCopiesInsteadOfChangingSnapshot() throws Exception {
+        File file = write("log.txt", "start\n");
+        try (TransactionManager manager = manager(true)) {
+            Transaction first = manager.beginTransaction();
+            Transaction second = manager.beginTransaction();
+            first.appendFile(file, "eins\n".getBytes(StandardCharsets.UTF_8));
+            second.appendFile(file, "zwei\n".getBytes(StandardCharsets.UTF_8));
+            File saved = manager.getSnapshotBackend().resolveInSnapshot(first.getSnapshotName(), file);
+
+            assertTrue(first.commit());
+            assertTrue(second.commit());
+            assertEquals("start\neins\nzwei\n", read(file));
+            assertEquals("start\n", read(saved), "Der Hardlink-Snapshot bleibt unverändert");
+            // Nach dem Rename des ersten Commits hat die Live-Datei einen eigenen Inode.
+            assertEquals(1, manager.getMetrics().getAppendCopyFallbacks());
+        }
+    }
+
+    @Test
+    void appendsFromManyThreadsAreAllKept() throws Exception {
+        File file = write("log.txt", "");
+        int threads = 8;
+        int appendsPerThread = 20;
+        try (TransactionManager manager = manager(true)) {
+            manager.setDurableCommits(false);
+            Thread[] workers = new Thread[threads];
+            Exception[] failures = new Exception[threads];
+            for (int t = 0; t < threads; t++) {
+                int id = t;
+                workers[t] = new Thread(() -> {
+                    try {
+                        for (int i = 0; i < appendsPerThread; i++) {
+                            byte[] line = ("t" + id + "-" + i + "\n").getBytes(StandardCharsets.UTF_8);
+                            TransactionResult<Void> result = manager.runInTransaction(tx -> {
+                                tx.appendFile(file, line);
+                                return null;
+                            });
+                            assertTrue(result.isCommitted());
+                        }
+                    } catch (Exception e) {
+                        failures[id] = e;
+                    }
+                });
+                workers[t].start();
+            }
+            for (Thread worker : workers) {
+                worker.join();
+            }
+            for (Exception failure : failures) {
+                if (failure != null) {
+                    throw failure;
+                }
+            }
+        }
+        List<String> lines = Files.readAllLines(file.toPath());
+        assertEquals(threads * appendsPerThread, lines.size());
+        assertEquals(threads * appendsPerThread, lines.stream().distinct().count());
+    }
+
+    @Test
+    void failedInstallRestoresAlreadyInstalledFiles() throws Exception {
+        File installed = write("a.txt", "alt");
+        File blocked = data.resolve("b.txt").toFile();
+        try (TransactionManager manager = manager(true)) {
+            manager.setExternalChangeDetection(ExternalChangeDetection.NONE);
+            Transaction tx = manager.beginTransaction();
+            // Arbeitskopien im Arbeitsbereich werden vor denen im Speicher installiert.
+            try (OutputStream out = tx.openOutputStream(installed)) {
+                out.write("neu".getBytes(StandardCharsets.UTF_8));
+            }
+            tx.writeFile(blocked, "neu");
+            // Ein Verzeichnis an der Stelle der Live-Datei lässt das Rename beim Installieren scheitern.
+            Files.createDirectory(blocked.toPath());
+
+            assertThrows(IOException.class, tx::commit);
+            assertFalse(tx.isActive());
+            assertEquals("alt", read(installed));
+            assertEquals(List.of(), stagingFiles());
+        }
+    }
+
+    @Test
+    void rollbackOnlyRestoresOwnFiles() throws Exception {
+        File own = write("a.txt", "alt");
+        File foreign = write("b.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            tx.writeFile(own, "verworfen");
+            Transaction other = manager.beginTransaction();
+            other.writeFile(foreign, "fremd");
+            assertTrue(other.commit());
+
+            tx.rollback();
+            assertEquals("alt", read(own));
+            assertEquals("fremd", read(foreign), "Der Commit der anderen Transaktion bleibt erhalten");
+        }
+    }
+
+    @Test
+    void commitOfOtherTransactionDoomsReader() throws Exception {
+        File file = write("a.txt", "alt");
+        File other = write("b.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction reader = manager.beginTransaction();
+            reader.readFile(file);
+            Transaction writer = manager.beginTransaction();
+            writer.writeFile(file, "neu");
+            assertTrue(writer.commit());
+
+            assertTrue(reader.isDoomed());
+            TransactionConflictException e = assertThrows(TransactionConflictException.class,
+                    () -> reader.writeFile(other, "neu"));
+            assertEquals(file, e.getConflictingFile());
+            assertFalse(reader.isActive(), "Eine gescheiterte Transaktion wird sofort zurückgesetzt");
+            assertEquals("alt", read(other));
+        }
+    }
+
+    @Test
+    void detectsExternalChangeByModificationTime() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            tx.readFile(file);
+            tx.writeFile(write("b.txt", ""), "neu");
+            changeExternally(file, "extern");
+
+            assertFalse(tx.commit());
+            assertEquals("extern", read(file));
+        }
+    }
+
+    @Test
+    void detectsExternalChangeByHash() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            manager.setExternalChangeDetection(ExternalChangeDetection.HASH);
+            Transaction tx = manager.beginTransaction();
+            tx.readFile(file);
+            tx.writeFile(file, "neu");
+            changeExternally(file, "extern");
+
+            assertFalse(tx.commit());
+            assertEquals("extern", read(file));
+        }
+    }
+
+    @Test
+    void detectsExternalChangeWithinSameMillisecond() throws Exception {
+        File file = write("a.txt", "alt");
+        // Eine alte mtime mit Anteil unterhalb der Millisekunde: Der Stand ist nicht mehr "racy".
+        FileTime recorded = FileTime.from(Instant.parse("2020-01-01T00:00:00.000123456Z"));
+        Files.setLastModifiedTime(file.toPath(), recorded);
+        assumeTrue(Files.getLastModifiedTime(file.toPath()).equals(recorded), "Dateisystem ohne Nanosekunden-mtime");
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            tx.readFile(file);
+            tx.writeFile(write("b.txt", ""), "neu");
+            Files.writeString(file.toPath(), "neu");
+            Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(recorded.toMillis()));
+
+            assertFalse(tx.commit(), "Gleiche Millisekunde, aber andere Nanosekunden");
+        }
+    }
+
+    @Test
+    void detectsExternalChangeThatKeepsMtimeButNotSize() throws Exception {
+        File file = write("a.txt", "alt");
+        FileTime recorded = FileTime.from(Instant.parse("2020-01-01T00:00:00Z"));
+        Files.setLastModifiedTime(file.toPath(), recorded);
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            tx.readFile(file);
+            tx.writeFile(write("b.txt", ""), "neu");
+            Files.writeString(file.toPath(), "länger");
+            Files.setLastModifiedTime(file.toPath(), recorded);
+
+            assertFalse(tx.commit());
+        }
+    }
+
+    @Test
+    void hashesFileWhoseMtimeWasTooRecent() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            // Gleich nach dem Schreiben gelesen: Eine Änderung im selben Zeitstempel-Takt hätte dieselbe mtime.
+            tx.readFile(file);
+            tx.writeFile(write("b.txt", ""), "neu");
+            FileTime recorded = Files.getLastModifiedTime(file.toPath());
+            Files.writeString(file.toPath(), "neu");
+            Files.setLastModifiedTime(file.toPath(), recorded);
+
+            assertFalse(tx.commit(), "Gleiche Größe und mtime, aber anderer Inhalt");
+        }
+    }
+
+    @Test
+    void ignoresExternalChangeWithoutDetection() throws Exception {
+        File file = write("a.txt", "alt");
+        File target = write("b.txt", "");
+        try (TransactionManager manager = manager(true)) {
+            manager.setExternalChangeDetection(ExternalChangeDetection.NONE);
+            Transaction tx = manager.beginTransaction();
+            tx.readFile(file);
+            tx.writeFile(target, "neu");
+            changeExternally(file, "extern");
+
+            assertTrue(tx.commit(), "Ohne Erkennung zählt nur die Versionstabelle");
+            assertEquals("neu", read(target));
+        }
+    }
+
+    @Test
+    void streamsAndPatchesByteRanges() throws Exception {
+        byte[] content = new byte[256 * 1024];
+        new Random(7).nextBytes(content);
+        File file = writeBytes("daten.bin", content);
+        byte[] patch = "geändert".getBytes(StandardCharsets.UTF_8);
+        byte[] patched = Arrays.copyOf(content, content.length);
+        System.arraycopy(patch, 0, patched, 1000, patch.length);
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            try (InputStream in = tx.openInputStream(file)) {
+                assertArrayEquals(content, in.readAllBytes());
+            }
+            tx.writeBytes(file, 1000, ByteBuffer.wrap(patch));
+            assertArrayEquals(patch, tx.readBytes(file, 1000, patch.length));
+            try (SeekableByteChannel channel = tx.openChannel(file)) {
+                assertEquals(content.length, channel.size());
+            }
+            assertArrayEquals(content, Files.readAllBytes(file.toPath()), "Vor dem Commit bleibt die Datei unverändert");
+
+            assertTrue(tx.commit());
+        }
+        assertArrayEquals(patched, Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void outputStreamReplacesContentUntilRollback() throws Exception {
+        File file = write("a.txt", "alt");
+        try (TransactionManager manager = manager(true)) {
+            Transaction tx = manager.beginTransaction();
+            try (OutputStream out = tx.openOutputStream(file)) {
+                out.write("neu".getBytes(StandardCharsets.UTF_8));
+            }
+            assertEquals("neu", tx.readFile(file));
+            assertArrayEquals(new byte[0], tx.readBytes(file, 3, 10), "Hinter dem Dateiende gibt es nichts zu lesen");
+            tx.rollback();
+        }
+        assertEquals("alt", read(file));
+    }
+
+    @Test
+    void largeWorkingCopiesSpillToWorkingDirectory() throws Exception {
+        File small = write("a.txt", "");
+        File large = write("b.txt", "");
+        try (TransactionManager manager = manager(true)) {
+            manager.setInMemoryWorkingCopyLimits(16, 1024);
+            Transaction tx = manager.beginTransaction();
+            tx.writeFile(small, "klein");
+            tx.writeFile(large, "x".repeat(100));
+            assertEquals(5, manager.getInMemoryWorkingCopyBytes());
+            assertEquals(1, manager.getWorkingCopySpillCount());
+
+            assertTrue(tx.commit());
+            assertEquals("klein", read(small));
+            assertEquals("x".repeat(100), read(large));
+            assertEquals(0, manager.getInMemoryWorkingCopyBytes(), "Der Speicher wird nach dem Commit freigegeben");
+        }
+    }
+
+    @Test
+    void installsChangedBlocksInPlace() throws Exception {
+        byte[] content = randomContent();
+        File file = writeBytes("gross.bin", content);
+        Object inode = fileKey(file);
+        try (TransactionManager manager = new TransactionManager(
+                new LocalSnapshotBackend(data.toFile(), false), dir.resolve("intent").toFile())) {
+            Transaction tx = manager.beginTransaction();
+            tx.writeBytes(file, 100_000, ByteBuffer.wrap("geändert".getBytes(StandardCharsets.UTF_8)));
+            assertTrue(tx.commit());
+
+            assertEquals(0, manager.getMetrics().getBlockDeltaFallbacks());
+        }
+        assertEquals(inode, fileKey(file), "Die Blöcke werden in die bestehende Datei geschrieben");
+        assertArrayEquals(expected(content, 100_000, "geändert"), Files.readAllBytes(file.toPath()));
+    }
+
+    @Test
+    void hardLinkedFileIsStagedCompletely() throws Exception {
+        byte[] content = randomContent();
+        File file = writeBytes("gross.bin", content);
+        Object inode = fileKey(file);
+        try (TransactionManager manager = new TransactionManager(
+                new LocalSnapshotBackend(data.toFile()), dir.resolve("intent").toFile())) {
+            Transaction tx = manager.beginTransaction();
+            tx.writeBytes(file, 100_000, ByteBuffer.wrap("geändert".getBytes(StandardCharsets.UTF_8)));
+            assertTrue(tx.commit());
+
+            assertEquals(1, manager.getMetrics().getBlockDeltaFallbacks());
+        }
+        assertNotEquals(inode, fileKey(file), "Die Datei wird per Rename ersetzt");
+        assertArrayEquals(expected(content, 100_000, "geändert"), Files.readAllBytes(file.toPath()));
+    }
+
+    private TransactionManager manager(boolean hardLinks) {
+        return new TransactionManager(new LocalSnapshotBackend(data.toFile(), hardLinks));
+    }
+
+    private File write(String name, String content) throws IOException {
+        return Files.writeString(data.resolve(name), content).toFile();
+    }
+
+    private File writeBytes(String name, byte[] content) throws IOException {
+        return Files.write(data.resolve(name), content).toFile();
+    }
+
+    private static String read(File file) throws IOException {
+        return Files.readString(file.toPath());
+    }
+
+    /**
+     * Ändert die Datei an der Bibliothek vorbei, mit einem sicher anderen Änderungszeitpunkt.
+     */
+    private static void changeExternally(File file, String content) throws IOException {
+        FileTime before = Files.getLastModifiedTime(file.toPath());
+        Files.writeString(file.toPath(), content);
+        Files.setLastModifiedTime(file.toPath(), FileTime.fromMillis(before.toMillis() + 5_000));
+    }
+
+    private List<Path> stagingFiles() throws IOException {
+        try (Stream<Path> files = Files.list(data)) {
+            return files.filter(Transaction::isStagingFile).toList();
+        }
+    }
+
+    private static Object fileKey(File file) throws IOException {
+        return Files.readAttributes(file.toPath(), BasicFileAttributes.class).fileKey();
+    }
+
+    private static byte[] randomContent() {
+        byte[] content = new byte[(int) BlockDelta.MIN_FILE_SIZE * 2];
+        new Random(42).nextBytes(content);
+        return content;
+    }
+
+    private static byte[] expected(byte[] content, int position, String change) {
+        byte[] result = Arrays.copyOf(content, content.length);
+        byte[] bytes = change.getBytes(StandardCharsets.UTF_8);
+        System.arraycopy(bytes, 0, result, position, bytes.length);
+        return result;
+    }
+}
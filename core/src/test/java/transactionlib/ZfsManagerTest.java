@@ -0,0 +1,32 @@
+package transactionlib;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+class ZfsManagerTest {
+
+    @Test
+    void plainPathIsUnchanged() {
+        assertEquals("/tank/data/test.txt", ZfsManager.decodeDiffPath("/tank/data/test.txt"));
+    }
+
+    @Test
+    void decodesOctalEscapes() {
+        assertEquals("/tank/a b.txt", ZfsManager.decodeDiffPath("/tank/a\\0040b.txt"));
+        assertEquals("/tank/a\tb", ZfsManager.decodeDiffPath("/tank/a\\0011b"));
+        assertEquals("/tank/x ", ZfsManager.decodeDiffPath("/tank/x\\0040"));
+    }
+
+    @Test
+    void decodesMultiByteUtf8() {
+        assertEquals("/tank/Ä.txt", ZfsManager.decodeDiffPath("/tank/\\0303\\0204.txt"));
+    }
+
+    @Test
+    void keepsBackslashWithoutOctalEscape() {
+        assertEquals("/tank/a\\b", ZfsManager.decodeDiffPath("/tank/a\\b"));
+        assertEquals("/tank/a\\009", ZfsManager.decodeDiffPath("/tank/a\\009"));
+        assertEquals("/tank/a\\00", ZfsManager.decodeDiffPath("/tank/a\\00"));
+    }
+}
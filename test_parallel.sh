@@ -1,5 +1,10 @@
 #!/bin/bash
 
+# Die Klassen werden vorher mit Maven gebaut, damit der Test den aktuellen Stand verwendet.
+cd "$(dirname "$0")" || exit 1
+mvn -B -q -pl core compile || exit 1
+CLASSES=core/target/classes
+
 echo "Starte wiederholte parallele Tests für BrainstormingApp..."
 
 for i in {1..5}; do
@@ -11,7 +16,7 @@ for i in {1..5}; do
     echo "Kommentar A in Durchlauf $i"
     sleep 1
     echo "4"
-  ) | java -cp bin transactionlib.BrainstormingApp &
+  ) | java -cp "$CLASSES" transactionlib.BrainstormingApp &
 
   (
     echo "3"
@@ -21,7 +26,7 @@ for i in {1..5}; do
     echo "Kommentar B in Durchlauf $i"
     sleep 1
     echo "4"
-  ) | java -cp bin transactionlib.BrainstormingApp &
+  ) | java -cp "$CLASSES" transactionlib.BrainstormingApp &
 
   wait
   echo "Durchlauf $i beendet."
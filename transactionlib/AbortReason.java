@@ -0,0 +1,15 @@
+package transactionlib;
+
+/**
+ * Grund, aus dem eine Transaktion ohne Commit zurückgesetzt wurde.
+ */
+public enum AbortReason {
+    // Die Konfliktprüfung im Commit hat eine veränderte Datei gefunden.
+    CONFLICT,
+    // Die Transaktion wurde vor dem Commit über eine Änderung benachrichtigt und beim nächsten Zugriff abgebrochen.
+    DOOMED,
+    // Eine Lease auf eine heiße Datei war nicht (rechtzeitig) zu bekommen.
+    LEASE,
+    // Beim Bereitstellen oder Übernehmen der Änderungen ist ein I/O-Fehler aufgetreten.
+    ERROR
+}
@@ -0,0 +1,242 @@
+package transactionlib;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+class BlockDelta {
+    // Unterschied einer Arbeitskopie zu ihrem Ausgangsstand in Blöcken fester Größe.
+    // Beim Anlegen einer großen Arbeitskopie werden die XXH64-Hashes ihrer Blöcke festgehalten (Base). Beim Commit
+    // werden die Blöcke der Arbeitskopie erneut gehasht; nur abweichende Blöcke werden gelesen und per
+    // positioniertem FileChannel-Schreibzugriff in die Live-Datei übernommen, statt die ganze Datei bereitzustellen.
+    // Feste Blockgrenzen genügen, da Teilschreibzugriffe (writeBytes, openChannel) den Inhalt nicht verschieben;
+    // eingefügte Bytes ändern alle folgenden Blöcke und führen über die Obergrenze zur vollständigen Bereitstellung.
+    // Das Intent-Log erhält neben den Blöcken die Hashes des Ausgangsstands, damit die Wiederherstellung keine
+    // Blöcke in eine inzwischen anders ersetzte Datei schreibt.
+
+    static final int BLOCK_SIZE = 64 * 1024;
+    // Kleinere Dateien werden immer vollständig bereitgestellt.
+    static final long MIN_FILE_SIZE = 1024 * 1024;
+    // Obergrenze der geänderten Bytes, absolut und als Anteil der Dateigröße; darüber lohnt sich das Delta nicht.
+    private static final long MAX_DELTA_BYTES = 16L * 1024 * 1024;
+    private static final int MAX_DELTA_FRACTION = 4;
+
+    /**
+     * Blockhashes des Ausgangsstands einer Datei.
+     */
+    static final class Base {
+        final long size;
+        final long[] hashes;
+
+        private Base(long size, long[] hashes) {
+            this.size = size;
+            this.hashes = hashes;
+        }
+
+        /**
+         * Hasht alle Blöcke der Datei.
+         */
+        static Base of(Path file) throws IOException {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                long size = channel.size();
+                long[] hashes = new long[(int) ((size + BLOCK_SIZE - 1) / BLOCK_SIZE)];
+                ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+                for (int i = 0; i < hashes.length; i++) {
+                    readBlock(channel, (long) i * BLOCK_SIZE, buffer);
+                    hashes[i] = hash(buffer);
+                }
+                return new Base(size, hashes);
+            }
+        }
+    }
+
+    /**
+     * Ein geänderter Block: Position in der Datei und neuer Inhalt.
+     */
+    static final class Block {
+        final long offset;
+        final byte[] data;
+
+        Block(long offset, byte[] data) {
+            this.offset = offset;
+            this.data = data;
+        }
+    }
+
+    private final Base base;
+    private final long newSize;
+    private final List<Block> blocks;
+    private final long changedBytes;
+
+    private BlockDelta(Base base, long newSize, List<Block> blocks, long changedBytes) {
+        this.base = base;
+        this.newSize = newSize;
+        this.blocks = blocks;
+        this.changedBytes = changedBytes;
+    }
+
+    /**
+     * Vergleicht die Arbeitskopie blockweise mit dem Ausgangsstand.
+     * @return Die geänderten Blöcke, oder null, falls so viel geändert wurde, dass die Datei besser
+     *         vollständig bereitgestellt wird
+     */
+    static BlockDelta compute(Path workingFile, Base base) throws IOException {
+        try (FileChannel channel = FileChannel.open(workingFile, StandardOpenOption.READ)) {
+            long newSize = channel.size();
+            long limit = Math.min(MAX_DELTA_BYTES, Math.max(newSize, base.size) / MAX_DELTA_FRACTION);
+            List<Block> blocks = new ArrayList<>();
+            long changedBytes = 0;
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            for (long offset = 0; offset < newSize; offset += BLOCK_SIZE) {
+                readBlock(channel, offset, buffer);
+                int index = (int) (offset / BLOCK_SIZE);
+                // Ein verkürzter letzter Block des Ausgangsstands hat einen anderen Hash und wird mitgeschrieben.
+                if (index < base.hashes.length && base.hashes[index] == hash(buffer)) {
+                    continue;
+                }
+                changedBytes += buffer.remaining();
+                if (changedBytes > limit) {
+                    return null;
+                }
+                byte[] data = new byte[buffer.remaining()];
+                buffer.get(data);
+                blocks.add(new Block(offset, data));
+            }
+            return new BlockDelta(base, newSize, blocks, changedBytes);
+        }
+    }
+
+    /**
+     * Prüft, ob die Live-Datei an Ort und Stelle geändert werden darf: Sie muss noch die Länge des
+     * Ausgangsstands haben und darf keinen Inode mit einem anderen Pfad teilen, z.B. mit einem Hardlink-Snapshot
+     * des LocalSnapshotBackend, der sonst mitverändert würde.
+     */
+    boolean canApplyInPlace(Path liveFile) throws IOException {
+        return hasOwnInode(liveFile) && Files.size(liveFile) == base.size;
+    }
+
+    /**
+     * @return true, falls die Datei eine reguläre Datei mit genau einem Verzeichniseintrag ist.
+     *         Ohne Unterstützung für "unix:nlink" wird vorsichtshalber false geliefert.
+     */
+    static boolean hasOwnInode(Path file) throws IOException {
+        if (!Files.isRegularFile(file, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        try {
+            Object links = Files.getAttribute(file, "unix:nlink", LinkOption.NOFOLLOW_LINKS);
+            return links instanceof Integer && (Integer) links == 1;
+        } catch (UnsupportedOperationException | IllegalArgumentException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Schreibt die geänderten Blöcke an ihre Positionen und kürzt die Datei, falls sie kleiner geworden ist.
+     */
+    void applyTo(Path liveFile) throws IOException {
+        try (FileChannel channel = FileChannel.open(liveFile, StandardOpenOption.WRITE)) {
+            for (Block block : blocks) {
+                ByteBuffer buffer = ByteBuffer.wrap(block.data);
+                long position = block.offset;
+                while (buffer.hasRemaining()) {
+                    position += channel.write(buffer, position);
+                }
+            }
+            if (newSize < base.size) {
+                channel.truncate(newSize);
+            }
+        }
+    }
+
+    /**
+     * @return Die Aktionen, mit denen das Intent-Log die Änderung nach einem Absturz wiederholt.
+     */
+    List<IntentLog.Action> redoActions(Path liveFile) {
+        List<IntentLog.Action> actions = new ArrayList<>();
+        actions.add(IntentLog.Action.base(liveFile, base.size, base.hashes));
+        for (Block block : blocks) {
+            actions.add(IntentLog.Action.write(liveFile, block.offset, block.data));
+        }
+        if (newSize < base.size) {
+            actions.add(IntentLog.Action.truncate(liveFile, newSize));
+        }
+        return actions;
+    }
+
+    /**
+     * Prüft bei der Wiederherstellung, ob die Blöcke eines Deltas noch in die Live-Datei geschrieben werden dürfen:
+     * Ihre Länge muss zwischen alter und neuer Länge liegen, und jeder Block, den das Delta nicht schreibt, muss
+     * noch den Hash des Ausgangsstands haben, soweit er nicht schon abgeschnitten ist. Die geschriebenen Blöcke
+     * selbst können nach einem Absturz beliebig halb übernommen sein und werden nicht geprüft.
+     * @param changes Die WRITE- und TRUNCATE-Aktionen der Datei
+     */
+    static boolean canRedo(Path liveFile, long baseSize, long[] baseHashes, List<IntentLog.Action> changes)
+            throws IOException {
+        if (!Files.isRegularFile(liveFile, LinkOption.NOFOLLOW_LINKS)) {
+            return false;
+        }
+        long newSize = baseSize;
+        Set<Long> written = new HashSet<>();
+        for (IntentLog.Action change : changes) {
+            if (change.data == null) {
+                newSize = change.offset;
+            } else {
+                written.add(change.offset);
+                newSize = Math.max(newSize, change.offset + change.data.length);
+            }
+        }
+        try (FileChannel channel = FileChannel.open(liveFile, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size < Math.min(baseSize, newSize) || size > Math.max(baseSize, newSize)) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.allocateDirect(BLOCK_SIZE);
+            for (int i = 0; i < baseHashes.length; i++) {
+                long offset = (long) i * BLOCK_SIZE;
+                long length = Math.min(BLOCK_SIZE, baseSize - offset);
+                if (written.contains(offset) || offset + length > size) {
+                    continue;
+                }
+                readBlock(channel, offset, buffer);
+                buffer.limit((int) length);
+                if (hash(buffer) != baseHashes[i]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return Anzahl der Bytes, die beim Übernehmen geschrieben werden.
+     */
+    long getChangedBytes() {
+        return changedBytes;
+    }
+
+    /**
+     * Liest einen Block ab offset in den Puffer; am Dateiende ist er kürzer als BLOCK_SIZE.
+     * Danach ist der Puffer zum Lesen bereit.
+     */
+    private static void readBlock(FileChannel channel, long offset, ByteBuffer buffer) throws IOException {
+        buffer.clear();
+        long position = offset;
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+            position += read;
+        }
+        buffer.flip();
+    }
+
+    private static long hash(ByteBuffer block) {
+        HashAlgorithm.Hasher hasher = new HashAlgorithm.Xxh64Hasher(0);
+        hasher.update(block.duplicate());
+        return ByteBuffer.wrap(hasher.digest()).getLong();
+    }
+}
@@ -1,6 +1,7 @@
 package transactionlib;
 
 import java.io.File;
+import java.nio.charset.StandardCharsets;
 import java.util.Scanner;
 
 public class BrainstormingApp {
@@ -16,9 +17,9 @@ public class BrainstormingApp {
             ideasDir.mkdir();
         }
 
-        // Initialisiere ZfsManager und TransactionManager
-        ZfsManager zfsManager = new ZfsManager(DATASET);
-        TransactionManager txManager = new TransactionManager(zfsManager);
+        // Initialisiere Snapshot-Backend (ZFS oder lokal, siehe -Dtransactionlib.backend) und TransactionManager
+        SnapshotBackend snapshotBackend = SnapshotBackend.fromSystemProperties(DATASET, ideasDir);
+        TransactionManager txManager = new TransactionManager(snapshotBackend);
 
         Scanner scanner = new Scanner(System.in);
 
@@ -45,6 +46,7 @@ public class BrainstormingApp {
                     case "4":
                         System.out.println("Anwendung wird beendet.");
                         scanner.close();
+                        txManager.close();
                         return;
                     default:
                         System.out.println("Ungültige Option. Bitte erneut versuchen.");
@@ -70,14 +72,18 @@ public class BrainstormingApp {
         String fileName = "idea_" + title.replaceAll("\\s+", "_") + ".txt";
         File ideaFile = new File(IDEAS_DIR, fileName);
 
-        Transaction tx = txManager.beginTransaction();
         // Schreibe die Idee in die Datei, inklusive Platzhalter für Kommentare.
+        // Bei einem Konflikt wird die Transaktion automatisch wiederholt.
         String ideaContent = "Titel: " + title + "\n" + content + "\n\nKommentare:\n";
-        tx.writeFile(ideaFile, ideaContent);
-        if (tx.commit()) {
+        TransactionResult<Void> result = txManager.runInTransaction(tx -> {
+            tx.writeFile(ideaFile, ideaContent);
+            return null;
+        });
+        if (result.isCommitted()) {
             System.out.println("Idee wurde erfolgreich hinzugefügt: " + fileName);
         } else {
-            System.out.println("Fehler: Idee konnte nicht gespeichert werden. Transaktion wurde zurückgesetzt.");
+            System.out.println("Fehler: Idee konnte nach " + result.getAttempts()
+                    + " Versuchen nicht gespeichert werden. Transaktion wurde zurückgesetzt.");
         }
     }
 
@@ -99,7 +105,7 @@ public class BrainstormingApp {
 
     /**
      * Fügt einer bestehenden Idee einen Kommentar hinzu.
-     * Die Transaktion liest zunächst den aktuellen Inhalt, hängt den Kommentar an und commitet die Änderung.
+     * Der Kommentar wird nur angehängt, ohne die Datei zu lesen; gleichzeitige Kommentare stehen daher nicht in Konflikt.
      */
     private static void addComment(TransactionManager txManager, Scanner scanner) throws Exception {
         System.out.println("Gib den Dateinamen der Idee ein (z.B. idea_My_Idee.txt):");
@@ -112,16 +118,16 @@ public class BrainstormingApp {
         System.out.println("Gib deinen Kommentar ein:");
         String comment = scanner.nextLine();
 
-        Transaction tx = txManager.beginTransaction();
-        // Lese den aktuellen Inhalt der Ideen-Datei
-        String currentContent = tx.readFile(ideaFile);
         // Füge den Kommentar am Ende der Datei hinzu
-        String newContent = currentContent + comment + "\n";
-        tx.writeFile(ideaFile, newContent);
-        if (tx.commit()) {
+        TransactionResult<Void> result = txManager.runInTransaction(tx -> {
+            tx.appendFile(ideaFile, (comment + "\n").getBytes(StandardCharsets.UTF_8));
+            return null;
+        });
+        if (result.isCommitted()) {
             System.out.println("Kommentar wurde erfolgreich hinzugefügt.");
         } else {
-            System.out.println("Fehler: Kommentar konnte nicht gespeichert werden. Transaktion wurde zurückgesetzt.");
+            System.out.println("Fehler: Kommentar konnte nach " + result.getAttempts()
+                    + " Versuchen nicht gespeichert werden. Transaktion wurde zurückgesetzt.");
         }
     }
 }
@@ -5,6 +5,9 @@ import java.io.IOException;
 import java.security.NoSuchAlgorithmException;
 
 public class ConflictScriptParallel {
+    // Verzeichnis mit der Beispieldatei test.txt.
+    private static final String DATA_DIR = "demo";
+
     public static void main(String[] args) throws InterruptedException {
         // Dieses Script simuliert parallele Transaktionen in zwei Threads,
         // um Konflikte und das Rollback-Verhalten zu testen.
@@ -12,8 +15,11 @@ public class ConflictScriptParallel {
         // 1) ZFS-Dataset anpassen
         String dataset = "testpool/mydata";
         
-        ZfsManager zfsManager = new ZfsManager(dataset);
-        TransactionManager txManager = new TransactionManager(zfsManager);
+        // Die Beispieldatei liegt in einem eigenen Verzeichnis; nur dieses sichert das lokale Backend.
+        File dataDir = new File(DATA_DIR);
+        dataDir.mkdirs();
+        SnapshotBackend snapshotBackend = SnapshotBackend.fromSystemProperties(dataset, dataDir);
+        TransactionManager txManager = new TransactionManager(snapshotBackend);
 
         // Erzeuge und starte Thread A, der eine Transaktion ausführt.
         Thread threadA = new Thread(() -> {
@@ -39,6 +45,7 @@ public class ConflictScriptParallel {
         // Warte, bis beide Threads ihre Transaktionen abgeschlossen haben.
         threadA.join();
         threadB.join();
+        txManager.close();
 
         System.out.println("=== ConflictScriptParallel beendet ===");
     }
@@ -46,7 +53,7 @@ public class ConflictScriptParallel {
     private static void runTransactionA(TransactionManager txManager) throws Exception {
         System.out.println("[Thread A] Starte Transaktion A");
         Transaction txA = txManager.beginTransaction();
-        File testFile = new File("test.txt");
+        File testFile = new File(DATA_DIR, "test.txt");
 
         // Lese den aktuellen Zustand der Datei und kopiere ihn in den Arbeitsbereich.
         String contentA = txA.readFile(testFile);
@@ -70,7 +77,7 @@ public class ConflictScriptParallel {
     private static void runTransactionB(TransactionManager txManager) throws Exception {
         System.out.println("[Thread B] Starte Transaktion B");
         Transaction txB = txManager.beginTransaction();
-        File testFile = new File("test.txt");
+        File testFile = new File(DATA_DIR, "test.txt");
 
         // Lese den Dateiinhalt, um den Zustand vor Änderungen zu erfassen.
         String contentB = txB.readFile(testFile);
@@ -10,17 +10,23 @@ import java.io.IOException;
  * und deshalb beim Commit ein Konflikt auftritt.
  */
 public class ConflictScriptSequential {
+    // Verzeichnis mit der Beispieldatei test.txt.
+    private static final String DATA_DIR = "demo";
+
     public static void main(String[] args) {
         try {
             // Konfiguration: ZFS-Dataset anpassen
             String dataset = "testpool/mydata";
 
-            ZfsManager zfsManager = new ZfsManager(dataset);
-            TransactionManager txManager = new TransactionManager(zfsManager);
+            // Die Beispieldatei liegt in einem eigenen Verzeichnis; nur dieses sichert das lokale Backend.
+            File dataDir = new File(DATA_DIR);
+            dataDir.mkdirs();
+            SnapshotBackend snapshotBackend = SnapshotBackend.fromSystemProperties(dataset, dataDir);
+            TransactionManager txManager = new TransactionManager(snapshotBackend);
 
             System.out.println("=== Starte Transaktion A ===");
             Transaction txA = txManager.beginTransaction();
-            File testFile = new File("test.txt");
+            File testFile = new File(DATA_DIR, "test.txt");
 
             // Transaktion A liest die Datei und speichert den aktuellen Zustand
             String contentA = txA.readFile(testFile);
@@ -58,6 +64,7 @@ public class ConflictScriptSequential {
                 System.out.println("[Transaktion B] Commit fehlgeschlagen, Rollback durchgeführt.\n");
             }
 
+            txManager.close();
             System.out.println("=== ConflictScriptSequential beendet ===");
 
         } catch (IOException | NoSuchAlgorithmException e) {
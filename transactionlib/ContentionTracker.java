@@ -0,0 +1,141 @@
+package transactionlib;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+
+class ContentionTracker {
+    // Schätzt pro Datei, wie häufig Commits an ihr scheitern (exponentiell gleitender Mittelwert).
+    // Die Rate dient RetryPolicy als Faktor für die Wartezeit vor dem nächsten Versuch.
+    // Überschreitet sie hotThreshold, gilt die Datei als "heiß" und wird mit Leases pessimistisch gesperrt;
+    // erst unterhalb von coolThreshold wird sie wieder optimistisch behandelt (Hysterese gegen ständiges Umschalten).
+
+    // Gewicht eines neuen Commit-Ergebnisses im gleitenden Mittelwert.
+    private static final double ALPHA = 0.2;
+    // Unterhalb dieser Rate gilt eine nicht heiße Datei als unumkämpft; ihr Eintrag wird entfernt.
+    private static final double NEGLIGIBLE_RATE = 0.01;
+
+    private final int maxEntries;
+    private volatile double hotThreshold = 0.5;
+    private volatile double coolThreshold = 0.2;
+    private final ConcurrentHashMap<Path, Rate> rates = new ConcurrentHashMap<>();
+
+    ContentionTracker(int maxEntries) {
+        this.maxEntries = maxEntries;
+    }
+
+    /**
+     * Verbucht das Ergebnis eines Commits für alle beteiligten Dateien.
+     * @param conflictingFile Datei, an der der Commit gescheitert ist, oder null bei Erfolg
+     */
+    void record(Collection<File> files, File conflictingFile) {
+        Path conflictKey = conflictingFile == null ? null : key(conflictingFile);
+        for (File file : files) {
+            Path key = key(file);
+            boolean conflict = key.equals(conflictKey);
+            Rate rate = rates.get(key);
+            if (rate == null) {
+                if (!conflict) {
+                    // Für unumkämpfte Dateien wird kein Eintrag angelegt.
+                    continue;
+                }
+                rate = rates.computeIfAbsent(key, k -> new Rate());
+            }
+            if (rate.update(conflict, hotThreshold, coolThreshold)) {
+                // Abgekühlt: Ein neuer Konflikt legt den Eintrag wieder an.
+                rates.remove(key, rate);
+            }
+        }
+        if (rates.size() > maxEntries) {
+            rates.values().removeIf(Rate::isIdle);
+        }
+    }
+
+    /**
+     * Legt die Schwellen für den Wechsel in den pessimistischen Modus und zurück fest.
+     */
+    void setThresholds(double hotThreshold, double coolThreshold) {
+        if (coolThreshold > hotThreshold) {
+            throw new IllegalArgumentException("coolThreshold darf nicht größer als hotThreshold sein");
+        }
+        this.hotThreshold = hotThreshold;
+        this.coolThreshold = coolThreshold;
+    }
+
+    /**
+     * @return true, falls die Datei derzeit pessimistisch mit Leases gesperrt werden soll.
+     */
+    boolean isHot(File file) {
+        Rate rate = rates.get(key(file));
+        return rate != null && rate.isHot();
+    }
+
+    /**
+     * @return Anzahl der Dateien, die derzeit pessimistisch gesperrt werden.
+     */
+    int hotCount() {
+        int count = 0;
+        for (Rate rate : rates.values()) {
+            if (rate.isHot()) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @return Höchste Konfliktrate unter den Dateien, zwischen 0 und 1.
+     */
+    double conflictRate(Collection<File> files) {
+        double max = 0;
+        for (File file : files) {
+            Rate rate = rates.get(key(file));
+            if (rate != null) {
+                max = Math.max(max, rate.get());
+            }
+        }
+        return max;
+    }
+
+    /**
+     * @return Anzahl der Dateien mit einer Konfliktrate.
+     */
+    int size() {
+        return rates.size();
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static final class Rate {
+        private double value;
+        private boolean hot;
+
+        /**
+         * @return true, falls die Datei danach unumkämpft ist und ihr Eintrag entfernt werden kann
+         */
+        synchronized boolean update(boolean conflict, double hotThreshold, double coolThreshold) {
+            value += ALPHA * ((conflict ? 1 : 0) - value);
+            if (value > hotThreshold) {
+                hot = true;
+            } else if (value < coolThreshold) {
+                hot = false;
+            }
+            return isIdle();
+        }
+
+        synchronized boolean isIdle() {
+            return value < NEGLIGIBLE_RATE && !hot;
+        }
+
+        synchronized boolean isHot() {
+            return hot;
+        }
+
+        synchronized double get() {
+            return value;
+        }
+    }
+}
@@ -0,0 +1,16 @@
+package transactionlib;
+
+/**
+ * Legt fest, wie Transaction.commit() zusätzlich zur Versionstabelle Änderungen erkennt,
+ * die nicht über die Bibliothek erfolgt sind (z.B. durch andere Prozesse).
+ */
+public enum ExternalChangeDetection {
+    // Nur die Versionstabelle wird geprüft; der Commit kommt ohne Datei-I/O aus.
+    NONE,
+    // Zusätzlich werden Größe, mtime in voller Auflösung und Inode jeder Datei verglichen (ein stat pro Datei).
+    // War die mtime beim ersten Zugriff jünger als der Racy-Zeitraum, wird zusätzlich der Hash verglichen.
+    // Nicht erkannt werden Änderungen, die Größe und mtime bewusst beibehalten (touch -r, rsync -t).
+    MTIME,
+    // Zusätzlich werden Stat-Daten und Inhalts-Hash verglichen, wie in früheren Versionen.
+    HASH
+}
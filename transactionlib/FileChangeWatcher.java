@@ -0,0 +1,95 @@
+package transactionlib;
+
+import java.io.IOException;
+import java.nio.file.*;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+
+class FileChangeWatcher {
+    // Überwacht die Verzeichnisse der Dateien, auf die laufende Transaktionen zugreifen, per WatchService.
+    // So erfährt der TransactionManager auch von Änderungen, die nicht über die Bibliothek erfolgen.
+    // Ereignisse werden nur weitergereicht; ob eine Transaktion betroffen ist, prüft sie selbst.
+    // Der Hintergrund-Thread wird erst beim ersten überwachten Verzeichnis gestartet.
+
+    private final Consumer<Path> listener;
+    private final Set<Path> directories = ConcurrentHashMap.newKeySet();
+    private final Map<WatchKey, Path> keys = new ConcurrentHashMap<>();
+    private WatchService watchService;
+    private Thread thread;
+    private boolean closed;
+
+    /**
+     * @param listener Erhält den geänderten Pfad, oder null, falls Ereignisse verloren gingen (Überlauf)
+     */
+    FileChangeWatcher(Consumer<Path> listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Nimmt ein Verzeichnis in die Überwachung auf. Verzeichnisse, die (noch) nicht existieren,
+     * werden übersprungen; für sie bleibt es bei der Prüfung beim Commit.
+     */
+    void watchDirectory(Path directory) {
+        if (directory == null || directories.contains(directory)) {
+            return;
+        }
+        synchronized (this) {
+            if (closed || !directories.add(directory)) {
+                return;
+            }
+            try {
+                if (watchService == null) {
+                    watchService = directory.getFileSystem().newWatchService();
+                    thread = new Thread(this::run, "file-change-watcher");
+                    thread.setDaemon(true);
+                    thread.start();
+                }
+                WatchKey key = directory.register(watchService, StandardWatchEventKinds.ENTRY_CREATE,
+                        StandardWatchEventKinds.ENTRY_DELETE, StandardWatchEventKinds.ENTRY_MODIFY);
+                keys.put(key, directory);
+            } catch (IOException | UnsupportedOperationException e) {
+                directories.remove(directory);
+            }
+        }
+    }
+
+    private void run() {
+        while (true) {
+            WatchKey key;
+            try {
+                key = watchService.take();
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+            Path directory = keys.get(key);
+            for (WatchEvent<?> event : key.pollEvents()) {
+                if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                    listener.accept(null);
+                } else if (directory != null) {
+                    listener.accept(directory.resolve((Path) event.context()));
+                }
+            }
+            if (!key.reset()) {
+                // Das Verzeichnis wurde gelöscht; es kann später erneut aufgenommen werden.
+                keys.remove(key);
+                directories.remove(directory);
+            }
+        }
+    }
+
+    /**
+     * Beendet die Überwachung und den Hintergrund-Thread.
+     */
+    synchronized void close() {
+        closed = true;
+        if (watchService != null) {
+            try {
+                watchService.close();
+            } catch (IOException e) {
+                TransactionLog.warn("WatchService konnte nicht geschlossen werden: " + e.getMessage());
+            }
+        }
+    }
+}
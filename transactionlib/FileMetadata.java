@@ -1,60 +1,204 @@
 package transactionlib;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
 import java.security.*;
+import java.util.Arrays;
+import java.util.HexFormat;
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
 
 public class FileMetadata {
-    // Diese Klasse erfasst die Metadaten einer Datei (Zeitstempel und SHA-256 Hash),
+    // Diese Klasse erfasst die Metadaten einer Datei (Stat-Daten und Inhalts-Hash),
     // um Änderungen an Dateien innerhalb einer Transaktion zu überwachen und Konflikte zu erkennen.
-    
-    private long lastModified;
-    private String fileHash;
-    
-    public FileMetadata(long lastModified, String fileHash) {
-        this.lastModified = lastModified;
+    // Der Hash wird binär gespeichert; das Verfahren ist über HashAlgorithm wählbar.
+    // Die Stat-Daten (Größe, mtime in voller Auflösung, Inode) erlauben eine Prüfung ohne erneutes Hashen.
+
+    // Ab dieser Größe wird die Datei über memory-mapped Regionen gelesen statt über einen Puffer.
+    private static final long MMAP_THRESHOLD = 1024 * 1024;
+    // Größe der einzelnen memory-mapped Regionen.
+    private static final long MMAP_REGION_SIZE = 64L * 1024 * 1024;
+    private static final int READ_BUFFER_SIZE = 64 * 1024;
+    private static final byte[] NO_HASH = new byte[0];
+
+    private final Stat stat;
+    private final byte[] fileHash;
+    // true, falls die mtime beim Erfassen so jung war, dass eine weitere Änderung im selben Zeitstempel-Takt
+    // des Dateisystems dieselben Stat-Daten hätte.
+    private final boolean racy;
+
+    public FileMetadata(long lastModified, byte[] fileHash) {
+        this(new Stat(-1, FileTime.fromMillis(lastModified), null), fileHash);
+    }
+
+    private FileMetadata(Stat stat, byte[] fileHash) {
+        this.stat = stat;
         this.fileHash = fileHash;
+        this.racy = stat.lastModifiedTime != null && TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis())
+                - stat.lastModifiedTime.to(TimeUnit.NANOSECONDS) < FingerprintCache.RACY_WINDOW_NANOS;
     }
-    
+
+    /**
+     * @return Die mtime in Millisekunden, 0 für eine nicht existierende Datei.
+     */
     public long getLastModified() {
-        return lastModified;
+        return stat.lastModifiedTime == null ? 0 : stat.lastModifiedTime.toMillis();
+    }
+
+    /**
+     * Vergleicht die erfassten Stat-Daten mit dem aktuellen Stand der Datei (ein stat, kein Lesen).
+     * Eine Änderung, die Größe und mtime beibehält (z.B. touch -r), wird so nicht erkannt; dafür ist sameHash da.
+     */
+    public boolean hasSameStat(File file) throws IOException {
+        return stat.equals(Stat.of(file.toPath()));
+    }
+
+    /**
+     * Vergleicht die Stat-Daten zweier Metadaten.
+     */
+    public boolean sameStat(FileMetadata other) {
+        return stat.equals(other.stat);
     }
-    
+
+    /**
+     * @return true, falls der Stat-Vergleich allein nicht ausreicht, weil die mtime beim Erfassen zu jung war.
+     */
+    public boolean isRacy() {
+        return racy;
+    }
+
+    /**
+     * @return Den Hash als Hex-String, z.B. für Ausgaben. Für Vergleiche sameHash verwenden.
+     */
     public String getFileHash() {
-        return fileHash;
+        return HexFormat.of().formatHex(fileHash);
     }
-    
+
+    /**
+     * @return Den Hash in Binärform; ein leeres Array steht für eine nicht existierende Datei.
+     */
+    public byte[] getHashBytes() {
+        return fileHash.clone();
+    }
+
     /**
-     * Erzeugt FileMetadata aus einer Datei.
+     * Vergleicht die Inhalts-Hashes zweier Metadaten ohne Umweg über Strings.
+     */
+    public boolean sameHash(FileMetadata other) {
+        return Arrays.equals(fileHash, other.fileHash);
+    }
+
+    /**
+     * Erzeugt FileMetadata aus einer Datei mit SHA-256.
      * Falls die Datei nicht existiert, werden Standardwerte verwendet.
      */
     public static FileMetadata fromFile(File file) throws IOException, NoSuchAlgorithmException {
-        if (!file.exists()) {
+        return fromFile(file, null, HashAlgorithm.SHA_256);
+    }
+
+    /**
+     * Erzeugt FileMetadata wie fromFile(File), verwendet aber den Hash aus dem Cache,
+     * solange Inode, Größe und mtime der Datei unverändert sind.
+     * @param cache Fingerprint-Cache, oder null, um immer neu zu hashen
+     * @param algorithm Verfahren für den Inhalts-Hash
+     */
+    public static FileMetadata fromFile(File file, FingerprintCache cache, HashAlgorithm algorithm)
+            throws IOException, NoSuchAlgorithmException {
+        Path path = file.toPath();
+        BasicFileAttributes attrs;
+        try {
+            attrs = Files.readAttributes(path, BasicFileAttributes.class);
+        } catch (NoSuchFileException e) {
             // Falls die Datei nicht existiert, verwende Default-Werte.
-            return new FileMetadata(0, "");
+            return new FileMetadata(Stat.MISSING, NO_HASH);
+        }
+        byte[] hash = cache == null ? null : cache.lookup(path, attrs, algorithm);
+        if (hash == null) {
+            hash = computeHash(path, algorithm);
+            // Nur speichern, wenn sich die Datei während des Hashens nicht verändert hat.
+            if (cache != null) {
+                BasicFileAttributes after = Files.readAttributes(path, BasicFileAttributes.class);
+                if (after.lastModifiedTime().equals(attrs.lastModifiedTime()) && after.size() == attrs.size()) {
+                    cache.store(path, attrs, algorithm, hash);
+                }
+            }
         }
-        long lastModified = file.lastModified();
-        String hash = computeHash(file);
-        return new FileMetadata(lastModified, hash);
+        return new FileMetadata(Stat.of(attrs), hash);
     }
-    
+
     /**
-     * Berechnet den SHA-256 Hash einer Datei.
-     * Diese Methode wird genutzt, um den Inhalt einer Datei eindeutig zu identifizieren.
+     * Berechnet den Hash einer Datei mit dem angegebenen Verfahren.
+     * Große Dateien werden regionsweise memory-mapped, kleine über einen einzelnen Puffer gelesen.
      */
-    private static String computeHash(File file) throws IOException, NoSuchAlgorithmException {
-        MessageDigest digest = MessageDigest.getInstance("SHA-256");
-        try (InputStream fis = new FileInputStream(file)) {
-            byte[] buffer = new byte[8192];
-            int n;
-            while ((n = fis.read(buffer)) != -1) {
-                digest.update(buffer, 0, n);
+    static byte[] computeHash(Path path, HashAlgorithm algorithm) throws IOException, NoSuchAlgorithmException {
+        HashAlgorithm.Hasher hasher = algorithm.newHasher();
+        try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+            long size = channel.size();
+            if (size >= MMAP_THRESHOLD) {
+                for (long position = 0; position < size; position += MMAP_REGION_SIZE) {
+                    long length = Math.min(MMAP_REGION_SIZE, size - position);
+                    MappedByteBuffer region = channel.map(FileChannel.MapMode.READ_ONLY, position, length);
+                    hasher.update(region);
+                }
+            } else {
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(Math.max(size, 1), READ_BUFFER_SIZE));
+                while (channel.read(buffer) != -1) {
+                    buffer.flip();
+                    hasher.update(buffer);
+                    buffer.clear();
+                }
             }
         }
-        byte[] hashBytes = digest.digest();
-        StringBuilder sb = new StringBuilder();
-        for (byte b : hashBytes) {
-            sb.append(String.format("%02x", b));
+        return hasher.digest();
+    }
+
+    /**
+     * Größe, mtime in voller Auflösung des Dateisystems und Inode einer Datei.
+     */
+    private static final class Stat {
+        static final Stat MISSING = new Stat(-1, null, null);
+
+        final long size;
+        final FileTime lastModifiedTime;
+        final Object fileKey;
+
+        Stat(long size, FileTime lastModifiedTime, Object fileKey) {
+            this.size = size;
+            this.lastModifiedTime = lastModifiedTime;
+            this.fileKey = fileKey;
+        }
+
+        static Stat of(Path path) throws IOException {
+            try {
+                return of(Files.readAttributes(path, BasicFileAttributes.class));
+            } catch (NoSuchFileException e) {
+                return MISSING;
+            }
+        }
+
+        static Stat of(BasicFileAttributes attrs) {
+            return new Stat(attrs.size(), attrs.lastModifiedTime(), attrs.fileKey());
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (!(o instanceof Stat)) {
+                return false;
+            }
+            Stat other = (Stat) o;
+            // FileTime.equals vergleicht in voller Auflösung, nicht nur in Millisekunden.
+            return size == other.size && Objects.equals(lastModifiedTime, other.lastModifiedTime)
+                    && Objects.equals(fileKey, other.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(size, lastModifiedTime, fileKey);
         }
-        return sb.toString();
     }
 }
@@ -0,0 +1,166 @@
+package transactionlib;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+public class FingerprintCache {
+    // Merkt sich den Hash einer Datei zusammen mit ihren Stat-Daten (Pfad, Inode, Größe, mtime in Nanosekunden)
+    // und dem verwendeten HashAlgorithm.
+    // Solange sich dieses Tupel nicht ändert, wird der gespeicherte Hash geliefert, statt die Datei neu zu lesen.
+    // Die Einträge werden nach dem LRU-Prinzip begrenzt und können optional in einer Datei gesichert werden,
+    // damit der Cache einen Neustart überlebt.
+
+    // Dateien, deren mtime so kurz vor dem Hashen liegt, werden nicht gecacht: eine weitere Änderung im selben
+    // Zeitstempel-Takt des Dateisystems hätte dasselbe Stat-Tupel und bliebe sonst unbemerkt.
+    static final long RACY_WINDOW_NANOS = TimeUnit.MILLISECONDS.toNanos(20);
+
+    private final int maxEntries;
+    private final File persistFile;
+    private final LinkedHashMap<String, Entry> entries;
+    private final AtomicLong hits = new AtomicLong(0);
+    private final AtomicLong misses = new AtomicLong(0);
+
+    /**
+     * Erstellt einen reinen In-Memory-Cache.
+     * @param maxEntries Maximale Anzahl Einträge, danach wird der am längsten nicht genutzte verdrängt
+     */
+    public FingerprintCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * Erstellt einen Cache, der aus persistFile geladen und mit save() dorthin geschrieben wird.
+     * @param maxEntries Maximale Anzahl Einträge
+     * @param persistFile Datei für die Sicherung, oder null für einen reinen In-Memory-Cache
+     */
+    public FingerprintCache(int maxEntries, File persistFile) {
+        this.maxEntries = maxEntries;
+        this.persistFile = persistFile;
+        this.entries = new LinkedHashMap<String, Entry>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Entry> eldest) {
+                return size() > FingerprintCache.this.maxEntries;
+            }
+        };
+        if (persistFile != null && persistFile.exists()) {
+            try {
+                load();
+            } catch (IOException e) {
+                TransactionLog.warn("Fingerprint-Cache konnte nicht geladen werden: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Liefert den gespeicherten Hash, falls Inode, Größe und mtime der Datei unverändert sind.
+     * @return Den Hash, oder null bei einem Cache-Miss
+     */
+    byte[] lookup(Path path, BasicFileAttributes attrs, HashAlgorithm algorithm) {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(key(path, algorithm));
+        }
+        if (entry != null && entry.matches(attrs)) {
+            hits.incrementAndGet();
+            return entry.hash;
+        }
+        misses.incrementAndGet();
+        return null;
+    }
+
+    /**
+     * Speichert einen frisch berechneten Hash zu den Stat-Daten, die vor dem Hashen gelesen wurden.
+     */
+    void store(Path path, BasicFileAttributes attrs, HashAlgorithm algorithm, byte[] hash) {
+        long mtimeNanos = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        long nowNanos = TimeUnit.MILLISECONDS.toNanos(System.currentTimeMillis());
+        if (nowNanos - mtimeNanos < RACY_WINDOW_NANOS) {
+            return;
+        }
+        Entry entry = new Entry(String.valueOf(attrs.fileKey()), attrs.size(), mtimeNanos, hash);
+        synchronized (this) {
+            entries.put(key(path, algorithm), entry);
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Schreibt den Cache in die Sicherungsdatei (atomar über eine temporäre Datei).
+     * Ohne Sicherungsdatei passiert nichts.
+     */
+    public void save() throws IOException {
+        if (persistFile == null) {
+            return;
+        }
+        List<String> lines = new ArrayList<>();
+        synchronized (this) {
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                if (e.getKey().indexOf('\t') >= 0 || e.getKey().indexOf('\n') >= 0) {
+                    continue;
+                }
+                Entry entry = e.getValue();
+                lines.add(e.getKey() + '\t' + entry.fileKey + '\t' + entry.size + '\t' + entry.mtimeNanos + '\t'
+                        + HexFormat.of().formatHex(entry.hash));
+            }
+        }
+        Path target = persistFile.toPath().toAbsolutePath();
+        Path tmp = target.resolveSibling(target.getFileName() + ".tmp");
+        Files.write(tmp, lines, StandardCharsets.UTF_8);
+        Files.move(tmp, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private void load() throws IOException {
+        for (String line : Files.readAllLines(persistFile.toPath(), StandardCharsets.UTF_8)) {
+            String[] parts = line.split("\t");
+            if (parts.length != 5) {
+                continue;
+            }
+            try {
+                entries.put(parts[0], new Entry(parts[1], Long.parseLong(parts[2]), Long.parseLong(parts[3]),
+                        HexFormat.of().parseHex(parts[4])));
+            } catch (IllegalArgumentException e) {
+                // Beschädigte Zeilen werden übersprungen.
+            }
+        }
+    }
+
+    private static String key(Path path, HashAlgorithm algorithm) {
+        return algorithm.name() + ':' + path.toAbsolutePath().normalize();
+    }
+
+    private static final class Entry {
+        final String fileKey;
+        final long size;
+        final long mtimeNanos;
+        final byte[] hash;
+
+        Entry(String fileKey, long size, long mtimeNanos, byte[] hash) {
+            this.fileKey = fileKey;
+            this.size = size;
+            this.mtimeNanos = mtimeNanos;
+            this.hash = hash;
+        }
+
+        boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size()
+                    && mtimeNanos == attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS)
+                    && fileKey.equals(String.valueOf(attrs.fileKey()));
+        }
+    }
+}
@@ -0,0 +1,180 @@
+package transactionlib;
+
+import java.io.IOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.security.NoSuchAlgorithmException;
+import java.util.*;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+class GroupCommit {
+    // Bündelt fsync-Aufrufe gleichzeitig committender Transaktionen (Group Commit).
+    // Der erste Thread, der synchronisieren möchte, wird zum Leader: Er übernimmt alle bis dahin
+    // eingetroffenen Anfragen, führt jedes fsync pro Pfad nur einmal aus (gemeinsame Verzeichnisse werden
+    // also nur einmal pro Batch synchronisiert) und weckt danach alle beteiligten Transaktionen.
+    // Anfragen, die während eines laufenden Batches eintreffen, bilden den nächsten Batch.
+    // Die fsyncs eines Batches laufen über ParallelIo gleichzeitig, damit große Commits die Warteschlange des
+    // Datenträgers nutzen, statt Datei für Datei auf den Leader zu warten.
+    // Es wird ein ReentrantLock statt synchronized/wait verwendet, damit wartende virtuelle Threads
+    // ihren Träger-Thread freigeben.
+
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition batchDone = lock.newCondition();
+
+    private final ParallelIo parallelIo;
+    private final List<Request> pending = new ArrayList<>();
+    private boolean leaderActive;
+    private long batches;
+    private long requests;
+    private long syncs;
+
+    GroupCommit(ParallelIo parallelIo) {
+        this.parallelIo = parallelIo;
+    }
+
+    /**
+     * Synchronisiert die Dateien und Verzeichnisse dauerhaft auf den Datenträger und kehrt erst danach zurück.
+     * @param files Dateien, deren Inhalt synchronisiert wird
+     * @param directories Verzeichnisse, deren Einträge (z.B. nach einem Rename) synchronisiert werden
+     */
+    void sync(Collection<Path> files, Collection<Path> directories) throws IOException {
+        if (files.isEmpty() && directories.isEmpty()) {
+            return;
+        }
+        Request request = new Request(files, directories);
+        List<Request> batch;
+        lock.lock();
+        try {
+            pending.add(request);
+            requests++;
+            // Der Commit muss dauerhaft werden; eine Unterbrechung wird ignoriert und bleibt am Thread gesetzt.
+            while (leaderActive && !request.done) {
+                batchDone.awaitUninterruptibly();
+            }
+            if (request.done) {
+                request.rethrow();
+                return;
+            }
+            leaderActive = true;
+        } finally {
+            lock.unlock();
+        }
+        // Dieser Thread ist Leader und arbeitet Batches ab, bis keine Anfragen mehr warten.
+        try {
+            while (true) {
+                lock.lock();
+                try {
+                    if (pending.isEmpty()) {
+                        break;
+                    }
+                    batch = new ArrayList<>(pending);
+                    pending.clear();
+                } finally {
+                    lock.unlock();
+                }
+                IOException failure = syncBatch(batch);
+                lock.lock();
+                try {
+                    batches++;
+                    for (Request r : batch) {
+                        r.failure = failure;
+                        r.done = true;
+                    }
+                    batchDone.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+            }
+        } finally {
+            lock.lock();
+            try {
+                leaderActive = false;
+                batchDone.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+        request.rethrow();
+    }
+
+    /**
+     * Führt die fsyncs eines Batches aus; jeder Pfad wird nur einmal synchronisiert.
+     * @return Den ersten aufgetretenen Fehler, oder null
+     */
+    private IOException syncBatch(List<Request> batch) {
+        Set<Path> files = new LinkedHashSet<>();
+        Set<Path> directories = new LinkedHashSet<>();
+        for (Request r : batch) {
+            files.addAll(r.files);
+            directories.addAll(r.directories);
+        }
+        IOException failure = null;
+        try {
+            // Erst die Dateiinhalte, dann die Verzeichniseinträge, die auf sie verweisen.
+            parallelIo.forEach(files, file -> force(file, StandardOpenOption.WRITE));
+            parallelIo.forEach(directories, directory -> force(directory, StandardOpenOption.READ));
+        } catch (IOException e) {
+            failure = e;
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException(e);
+        }
+        lock.lock();
+        try {
+            syncs += files.size() + directories.size();
+        } finally {
+            lock.unlock();
+        }
+        return failure;
+    }
+
+    private static void force(Path path, OpenOption mode) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, mode)) {
+            channel.force(true);
+        } catch (NoSuchFileException e) {
+            // Inzwischen ersetzte Dateien müssen nicht mehr synchronisiert werden.
+        }
+    }
+
+    /**
+     * @return Durchschnittliche Anzahl Anfragen (Transaktionen) pro fsync-Batch.
+     */
+    double getAverageBatchSize() {
+        lock.lock();
+        try {
+            return batches == 0 ? 0 : (double) requests / batches;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * @return Anzahl der tatsächlich ausgeführten fsync-Aufrufe.
+     */
+    long getSyncCount() {
+        lock.lock();
+        try {
+            return syncs;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private static final class Request {
+        final Collection<Path> files;
+        final Collection<Path> directories;
+        boolean done;
+        IOException failure;
+
+        Request(Collection<Path> files, Collection<Path> directories) {
+            this.files = files;
+            this.directories = directories;
+        }
+
+        void rethrow() throws IOException {
+            if (failure != null) {
+                throw new IOException("fsync fehlgeschlagen", failure);
+            }
+        }
+    }
+}
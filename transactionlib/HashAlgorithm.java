@@ -0,0 +1,172 @@
+package transactionlib;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * Verfahren, mit dem FileMetadata den Inhalt einer Datei zusammenfasst.
+ * Für die Konflikterkennung genügt eine nicht-kryptographische Prüfsumme; SHA-256 bleibt für Fälle erhalten,
+ * in denen Dateien gezielt manipuliert werden könnten.
+ */
+public enum HashAlgorithm {
+    SHA_256 {
+        @Override
+        public Hasher newHasher() throws NoSuchAlgorithmException {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            return new Hasher() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    digest.update(buffer);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return digest.digest();
+                }
+            };
+        }
+    },
+    CRC32C {
+        @Override
+        public Hasher newHasher() {
+            java.util.zip.CRC32C crc = new java.util.zip.CRC32C();
+            return new Hasher() {
+                @Override
+                public void update(ByteBuffer buffer) {
+                    crc.update(buffer);
+                }
+
+                @Override
+                public byte[] digest() {
+                    return ByteBuffer.allocate(Integer.BYTES).putInt((int) crc.getValue()).array();
+                }
+            };
+        }
+    },
+    XXH64 {
+        @Override
+        public Hasher newHasher() {
+            return new Xxh64Hasher(0);
+        }
+    };
+
+    /**
+     * Erzeugt einen neuen, zustandsbehafteten Hasher für genau eine Datei.
+     */
+    public abstract Hasher newHasher() throws NoSuchAlgorithmException;
+
+    /**
+     * Inkrementelle Berechnung über beliebig viele Puffer (auch memory-mapped Regionen).
+     */
+    public interface Hasher {
+        // Verarbeitet die verbleibenden Bytes des Puffers.
+        void update(ByteBuffer buffer);
+
+        // Schließt die Berechnung ab und liefert den Digest in kompakter Binärform.
+        byte[] digest();
+    }
+
+    /**
+     * Streaming-Implementierung von XXH64 (64-Bit, sehr schnell, nicht kryptographisch).
+     */
+    static final class Xxh64Hasher implements Hasher {
+        private static final long P1 = 0x9E3779B185EBCA87L;
+        private static final long P2 = 0xC2B2AE3D27D4EB4FL;
+        private static final long P3 = 0x165667B19E3779F9L;
+        private static final long P4 = 0x85EBCA77C2B2AE63L;
+        private static final long P5 = 0x27D4EB2F165667C5L;
+
+        private final long seed;
+        private long v1;
+        private long v2;
+        private long v3;
+        private long v4;
+        private long totalLength;
+        // Rest, der noch keinen vollständigen 32-Byte-Block ergibt.
+        private final ByteBuffer pending = ByteBuffer.allocate(32).order(ByteOrder.LITTLE_ENDIAN);
+
+        Xxh64Hasher(long seed) {
+            this.seed = seed;
+            this.v1 = seed + P1 + P2;
+            this.v2 = seed + P2;
+            this.v3 = seed;
+            this.v4 = seed - P1;
+        }
+
+        @Override
+        public void update(ByteBuffer buffer) {
+            ByteBuffer in = buffer.slice().order(ByteOrder.LITTLE_ENDIAN);
+            totalLength += in.remaining();
+            buffer.position(buffer.limit());
+            if (pending.position() > 0) {
+                while (pending.hasRemaining() && in.hasRemaining()) {
+                    pending.put(in.get());
+                }
+                if (pending.hasRemaining()) {
+                    return;
+                }
+                pending.flip();
+                processStripe(pending);
+                pending.clear();
+            }
+            while (in.remaining() >= 32) {
+                processStripe(in);
+            }
+            pending.put(in);
+        }
+
+        private void processStripe(ByteBuffer in) {
+            v1 = round(v1, in.getLong());
+            v2 = round(v2, in.getLong());
+            v3 = round(v3, in.getLong());
+            v4 = round(v4, in.getLong());
+        }
+
+        @Override
+        public byte[] digest() {
+            long h;
+            if (totalLength >= 32) {
+                h = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7) + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                h = mergeRound(h, v1);
+                h = mergeRound(h, v2);
+                h = mergeRound(h, v3);
+                h = mergeRound(h, v4);
+            } else {
+                h = seed + P5;
+            }
+            h += totalLength;
+            ByteBuffer rest = pending.duplicate().flip().order(ByteOrder.LITTLE_ENDIAN);
+            while (rest.remaining() >= 8) {
+                h ^= round(0, rest.getLong());
+                h = Long.rotateLeft(h, 27) * P1 + P4;
+            }
+            if (rest.remaining() >= 4) {
+                h ^= (rest.getInt() & 0xFFFFFFFFL) * P1;
+                h = Long.rotateLeft(h, 23) * P2 + P3;
+            }
+            while (rest.hasRemaining()) {
+                h ^= (rest.get() & 0xFF) * P5;
+                h = Long.rotateLeft(h, 11) * P1;
+            }
+            h ^= h >>> 33;
+            h *= P2;
+            h ^= h >>> 29;
+            h *= P3;
+            h ^= h >>> 32;
+            return ByteBuffer.allocate(Long.BYTES).putLong(h).array();
+        }
+
+        private static long round(long acc, long input) {
+            acc += input * P2;
+            acc = Long.rotateLeft(acc, 31);
+            return acc * P1;
+        }
+
+        private static long mergeRound(long acc, long value) {
+            acc ^= round(0, value);
+            return acc * P1 + P4;
+        }
+    }
+}
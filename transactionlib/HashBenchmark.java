@@ -0,0 +1,52 @@
+package transactionlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+/**
+ * Mikrobenchmark für die Hash-Verfahren aus HashAlgorithm.
+ * Erzeugt eine Testdatei und misst für jedes Verfahren den Durchsatz von FileMetadata.computeHash in MB/s.
+ *
+ * Aufruf: java transactionlib.HashBenchmark [Dateigröße in MB] [Wiederholungen]
+ */
+public class HashBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        int sizeMb = args.length > 0 ? Integer.parseInt(args[0]) : 256;
+        int runs = args.length > 1 ? Integer.parseInt(args[1]) : 5;
+
+        File file = File.createTempFile("hashbench", ".bin");
+        file.deleteOnExit();
+        writeRandomFile(file.toPath(), sizeMb);
+        System.out.println("Testdatei: " + file + " (" + sizeMb + " MB), " + runs + " Durchläufe pro Verfahren");
+
+        for (HashAlgorithm algorithm : HashAlgorithm.values()) {
+            // Aufwärmen, damit JIT und Page-Cache die Messung nicht verfälschen.
+            FileMetadata.computeHash(file.toPath(), algorithm);
+            long best = Long.MAX_VALUE;
+            for (int i = 0; i < runs; i++) {
+                long start = System.nanoTime();
+                FileMetadata.computeHash(file.toPath(), algorithm);
+                best = Math.min(best, System.nanoTime() - start);
+            }
+            double mbPerSecond = sizeMb / (best / 1_000_000_000.0);
+            System.out.printf("%-8s %10.1f MB/s%n", algorithm, mbPerSecond);
+        }
+        Files.deleteIfExists(file.toPath());
+    }
+
+    private static void writeRandomFile(Path path, int sizeMb) throws IOException {
+        Random random = new Random(42);
+        byte[] chunk = new byte[1024 * 1024];
+        try (OutputStream out = Files.newOutputStream(path)) {
+            for (int i = 0; i < sizeMb; i++) {
+                random.nextBytes(chunk);
+                out.write(chunk);
+            }
+        }
+    }
+}
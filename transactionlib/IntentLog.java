@@ -0,0 +1,754 @@
+package transactionlib;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.CRC32;
+
+class IntentLog {
+    // Append-only Redo-Log der Commits eines TransactionManagers. Vor der Installation wird ein COMMIT-Eintrag
+    // mit allen Aktionen (Rename der bereitgestellten Datei, Löschen, Anhängen samt Daten und Ausgangslänge,
+    // positionierte Blöcke und Kürzen für blockweise übernommene Dateien samt Blockhashes des Ausgangsstands,
+    // siehe BlockDelta)
+    // geschrieben und per fsync dauerhaft gemacht; ab dann gilt der Commit als entschieden. Nach der
+    // Installation folgt ein DONE-Eintrag. Stirbt der Prozess dazwischen, spielt der nächste
+    // Start die Aktionen dateiweise nach. PREPARE-Einträge nennen die bereitgestellten temporären Dateien,
+    // damit sie nach einem Absturz vor dem Commit-Punkt entfernt werden können.
+    // Die Wiederherstellung kann lange nach dem Absturz und in einem anderen Prozess laufen. Der COMMIT-Eintrag
+    // hält daher vor jedem Rename, Löschen und Anhängen den Zustand der Live-Datei unter den Commit-Sperren fest
+    // (EXPECT); passt die Live-Datei nicht mehr dazu, wurde sie inzwischen anders geändert und die Aktion entfällt.
+    //
+    // Jeder Manager schreibt in eigene Segmente "intent-<pid>-<n>-<seq>.log" und hält auf jedes offene Segment
+    // eine FileLock. Segmente, deren Lock sich beim Start erwerben lässt, gehören einem beendeten Prozess.
+    // Ein Segment wird gelöscht, sobald es nicht mehr beschrieben wird und alle seine Transaktionen
+    // abgeschlossen sind; die Wiederherstellung liest daher nur Einträge laufender Commits und nicht
+    // die ganze Historie.
+    //
+    // Auf einen COMMIT folgende DONE- bzw. ABORT-Einträge werden noch unter den Commit-Sperren per fsync dauerhaft
+    // gemacht, bevor die Segmente freigegeben werden. Ein Nachspielen kann so keine spätere Installation derselben
+    // Datei überschreiben, auch nicht nach einem Segmentwechsel oder wenn ein anderer Prozess mit eigenem Log die
+    // Datei danach committet. Ohne dauerhafte Commits (setDurableCommits(false)) entfällt auch dieses fsync; dann
+    // schützt das Log nur vor Abstürzen des Prozesses, nicht vor einem Stromausfall.
+
+    private static final String PREFIX = "intent-";
+    private static final String SUFFIX = ".log";
+    // Nach dieser Größe wird ein neues Segment begonnen.
+    private static final long SEGMENT_SIZE = 4L * 1024 * 1024;
+
+    private static final byte PREPARE = 1;
+    private static final byte COMMIT = 2;
+    private static final byte DONE = 3;
+    private static final byte ABORT = 4;
+
+    private static final byte RENAME = 1;
+    private static final byte DELETE = 2;
+    private static final byte APPEND = 3;
+    private static final byte WRITE = 4;
+    private static final byte TRUNCATE = 5;
+    private static final byte BASE = 6;
+    private static final byte EXPECT = 7;
+
+    // Anzahl der Bytes vor dem Anhängen, deren Hash den Ausgangsstand einer angehängten Datei kennzeichnet.
+    private static final int APPEND_TAIL_SIZE = 64 * 1024;
+
+    // Nummeriert die Logs im Prozess, damit mehrere Manager dasselbe Verzeichnis verwenden können.
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger(0);
+
+    private final Path directory;
+    private final String namePrefix;
+    // Geschützt durch "this".
+    private Segment current;
+    private int nextSequence;
+    private final List<Segment> retired = new ArrayList<>();
+    private boolean closed;
+
+    /**
+     * Öffnet ein neues Log im Verzeichnis. Ältere Logs beendeter Prozesse sollten vorher mit recover
+     * nachgespielt werden.
+     */
+    IntentLog(Path directory) throws IOException {
+        this.directory = directory;
+        this.namePrefix = PREFIX + ProcessHandle.current().pid() + "-" + INSTANCE_COUNTER.incrementAndGet() + "-";
+        Files.createDirectories(directory);
+        this.current = openSegment();
+    }
+
+    /**
+     * Eine Transaktion, die Einträge im Log hat. Hält die Segmente fest, in denen ihre Einträge stehen.
+     */
+    static final class Entry {
+        private final String transactionId;
+        private final Set<Segment> segments = new HashSet<>();
+        private Path commitSegment;
+
+        private Entry(String transactionId) {
+            this.transactionId = transactionId;
+        }
+
+        /**
+         * @return Das Segment mit dem COMMIT-Eintrag, das vor der Installation synchronisiert werden muss.
+         */
+        Path getCommitSegment() {
+            return commitSegment;
+        }
+    }
+
+    /**
+     * Eine Aktion eines Commits, so wie sie nach einem Absturz nachgespielt wird.
+     */
+    static final class Action {
+        final byte kind;
+        final Path livePath;
+        final Path stagedPath;
+        final long offset;
+        final byte[] data;
+
+        private Action(byte kind, Path livePath, Path stagedPath, long offset, byte[] data) {
+            this.kind = kind;
+            this.livePath = livePath.toAbsolutePath();
+            this.stagedPath = stagedPath == null ? null : stagedPath.toAbsolutePath();
+            this.offset = offset;
+            this.data = data;
+        }
+
+        static Action rename(Path stagedPath, Path livePath) {
+            return new Action(RENAME, livePath, stagedPath, 0, null);
+        }
+
+        static Action delete(Path livePath) {
+            return new Action(DELETE, livePath, null, 0, null);
+        }
+
+        /**
+         * @param offset Länge der Live-Datei vor dem Anhängen
+         */
+        static Action append(Path livePath, long offset, byte[] data) {
+            return new Action(APPEND, livePath, null, offset, data);
+        }
+
+        /**
+         * @param offset Position, an die die Daten in der Live-Datei geschrieben werden
+         */
+        static Action write(Path livePath, long offset, byte[] data) {
+            return new Action(WRITE, livePath, null, offset, data);
+        }
+
+        /**
+         * @param length Neue Länge der Live-Datei
+         */
+        static Action truncate(Path livePath, long length) {
+            return new Action(TRUNCATE, livePath, null, length, null);
+        }
+
+        /**
+         * Ausgangsstand einer blockweise übernommenen Datei. Die WRITE- und TRUNCATE-Aktionen derselben Datei
+         * werden nur nachgespielt, solange die Live-Datei noch dazu passt (siehe BlockDelta.canRedo).
+         * @param size Länge der Live-Datei vor der Übernahme
+         * @param blockHashes Hashes aller Blöcke der Live-Datei vor der Übernahme
+         */
+        static Action base(Path livePath, long size, long[] blockHashes) {
+            ByteBuffer data = ByteBuffer.allocate(blockHashes.length * Long.BYTES);
+            data.asLongBuffer().put(blockHashes);
+            return new Action(BASE, livePath, null, size, data.array());
+        }
+
+        /**
+         * Zustand der Live-Datei vor der Installation. Eine folgende RENAME- oder DELETE-Aktion derselben Datei wird
+         * nur nachgespielt, solange Länge, Änderungszeit und Inode noch übereinstimmen; eine APPEND-Aktion, solange
+         * Inode und die letzten Bytes vor dem Anhängen übereinstimmen (siehe matchesExpected, redoAppend).
+         * @param hashTail true, um die letzten Bytes der Datei für ein Anhängen zu hashen
+         */
+        static Action expect(Path livePath, boolean hashTail) throws IOException {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            DataOutputStream out = new DataOutputStream(bytes);
+            long size = -1;
+            try (FileChannel channel = FileChannel.open(livePath, StandardOpenOption.READ)) {
+                size = channel.size();
+                out.writeLong(Files.getLastModifiedTime(livePath).toMillis());
+                out.writeLong(hashTail ? tailHash(channel, size) : 0);
+                out.writeUTF(fileKey(livePath));
+            } catch (NoSuchFileException e) {
+                // Die Datei entsteht erst mit dem Commit.
+                bytes.reset();
+            }
+            return new Action(EXPECT, livePath, null, size, bytes.toByteArray());
+        }
+
+        /**
+         * @return Die Länge einer EXPECT-Aktion, oder -1, falls die Datei nicht existierte.
+         */
+        long expectedSize() {
+            return offset;
+        }
+
+        long expectedLastModified() throws IOException {
+            return new DataInputStream(new ByteArrayInputStream(data)).readLong();
+        }
+
+        long expectedTailHash() throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.readLong();
+            return in.readLong();
+        }
+
+        String expectedFileKey() throws IOException {
+            DataInputStream in = new DataInputStream(new ByteArrayInputStream(data));
+            in.readLong();
+            in.readLong();
+            return in.readUTF();
+        }
+
+        /**
+         * @return Die Blockhashes einer BASE-Aktion.
+         */
+        long[] blockHashes() {
+            long[] hashes = new long[data.length / Long.BYTES];
+            ByteBuffer.wrap(data).asLongBuffer().get(hashes);
+            return hashes;
+        }
+    }
+
+    /**
+     * Vermerkt die temporären Dateien, die die Transaktion gleich neben den Live-Dateien anlegt (ohne fsync).
+     */
+    Entry prepare(String transactionId, Collection<Path> stagedPaths) throws IOException {
+        Entry entry = new Entry(transactionId);
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(PREPARE);
+        out.writeUTF(transactionId);
+        out.writeInt(stagedPaths.size());
+        for (Path staged : stagedPaths) {
+            out.writeUTF(staged.toAbsolutePath().toString());
+        }
+        append(entry, bytes.toByteArray());
+        return entry;
+    }
+
+    /**
+     * Schreibt den COMMIT-Eintrag. Er ist erst dauerhaft, wenn getCommitSegment() synchronisiert wurde.
+     * @param entry Eintrag aus prepare, oder null, falls die Transaktion nichts bereitgestellt hat
+     */
+    Entry commit(Entry entry, String transactionId, List<Action> actions) throws IOException {
+        if (entry == null) {
+            entry = new Entry(transactionId);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(COMMIT);
+        out.writeUTF(transactionId);
+        out.writeInt(actions.size());
+        for (Action action : actions) {
+            out.writeByte(action.kind);
+            out.writeUTF(action.livePath.toString());
+            if (action.kind == RENAME) {
+                out.writeUTF(action.stagedPath.toString());
+            } else if (action.kind == APPEND || action.kind == WRITE || action.kind == BASE || action.kind == EXPECT) {
+                out.writeLong(action.offset);
+                out.writeInt(action.data.length);
+                out.write(action.data);
+            } else if (action.kind == TRUNCATE) {
+                out.writeLong(action.offset);
+            }
+        }
+        entry.commitSegment = append(entry, bytes.toByteArray());
+        return entry;
+    }
+
+    /**
+     * Schließt die Transaktion im Log ab und gibt ihre Segmente frei. Hat sie bereits einen COMMIT-Eintrag, wird
+     * der Abschluss vorher über groupCommit dauerhaft gemacht, damit er nicht hinter einer späteren Installation
+     * derselben Dateien verloren gehen kann; der Aufrufer hält dabei noch die Commit-Sperren.
+     * @param committed true nach vollständiger Installation, false nach Abbruch oder Rücknahme
+     * @param groupCommit Für das fsync, oder null für Commits ohne Dauerhaftigkeit
+     */
+    void finish(Entry entry, boolean committed, GroupCommit groupCommit) throws IOException {
+        if (entry == null) {
+            return;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeByte(committed ? DONE : ABORT);
+        out.writeUTF(entry.transactionId);
+        try {
+            Path segment = append(entry, bytes.toByteArray());
+            // Erst danach darf das Segment gelöscht werden: Ein nicht dauerhaftes Löschen könnte es sonst
+            // ohne diesen Eintrag wieder auftauchen lassen.
+            if (groupCommit != null && entry.commitSegment != null) {
+                groupCommit.sync(Collections.singleton(segment), Collections.emptyList());
+            }
+        } finally {
+            synchronized (this) {
+                for (Segment segment : entry.segments) {
+                    segment.openEntries--;
+                }
+                entry.segments.clear();
+                deleteRetiredSegments();
+            }
+        }
+    }
+
+    /**
+     * Hängt einen Eintrag (Länge, CRC32, Inhalt) an das aktuelle Segment an.
+     * @return Pfad des Segments, in dem der Eintrag steht
+     */
+    private synchronized Path append(Entry entry, byte[] payload) throws IOException {
+        if (closed) {
+            throw new IOException("Intent-Log ist geschlossen: " + directory);
+        }
+        if (current.size >= SEGMENT_SIZE) {
+            retired.add(current);
+            current = openSegment();
+            deleteRetiredSegments();
+        }
+        CRC32 crc = new CRC32();
+        crc.update(payload);
+        ByteBuffer record = ByteBuffer.allocate(8 + payload.length);
+        record.putInt(payload.length).putInt((int) crc.getValue()).put(payload).flip();
+        while (record.hasRemaining()) {
+            current.channel.write(record);
+        }
+        current.size += 8 + payload.length;
+        if (entry.segments.add(current)) {
+            current.openEntries++;
+        }
+        return current.path;
+    }
+
+    private Segment openSegment() throws IOException {
+        Path path = directory.resolve(namePrefix + (nextSequence++) + SUFFIX);
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE,
+                StandardOpenOption.APPEND);
+        FileLock lock = channel.tryLock();
+        if (lock == null) {
+            channel.close();
+            throw new IOException("Intent-Log ist bereits gesperrt: " + path);
+        }
+        // Der Verzeichniseintrag des neuen Segments muss vor dem ersten COMMIT-Eintrag dauerhaft sein.
+        try (FileChannel dir = FileChannel.open(directory, StandardOpenOption.READ)) {
+            dir.force(true);
+        }
+        return new Segment(path, channel);
+    }
+
+    /**
+     * Löscht Segmente, in die nicht mehr geschrieben wird und deren Transaktionen alle abgeschlossen sind.
+     */
+    private void deleteRetiredSegments() throws IOException {
+        Iterator<Segment> it = retired.iterator();
+        while (it.hasNext()) {
+            Segment segment = it.next();
+            if (segment.openEntries == 0) {
+                segment.close();
+                Files.deleteIfExists(segment.path);
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Schließt das Log. Sind alle Transaktionen abgeschlossen, werden die Segmente gelöscht; andernfalls bleiben
+     * sie für die Wiederherstellung beim nächsten Start liegen.
+     */
+    synchronized void close() throws IOException {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        retired.add(current);
+        for (Segment segment : retired) {
+            segment.close();
+            if (segment.openEntries == 0) {
+                Files.deleteIfExists(segment.path);
+            }
+        }
+        retired.clear();
+    }
+
+    /**
+     * Spielt die Logs beendeter Prozesse im Verzeichnis nach: entschiedene Commits werden dateiweise zu Ende
+     * installiert, bereitgestellte Dateien nicht entschiedener Commits gelöscht. Danach werden die Logs entfernt.
+     * Logs, die noch ein laufender Prozess (oder ein anderer Manager dieses Prozesses) sperrt, bleiben unberührt.
+     * @return Anzahl der nachgespielten Commits
+     */
+    static int recover(Path directory) throws IOException {
+        if (!Files.isDirectory(directory)) {
+            return 0;
+        }
+        // Segmente nach Besitzer gruppieren ("intent-<pid>-<n>-") und in Schreibreihenfolge sortieren.
+        Map<String, TreeMap<Integer, Path>> owners = new TreeMap<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, PREFIX + "*" + SUFFIX)) {
+            for (Path path : stream) {
+                String name = path.getFileName().toString();
+                int sequenceStart = name.lastIndexOf('-') + 1;
+                try {
+                    int sequence = Integer.parseInt(name.substring(sequenceStart, name.length() - SUFFIX.length()));
+                    owners.computeIfAbsent(name.substring(0, sequenceStart), k -> new TreeMap<>()).put(sequence, path);
+                } catch (NumberFormatException e) {
+                    TransactionLog.warn("Unbekannte Datei im Intent-Log-Verzeichnis: " + path);
+                }
+            }
+        }
+        int recovered = 0;
+        for (TreeMap<Integer, Path> segments : owners.values()) {
+            List<FileChannel> locked = new ArrayList<>();
+            try {
+                if (!lockAll(segments.values(), locked)) {
+                    continue;
+                }
+                recovered += replay(segments.values());
+                for (Path path : segments.values()) {
+                    Files.deleteIfExists(path);
+                }
+            } finally {
+                for (FileChannel channel : locked) {
+                    channel.close();
+                }
+            }
+        }
+        return recovered;
+    }
+
+    /**
+     * Sperrt alle Segmente eines Besitzers.
+     * @return false, falls eines davon noch gesperrt ist, der Besitzer also noch läuft
+     */
+    private static boolean lockAll(Collection<Path> segments, List<FileChannel> locked) throws IOException {
+        for (Path path : segments) {
+            FileChannel channel;
+            try {
+                channel = FileChannel.open(path, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            } catch (NoSuchFileException e) {
+                // Inzwischen vom Besitzer gelöscht.
+                continue;
+            }
+            locked.add(channel);
+            try {
+                if (channel.tryLock() == null) {
+                    return false;
+                }
+            } catch (OverlappingFileLockException e) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Liest die Einträge aller Segmente und führt Redo bzw. Undo pro Transaktion aus.
+     */
+    private static int replay(Collection<Path> segments) throws IOException {
+        // Transaktions-ID -> Aktionen des COMMIT-Eintrags bzw. bereitgestellte Dateien, in Log-Reihenfolge.
+        Map<String, List<Action>> committed = new LinkedHashMap<>();
+        Map<String, List<Path>> prepared = new LinkedHashMap<>();
+        for (Path path : segments) {
+            if (!Files.exists(path)) {
+                continue;
+            }
+            long remaining = Files.size(path);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(path)))) {
+                byte[] payload;
+                while ((payload = readRecord(in, remaining)) != null) {
+                    remaining -= 8 + payload.length;
+                    DataInputStream record = new DataInputStream(new ByteArrayInputStream(payload));
+                    byte type = record.readByte();
+                    String transactionId = record.readUTF();
+                    if (type == PREPARE) {
+                        int count = record.readInt();
+                        List<Path> staged = new ArrayList<>(count);
+                        for (int i = 0; i < count; i++) {
+                            staged.add(Paths.get(record.readUTF()));
+                        }
+                        prepared.put(transactionId, staged);
+                    } else if (type == COMMIT) {
+                        committed.put(transactionId, readActions(record));
+                    } else {
+                        committed.remove(transactionId);
+                        prepared.remove(transactionId);
+                    }
+                }
+            }
+        }
+        for (Map.Entry<String, List<Action>> entry : committed.entrySet()) {
+            redo(entry.getKey(), entry.getValue());
+            prepared.remove(entry.getKey());
+        }
+        for (Map.Entry<String, List<Path>> entry : prepared.entrySet()) {
+            for (Path staged : entry.getValue()) {
+                Files.deleteIfExists(staged);
+            }
+            TransactionLog.info("Nicht entschiedene Transaktion verworfen: " + entry.getKey());
+        }
+        return committed.size();
+    }
+
+    /**
+     * Liest einen Eintrag.
+     * @param remaining Restlänge des Segments ab der aktuellen Position
+     * @return Den Inhalt, oder null am Ende des Logs bzw. bei einem unvollständig geschriebenen Eintrag
+     */
+    private static byte[] readRecord(DataInputStream in, long remaining) throws IOException {
+        try {
+            int length = in.readInt();
+            int checksum = in.readInt();
+            // Ein abgeschnittener Eintrag kann eine beliebige Länge enthalten; sie wird vor dem Lesen geprüft.
+            if (length <= 0 || length > remaining - 8) {
+                return null;
+            }
+            byte[] payload = new byte[length];
+            in.readFully(payload);
+            CRC32 crc = new CRC32();
+            crc.update(payload);
+            return (int) crc.getValue() == checksum ? payload : null;
+        } catch (EOFException e) {
+            return null;
+        }
+    }
+
+    private static List<Action> readActions(DataInputStream record) throws IOException {
+        int count = record.readInt();
+        List<Action> actions = new ArrayList<>(count);
+        for (int i = 0; i < count; i++) {
+            byte kind = record.readByte();
+            Path livePath = Paths.get(record.readUTF());
+            if (kind == RENAME) {
+                actions.add(Action.rename(Paths.get(record.readUTF()), livePath));
+            } else if (kind == DELETE) {
+                actions.add(Action.delete(livePath));
+            } else if (kind == TRUNCATE) {
+                actions.add(Action.truncate(livePath, record.readLong()));
+            } else {
+                long offset = record.readLong();
+                byte[] data = new byte[record.readInt()];
+                record.readFully(data);
+                actions.add(new Action(kind, livePath, null, offset, data));
+            }
+        }
+        return actions;
+    }
+
+    /**
+     * Installiert die Aktionen eines entschiedenen Commits. Jede Aktion ist wiederholbar: Eine bereits
+     * umbenannte Datei hat keine bereitgestellte Kopie mehr, ein vollständiges Anhängen erkennt man an Länge und
+     * Inhalt, positionierte Blöcke und Kürzen lassen sich beliebig oft ausführen. Jede Aktion wird aber nur auf eine
+     * Live-Datei angewendet, die noch dem Stand vor dem Commit (bzw. einer teilweisen Übernahme) entspricht; eine
+     * inzwischen neuere Version bleibt erhalten.
+     */
+    private static void redo(String transactionId, List<Action> actions) throws IOException {
+        Set<Path> changedDirectories = new LinkedHashSet<>();
+        Set<Path> changedFiles = new LinkedHashSet<>();
+        Set<Path> staleFiles = staleBlockFiles(actions);
+        Map<Path, Action> expected = new HashMap<>();
+        for (Action action : actions) {
+            if (action.kind == EXPECT) {
+                expected.put(action.livePath, action);
+            }
+        }
+        for (Action action : actions) {
+            Path live = action.livePath;
+            if (action.kind == RENAME) {
+                if (!Files.exists(action.stagedPath)) {
+                    continue;
+                }
+                if (matchesExpected(expected.get(live))) {
+                    Files.move(action.stagedPath, live, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } else {
+                    TransactionLog.warn("Datei wird nicht ersetzt, sie wurde nach dem Commit verändert: " + live);
+                    Files.delete(action.stagedPath);
+                }
+                changedDirectories.add(live.getParent());
+            } else if (action.kind == DELETE) {
+                if (!Files.exists(live, LinkOption.NOFOLLOW_LINKS)) {
+                    continue;
+                }
+                if (matchesExpected(expected.get(live))) {
+                    Files.delete(live);
+                    changedDirectories.add(live.getParent());
+                } else {
+                    TransactionLog.warn("Datei wird nicht gelöscht, sie wurde nach dem Commit verändert: " + live);
+                }
+            } else if (action.kind == APPEND) {
+                if (redoAppend(action, expected.get(live))) {
+                    changedFiles.add(live);
+                    changedDirectories.add(live.getParent());
+                }
+            } else if ((action.kind == WRITE || action.kind == TRUNCATE) && !staleFiles.contains(live)) {
+                redoWrite(action);
+                changedFiles.add(live);
+            }
+        }
+        for (Path file : changedFiles) {
+            try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+                channel.force(true);
+            }
+        }
+        for (Path dir : changedDirectories) {
+            try (FileChannel channel = FileChannel.open(dir, StandardOpenOption.READ)) {
+                channel.force(true);
+            }
+        }
+        TransactionLog.info("Commit nach Absturz abgeschlossen: " + transactionId);
+    }
+
+    /**
+     * Ermittelt die blockweise übernommenen Dateien, deren Live-Datei weder dem Ausgangsstand noch einer teilweisen
+     * Übernahme entspricht, z.B. weil sie inzwischen durch eine neuere Installation ersetzt wurde.
+     * Ihre Blöcke werden nicht nachgespielt.
+     */
+    private static Set<Path> staleBlockFiles(List<Action> actions) throws IOException {
+        Set<Path> stale = new HashSet<>();
+        for (Action base : actions) {
+            if (base.kind != BASE) {
+                continue;
+            }
+            List<Action> changes = new ArrayList<>();
+            for (Action action : actions) {
+                if ((action.kind == WRITE || action.kind == TRUNCATE) && action.livePath.equals(base.livePath)) {
+                    changes.add(action);
+                }
+            }
+            if (!BlockDelta.canRedo(base.livePath, base.offset, base.blockHashes(), changes)) {
+                TransactionLog.warn("Blöcke werden nicht nachgespielt, Datei passt nicht zum Ausgangsstand: " + base.livePath);
+                stale.add(base.livePath);
+            }
+        }
+        return stale;
+    }
+
+    /**
+     * Prüft, ob die Live-Datei noch dem Zustand einer EXPECT-Aktion entspricht.
+     * @param expect Die EXPECT-Aktion der Datei, oder null für Logs ohne festgehaltenen Zustand
+     */
+    private static boolean matchesExpected(Action expect) throws IOException {
+        if (expect == null) {
+            return true;
+        }
+        Path live = expect.livePath;
+        if (expect.expectedSize() < 0) {
+            return !Files.exists(live, LinkOption.NOFOLLOW_LINKS);
+        }
+        return Files.isRegularFile(live, LinkOption.NOFOLLOW_LINKS)
+                && Files.size(live) == expect.expectedSize()
+                && Files.getLastModifiedTime(live).toMillis() == expect.expectedLastModified()
+                && expect.expectedFileKey().equals(fileKey(live));
+    }
+
+    /**
+     * Hängt die Daten an, falls das noch nicht (vollständig) geschehen ist. Ein halb geschriebenes Anhängen wird
+     * fortgesetzt, sofern die Bytes hinter der Ausgangslänge ein Anfang der Daten sind und die Bytes davor noch
+     * dem Ausgangsstand entsprechen; sonst wurde die Datei inzwischen anders verändert und bleibt unberührt.
+     * @param expect Die EXPECT-Aktion der Datei, oder null für Logs ohne festgehaltenen Zustand
+     * @return true, falls Daten geschrieben wurden
+     */
+    private static boolean redoAppend(Action action, Action expect) throws IOException {
+        try (FileChannel channel = FileChannel.open(action.livePath, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            long size = channel.size();
+            if (size < action.offset) {
+                TransactionLog.warn("Anhängen kann nicht nachgespielt werden, Datei ist kürzer als erwartet: " + action.livePath);
+                return false;
+            }
+            if (size > action.offset + action.data.length || !isPrefix(channel, action.offset, size, action.data)) {
+                TransactionLog.warn("Anhängen wird nicht nachgespielt, Datei wurde weiter verändert: " + action.livePath);
+                return false;
+            }
+            if (expect != null && expect.expectedSize() >= 0 && (!expect.expectedFileKey().equals(fileKey(action.livePath))
+                    || tailHash(channel, action.offset) != expect.expectedTailHash())) {
+                TransactionLog.warn("Anhängen wird nicht nachgespielt, Datei passt nicht zum Ausgangsstand: " + action.livePath);
+                return false;
+            }
+            if (size == action.offset + action.data.length) {
+                return false;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(action.data, (int) (size - action.offset),
+                    action.data.length - (int) (size - action.offset));
+            long position = size;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * @return true, falls die Bytes der Datei von offset bis end mit dem Anfang von data übereinstimmen.
+     */
+    private static boolean isPrefix(FileChannel channel, long offset, long end, byte[] data) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - offset));
+        long position = offset;
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+            position += read;
+        }
+        return !buffer.hasRemaining() && Arrays.equals(buffer.array(), 0, buffer.capacity(), data, 0, buffer.capacity());
+    }
+
+    /**
+     * @return XXH64 der letzten APPEND_TAIL_SIZE Bytes vor end.
+     */
+    private static long tailHash(FileChannel channel, long end) throws IOException {
+        long start = Math.max(0, end - APPEND_TAIL_SIZE);
+        ByteBuffer buffer = ByteBuffer.allocate((int) (end - start));
+        long position = start;
+        int read;
+        while (buffer.hasRemaining() && (read = channel.read(buffer, position)) > 0) {
+            position += read;
+        }
+        buffer.flip();
+        HashAlgorithm.Hasher hasher = new HashAlgorithm.Xxh64Hasher(0);
+        hasher.update(buffer);
+        return ByteBuffer.wrap(hasher.digest()).getLong();
+    }
+
+    /**
+     * @return Kennung des Inodes (z.B. "(dev=..,ino=..)"), oder "", falls das Dateisystem keine liefert.
+     */
+    private static String fileKey(Path file) throws IOException {
+        Object key = Files.readAttributes(file, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS).fileKey();
+        return key == null ? "" : key.toString();
+    }
+
+    /**
+     * Schreibt einen Block an seine Position bzw. kürzt die Datei auf die neue Länge.
+     */
+    private static void redoWrite(Action action) throws IOException {
+        try (FileChannel channel = FileChannel.open(action.livePath, StandardOpenOption.WRITE)) {
+            if (action.kind == TRUNCATE) {
+                channel.truncate(action.offset);
+                return;
+            }
+            ByteBuffer buffer = ByteBuffer.wrap(action.data);
+            long position = action.offset;
+            while (buffer.hasRemaining()) {
+                position += channel.write(buffer, position);
+            }
+        }
+    }
+
+    /**
+     * Eine Segment-Datei des eigenen Logs.
+     */
+    private static final class Segment {
+        final Path path;
+        final FileChannel channel;
+        long size;
+        // Transaktionen mit Einträgen in diesem Segment, die noch nicht abgeschlossen sind. Geschützt durch das Log.
+        int openEntries;
+
+        Segment(Path path, FileChannel channel) {
+            this.path = path;
+            this.channel = channel;
+        }
+
+        void close() throws IOException {
+            // Schließen gibt auch die FileLock frei.
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,92 @@
+package transactionlib;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+class LeaseTable {
+    // Leases für stark umkämpfte Dateien: Statt erst beim Commit zu validieren, sichert sich eine Transaktion
+    // beim ersten Zugriff eine gemeinsame (Lesen) oder exklusive (Schreiben) Lease auf den Pfad.
+    // Eine Lease ist ein fairer Semaphor mit MAX_PERMITS Genehmigungen: gemeinsam = 1, exklusiv = alle.
+    // Anders als ein ReadWriteLock gehört die Lease keinem Thread und kann von jedem Thread freigegeben werden.
+    // Ein Eintrag lebt nur, solange jemand die Lease hält oder auf sie wartet; danach wird er entfernt,
+    // damit die Tabelle bei vielen verschiedenen Dateien nicht unbegrenzt wächst.
+    // Leases werden erst mit commit() oder rollback() der Transaktion freigegeben. Eine nie beendete Transaktion
+    // hält sie daher dauerhaft; Wartende scheitern dann nach der Lease-Wartezeit des Managers.
+
+    private static final int MAX_PERMITS = 1 << 20;
+
+    private final ConcurrentHashMap<Path, Lease> leases = new ConcurrentHashMap<>();
+
+    /**
+     * Erwirbt eine Lease und wartet höchstens timeoutMillis (0 = nicht warten).
+     * Wartende werden in Ankunftsreihenfolge bedient, damit exklusive Leases nicht verhungern.
+     * @return true, falls die Lease erworben wurde
+     */
+    boolean acquire(File file, boolean exclusive, long timeoutMillis) throws InterruptedException {
+        Path key = key(file);
+        Lease lease = retain(key);
+        boolean acquired = false;
+        try {
+            acquired = lease.semaphore.tryAcquire(exclusive ? MAX_PERMITS : 1, timeoutMillis, TimeUnit.MILLISECONDS);
+        } finally {
+            if (!acquired) {
+                unretain(key);
+            }
+        }
+        return acquired;
+    }
+
+    /**
+     * Wandelt eine gehaltene gemeinsame Lease in eine exklusive um, falls das sofort möglich ist.
+     * Es wird nicht gewartet, da zwei Transaktionen, die gleichzeitig aufwerten wollen, sich sonst gegenseitig blockieren.
+     */
+    boolean tryUpgrade(File file) {
+        return leases.get(key(file)).semaphore.tryAcquire(MAX_PERMITS - 1);
+    }
+
+    void release(File file, boolean exclusive) {
+        Path key = key(file);
+        leases.get(key).semaphore.release(exclusive ? MAX_PERMITS : 1);
+        unretain(key);
+    }
+
+    /**
+     * @return Anzahl der Pfade, für die derzeit eine Lease gehalten oder auf eine gewartet wird.
+     */
+    int size() {
+        return leases.size();
+    }
+
+    /**
+     * Meldet einen Halter oder Wartenden an; der Eintrag wird bei Bedarf angelegt.
+     */
+    private Lease retain(Path key) {
+        return leases.compute(key, (k, lease) -> {
+            if (lease == null) {
+                lease = new Lease();
+            }
+            lease.users++;
+            return lease;
+        });
+    }
+
+    /**
+     * Meldet einen Halter oder Wartenden ab und entfernt den Eintrag, wenn niemand mehr übrig ist.
+     */
+    private void unretain(Path key) {
+        leases.computeIfPresent(key, (k, lease) -> --lease.users == 0 ? null : lease);
+    }
+
+    private static Path key(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    private static final class Lease {
+        final Semaphore semaphore = new Semaphore(MAX_PERMITS, true);
+        // Halter und Wartende; nur innerhalb von compute/computeIfPresent der Tabelle verändert.
+        int users;
+    }
+}
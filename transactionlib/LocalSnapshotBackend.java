@@ -0,0 +1,205 @@
+package transactionlib;
+
+import java.io.*;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.*;
+
+public class LocalSnapshotBackend implements SnapshotBackend {
+    // Snapshot-Backend ohne ZFS: Ein Snapshot ist ein Abbild des verwalteten Verzeichnisses unter
+    // <root>/.snapshots/<name>, das vollständig im eigenen Prozess erzeugt wird.
+    // Standardmäßig werden die Dateien per Hardlink übernommen, sodass ein Snapshot nur Verzeichniseinträge
+    // kostet. Das ist korrekt, solange Live-Dateien ersetzt und nicht an Ort und Stelle überschrieben werden –
+    // Transaction.commit() ersetzt Dateien per Rename und ändert eine Datei nur dann an Ort und Stelle (Anhängen,
+    // blockweise Übernahme), wenn sie keinen Inode mit einem Snapshot teilt; Files.copy(..., REPLACE_EXISTING)
+    // löscht das Ziel vorher.
+    // Wer Dateien außerhalb der Bibliothek direkt überschreibt, sollte den Kopiermodus verwenden.
+    // Solange ein Hardlink-Snapshot existiert, teilt jede nicht ersetzte Live-Datei ihren Inode; appendFile und die
+    // blockweise Übernahme fallen dann auf eine vollständige Kopie zurück (siehe TransactionMetrics). Unter Last
+    // existiert fast immer ein Snapshot. Wer diese Optimierungen braucht, verwendet den Kopiermodus; dann kostet
+    // jeder Snapshot eine Kopie des Verzeichnisses.
+    // Versteckte Verzeichnisse (z.B. .git oder .snapshots selbst) und temporäre Dateien, unter denen Transaktionen
+    // ihre Arbeitskopien bereitstellen, werden nicht gesichert.
+
+    private static final String SNAPSHOT_DIR = ".snapshots";
+
+    private final Path root;
+    private final Path snapshotRoot;
+    private final boolean useHardLinks;
+
+    /**
+     * Konstruktor mit Hardlink-Snapshots.
+     * @param root Verzeichnis, dessen Inhalt gesichert wird
+     */
+    public LocalSnapshotBackend(File root) {
+        this(root, true);
+    }
+
+    /**
+     * Konstruktor.
+     * @param root Verzeichnis, dessen Inhalt gesichert wird
+     * @param useHardLinks true für Hardlinks, false für vollständige Kopien der Dateien
+     */
+    public LocalSnapshotBackend(File root, boolean useHardLinks) {
+        this.root = root.toPath().toAbsolutePath().normalize();
+        this.snapshotRoot = this.root.resolve(SNAPSHOT_DIR);
+        this.useHardLinks = useHardLinks;
+    }
+
+    @Override
+    public String createSnapshot(String transactionId) throws IOException {
+        String snapshotName = "tx_" + transactionId;
+        Path target = snapshotRoot.resolve(snapshotName);
+        Files.createDirectories(target);
+        for (Path source : listFiles(root)) {
+            Path copy = target.resolve(root.relativize(source));
+            Files.createDirectories(copy.getParent());
+            try {
+                linkOrCopy(source, copy);
+            } catch (NoSuchFileException e) {
+                // Die Datei wurde zwischen Auflisten und Sichern entfernt; sie gehört nicht zum Snapshot.
+            }
+        }
+        TransactionLog.info("Snapshot erstellt: " + target);
+        return snapshotName;
+    }
+
+    /**
+     * Setzt das verwaltete Verzeichnis auf den Snapshot zurück.
+     * Dateien, die seit dem Snapshot unverändert sind (gleicher Inode), werden nicht angefasst.
+     */
+    @Override
+    public void rollbackToSnapshot(String snapshotName) throws IOException {
+        Path snapshot = snapshotRoot.resolve(snapshotName);
+        if (!Files.isDirectory(snapshot)) {
+            TransactionLog.info("Snapshot " + snapshotName + " existiert nicht. Rollback wird übersprungen.");
+            return;
+        }
+        // Dateien, die erst nach dem Snapshot entstanden sind, werden entfernt.
+        for (Path live : listFiles(root)) {
+            if (!Files.exists(snapshot.resolve(root.relativize(live)))) {
+                Files.deleteIfExists(live);
+            }
+        }
+        // Alle übrigen Dateien werden aus dem Snapshot wiederhergestellt. Dabei wird kopiert und nicht
+        // verlinkt, damit spätere Änderungen an der Live-Datei den Snapshot nicht verändern.
+        for (Path saved : listFiles(snapshot)) {
+            Path live = root.resolve(snapshot.relativize(saved));
+            if (isSameFile(saved, live)) {
+                continue;
+            }
+            Files.createDirectories(live.getParent());
+            Files.copy(saved, live, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.COPY_ATTRIBUTES);
+        }
+        TransactionLog.info("Rollback durchgeführt: " + snapshot);
+    }
+
+    @Override
+    public boolean snapshotExists(String snapshotName) {
+        return Files.isDirectory(snapshotRoot.resolve(snapshotName));
+    }
+
+    @Override
+    public File resolveInSnapshot(String snapshotName, File liveFile) {
+        Path live = liveFile.toPath().toAbsolutePath().normalize();
+        if (!live.startsWith(root) || live.startsWith(snapshotRoot)) {
+            return null;
+        }
+        return snapshotRoot.resolve(snapshotName).resolve(root.relativize(live)).toFile();
+    }
+
+    @Override
+    public void destroySnapshot(String snapshotName) throws IOException {
+        Path snapshot = snapshotRoot.resolve(snapshotName);
+        if (!Files.isDirectory(snapshot)) {
+            return;
+        }
+        Files.walkFileTree(snapshot, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException e) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        TransactionLog.info("Snapshot gelöscht: " + snapshot);
+    }
+
+    @Override
+    public List<String> listSnapshots() throws IOException {
+        List<String> names = new ArrayList<>();
+        if (!Files.isDirectory(snapshotRoot)) {
+            return names;
+        }
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(snapshotRoot)) {
+            for (Path snapshot : stream) {
+                if (Files.isDirectory(snapshot)) {
+                    names.add(snapshot.getFileName().toString());
+                }
+            }
+        }
+        return names;
+    }
+
+    /**
+     * Übernimmt eine Datei in den Snapshot, bevorzugt als Hardlink.
+     * Unterstützt das Dateisystem keine Hardlinks, wird auf eine Kopie ausgewichen.
+     */
+    private void linkOrCopy(Path source, Path copy) throws IOException {
+        if (useHardLinks) {
+            try {
+                Files.createLink(copy, source);
+                return;
+            } catch (NoSuchFileException e) {
+                throw e;
+            } catch (UnsupportedOperationException | FileSystemException e) {
+                // Fallback auf eine echte Kopie.
+            }
+        }
+        Files.copy(source, copy, StandardCopyOption.COPY_ATTRIBUTES);
+    }
+
+    /**
+     * Liefert alle regulären Dateien unterhalb von dir, ohne versteckte Verzeichnisse und bereitgestellte Arbeitskopien.
+     */
+    private static List<Path> listFiles(Path dir) throws IOException {
+        List<Path> files = new ArrayList<>();
+        Files.walkFileTree(dir, new SimpleFileVisitor<Path>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path d, BasicFileAttributes attrs) {
+                if (!d.equals(dir) && d.getFileName().toString().startsWith(".")) {
+                    return FileVisitResult.SKIP_SUBTREE;
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && !Transaction.isStagingFile(file)) {
+                    files.add(file);
+                }
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException e) {
+                // Während des Durchlaufs entfernte Dateien werden ignoriert.
+                return FileVisitResult.CONTINUE;
+            }
+        });
+        return files;
+    }
+
+    private static boolean isSameFile(Path a, Path b) {
+        try {
+            return Files.exists(b) && Files.isSameFile(a, b);
+        } catch (IOException e) {
+            return false;
+        }
+    }
+}
@@ -3,19 +3,27 @@ package transactionlib;
 import java.io.File;
 
 public class Main {
+    // Verzeichnis mit der Beispieldatei test.txt.
+    private static final String DATA_DIR = "demo";
+
     public static void main(String[] args) {
         try {
             // Konfiguration: Hier wird das ZFS-Dataset angegeben.
             // Dies entspricht der Vorgabe, dass der Snapshot programmatisch erstellt wird.
             String dataset = "testpool/mydata";
-            ZfsManager zfsManager = new ZfsManager(dataset);
-            TransactionManager txManager = new TransactionManager(zfsManager);
+            // Die Beispieldatei liegt in einem eigenen Verzeichnis. Mit -Dtransactionlib.backend=local wird statt ZFS
+            // nur dieses Verzeichnis in-process gesichert, nicht das ganze Projekt.
+            File dataDir = new File(DATA_DIR);
+            dataDir.mkdirs();
+            SnapshotBackend snapshotBackend = SnapshotBackend.fromSystemProperties(dataset, dataDir);
+            TransactionManager txManager = new TransactionManager(snapshotBackend);
             
-            // Beginne eine neue Transaktion, die intern einen Snapshot anlegt und einen Arbeitsbereich erstellt.
+            // Beginne eine neue Transaktion, die einen Arbeitsbereich erstellt.
+            // Der Snapshot wird erst beim ersten Schreibzugriff angelegt.
             Transaction tx = txManager.beginTransaction();
             
             // Beispielhafte Dateioperationen: Eine Datei "test.txt" wird im Kontext der Transaktion gelesen und bearbeitet.
-            File testFile = new File("test.txt");
+            File testFile = new File(DATA_DIR, "test.txt");
             
             // Lese den Inhalt der Datei.
             // Dabei wird im ersten Zugriff die Live-Datei in den Arbeitsbereich kopiert.
@@ -33,6 +41,8 @@ public class Main {
             if (!committed) {
                 System.out.println("Commit fehlgeschlagen, Transaktion wurde zurückgesetzt.");
             }
+            // Gibt nicht mehr benötigte Snapshots frei und beendet den Hintergrund-Reaper.
+            txManager.close();
         } catch (Exception e) {
             e.printStackTrace();
         }
@@ -0,0 +1,157 @@
+package transactionlib;
+
+import java.io.IOException;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+class ParallelIo {
+    // Verteilt unabhängige Datei-Operationen eines Commits (Hashen bei der Validierung, Bereitstellen der
+    // Arbeitskopien, fsyncs eines Group-Commit-Batches) auf mehrere Threads. Der aufrufende Thread arbeitet selbst
+    // mit; zusätzlich laufen über alle gleichzeitigen Aufrufe zusammen höchstens parallelism - 1 Helfer auf einem
+    // eigenen Executor (virtuelle Threads, sofern verfügbar). Sind alle Helfer vergeben, arbeitet ein Aufruf allein.
+    // So bleibt die Anzahl gleichzeitiger Anfragen an den Datenträger auch bei vielen parallelen Commits begrenzt,
+    // und blockierendes I/O bindet keine Plattform-Threads.
+    // Kleine Mengen werden ohne Helfer der Reihe nach abgearbeitet, damit kleine Transaktionen nichts verlieren.
+    // Schlägt eine Operation fehl, werden keine weiteren begonnen; forEach kehrt erst zurück, wenn alle laufenden
+    // beendet sind, damit der Aufrufer danach vollständig aufräumen kann (alles oder nichts).
+
+    // Ab dieser Anzahl Elemente werden Helfer eingesetzt.
+    static final int MIN_PARALLEL_ITEMS = 8;
+
+    interface Task<T> {
+        void run(T item) throws IOException, NoSuchAlgorithmException;
+    }
+
+    private final ExecutorService executor;
+    private volatile int parallelism;
+    // Laufende Helfer aller Aufrufe zusammen.
+    private final AtomicInteger activeHelpers = new AtomicInteger(0);
+
+    ParallelIo(ExecutorService executor, int parallelism) {
+        this.executor = executor;
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param parallelism Höchstzahl der Helfer aller Aufrufe zusammen zuzüglich eins;
+     *                    1 arbeitet alles im aufrufenden Thread ab
+     */
+    void setParallelism(int parallelism) {
+        this.parallelism = Math.max(1, parallelism);
+    }
+
+    int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * Beendet den Executor; danach arbeitet forEach nur noch im aufrufenden Thread.
+     */
+    void close() {
+        executor.shutdown();
+    }
+
+    /**
+     * Führt task für alle Elemente aus, bei genügend Elementen parallel und in beliebiger Reihenfolge.
+     * Der erste Fehler wird nach dem Ende aller laufenden Operationen weitergeworfen.
+     */
+    <T> void forEach(Collection<T> items, Task<T> task) throws IOException, NoSuchAlgorithmException {
+        List<T> list = new ArrayList<>(items);
+        int workers = Math.min(parallelism, list.size());
+        if (workers <= 1 || list.size() < MIN_PARALLEL_ITEMS) {
+            for (T item : list) {
+                task.run(item);
+            }
+            return;
+        }
+        AtomicInteger next = new AtomicInteger(0);
+        AtomicReference<Throwable> failure = new AtomicReference<>();
+        Runnable worker = () -> {
+            int index;
+            while (failure.get() == null && (index = next.getAndIncrement()) < list.size()) {
+                try {
+                    task.run(list.get(index));
+                } catch (Throwable t) {
+                    failure.compareAndSet(null, t);
+                }
+            }
+        };
+        int helpers = 0;
+        while (helpers < workers - 1 && reserveHelper()) {
+            helpers++;
+        }
+        CountDownLatch helpersDone = new CountDownLatch(helpers);
+        for (int i = 0; i < helpers; i++) {
+            try {
+                executor.execute(() -> {
+                    try {
+                        worker.run();
+                    } finally {
+                        activeHelpers.decrementAndGet();
+                        helpersDone.countDown();
+                    }
+                });
+            } catch (RejectedExecutionException e) {
+                // Executor bereits beendet (close): Der aufrufende Thread übernimmt die Arbeit allein.
+                activeHelpers.decrementAndGet();
+                helpersDone.countDown();
+            }
+        }
+        worker.run();
+        awaitUninterruptibly(helpersDone);
+        Throwable t = failure.get();
+        if (t == null) {
+            return;
+        }
+        if (t instanceof IOException) {
+            throw (IOException) t;
+        }
+        if (t instanceof NoSuchAlgorithmException) {
+            throw (NoSuchAlgorithmException) t;
+        }
+        if (t instanceof RuntimeException) {
+            throw (RuntimeException) t;
+        }
+        throw (Error) t;
+    }
+
+    /**
+     * Reserviert einen Helfer, sofern die gemeinsame Obergrenze noch nicht erreicht ist.
+     */
+    private boolean reserveHelper() {
+        int current;
+        do {
+            current = activeHelpers.get();
+            if (current >= parallelism - 1) {
+                return false;
+            }
+        } while (!activeHelpers.compareAndSet(current, current + 1));
+        return true;
+    }
+
+    /**
+     * Wartet auf die Helfer, auch bei einer Unterbrechung: Der Aufrufer darf erst aufräumen, wenn keine
+     * Operation mehr läuft. Die Unterbrechung bleibt am Thread gesetzt.
+     */
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                latch.await();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
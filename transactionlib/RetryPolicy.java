@@ -0,0 +1,71 @@
+package transactionlib;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * Legt fest, wie oft und mit welchen Wartezeiten TransactionManager.runInTransaction
+ * eine Transaktion nach einem Konflikt wiederholt.
+ */
+public class RetryPolicy {
+    // Die Wartezeit wächst exponentiell mit der Zahl der Versuche und wird mit der beobachteten
+    // Konfliktrate der beteiligten Dateien skaliert: Stark umkämpfte Dateien werden seltener angefasst.
+    // Ein zufälliger Anteil (Jitter) verhindert, dass gescheiterte Transaktionen im Gleichschritt erneut kollidieren.
+
+    // Standard: bis zu 10 Versuche, 10 ms Startwartezeit, höchstens 1 s pro Wartezeit, insgesamt höchstens 30 s.
+    public static final RetryPolicy DEFAULT = new RetryPolicy(10, 10, 1000, 30_000);
+    // Führt den Rumpf genau einmal aus, wie ein einfacher commit().
+    public static final RetryPolicy NO_RETRY = new RetryPolicy(1, 0, 0, 0);
+
+    // Um diesen Faktor wird die Wartezeit bei einer Konfliktrate von 1 (jeder Commit scheitert) verlängert.
+    private static final double CONTENTION_SCALE = 4.0;
+
+    private final int maxAttempts;
+    private final long baseDelayMillis;
+    private final long maxDelayMillis;
+    private final long deadlineMillis;
+
+    /**
+     * @param maxAttempts Höchstzahl der Versuche (mindestens 1)
+     * @param baseDelayMillis Wartezeit vor dem zweiten Versuch ohne Konfliktrate und Jitter
+     * @param maxDelayMillis Obergrenze für eine einzelne Wartezeit
+     * @param deadlineMillis Nach dieser Zeit ab dem ersten Versuch wird kein neuer Versuch mehr begonnen; 0 = keine Grenze
+     */
+    public RetryPolicy(int maxAttempts, long baseDelayMillis, long maxDelayMillis, long deadlineMillis) {
+        if (maxAttempts < 1) {
+            throw new IllegalArgumentException("maxAttempts muss mindestens 1 sein: " + maxAttempts);
+        }
+        this.maxAttempts = maxAttempts;
+        this.baseDelayMillis = baseDelayMillis;
+        this.maxDelayMillis = maxDelayMillis;
+        this.deadlineMillis = deadlineMillis;
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    public long getBaseDelayMillis() {
+        return baseDelayMillis;
+    }
+
+    public long getMaxDelayMillis() {
+        return maxDelayMillis;
+    }
+
+    public long getDeadlineMillis() {
+        return deadlineMillis;
+    }
+
+    /**
+     * Berechnet die Wartezeit vor dem nächsten Versuch.
+     * @param attempt Anzahl der bisher gescheiterten Versuche (ab 1)
+     * @param conflictRate Beobachtete Konfliktrate der beteiligten Dateien zwischen 0 und 1
+     */
+    long backoffMillis(int attempt, double conflictRate) {
+        double delay = baseDelayMillis * Math.pow(2, Math.min(attempt - 1, 30));
+        delay *= 1 + CONTENTION_SCALE * conflictRate;
+        delay = Math.min(delay, maxDelayMillis);
+        // "Equal Jitter": mindestens die Hälfte der Wartezeit, der Rest zufällig.
+        return (long) (delay / 2 + ThreadLocalRandom.current().nextDouble() * delay / 2);
+    }
+}
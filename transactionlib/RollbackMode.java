@@ -0,0 +1,12 @@
+package transactionlib;
+
+/**
+ * Legt fest, wie Transaction.rollback() den Live-Zustand zurücksetzt.
+ */
+public enum RollbackMode {
+    // Stellt nur die Dateien wieder her, die die Transaktion selbst bereits installiert hat.
+    // Der Aufwand wächst mit der Zahl der betroffenen Dateien, Commits anderer Transaktionen bleiben erhalten.
+    FILES,
+    // Setzt das gesamte Dataset auf den Snapshot zurück (zfs rollback -r), wie in früheren Versionen.
+    DATASET
+}
@@ -0,0 +1,113 @@
+package transactionlib;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+
+public interface SnapshotBackend {
+    // Abstraktion über den Mechanismus, mit dem Transaktionen einen konsistenten Zustand sichern.
+    // Transaction und TransactionManager kennen nur diese Schnittstelle; ob dahinter ZFS oder eine
+    // In-Process-Kopie des verwalteten Verzeichnisses steckt, ist für sie unerheblich.
+
+    /**
+     * Erstellt einen Snapshot, der zur Transaktion gehört.
+     * @param transactionId Eindeutige Transaktions-ID
+     * @return Den Namen des erstellten Snapshots, der später an rollbackToSnapshot übergeben wird
+     */
+    String createSnapshot(String transactionId) throws IOException, InterruptedException;
+
+    /**
+     * Setzt den verwalteten Datenbestand auf den angegebenen Snapshot zurück.
+     * Existiert der Snapshot nicht, wird der Rollback übersprungen.
+     */
+    void rollbackToSnapshot(String snapshotName) throws IOException, InterruptedException;
+
+    /**
+     * Überprüft, ob ein Snapshot existiert.
+     */
+    boolean snapshotExists(String snapshotName) throws IOException, InterruptedException;
+
+    /**
+     * Liefert den Pfad, unter dem der Inhalt von liveFile zum Zeitpunkt des Snapshots lesbar ist,
+     * z.B. im .zfs/snapshot-Verzeichnis des Datasets.
+     * @return Pfad im Snapshot, oder null, falls liveFile nicht vom Snapshot erfasst wird
+     */
+    File resolveInSnapshot(String snapshotName, File liveFile) throws IOException, InterruptedException;
+
+    /**
+     * Löscht einen Snapshot, der von keiner Transaktion mehr benötigt wird.
+     */
+    void destroySnapshot(String snapshotName) throws IOException, InterruptedException;
+
+    /**
+     * Löscht mehrere Snapshots auf einmal. Backends, die das in einem Aufruf können, sollten dies überschreiben.
+     * Snapshots, die sich nicht löschen lassen, werden übersprungen; bei einer Unterbrechung endet der Aufruf
+     * vorzeitig, die Unterbrechung bleibt am Thread gesetzt.
+     * @return Die gelöschten oder nicht mehr vorhandenen Snapshots; die übrigen kann der Aufrufer später erneut übergeben
+     */
+    default List<String> destroySnapshots(List<String> snapshotNames) {
+        List<String> destroyed = new ArrayList<>();
+        for (String snapshotName : snapshotNames) {
+            try {
+                destroySnapshot(snapshotName);
+                destroyed.add(snapshotName);
+            } catch (IOException e) {
+                TransactionLog.warn("Snapshot konnte nicht gelöscht werden: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return destroyed;
+    }
+
+    /**
+     * Listet die vorhandenen Snapshots auf, z.B. um beim Start Snapshots abgestürzter Prozesse zu finden.
+     * Backends, die das nicht können, liefern eine leere Liste.
+     * @return Namen in der Form, die destroySnapshot erwartet
+     */
+    default List<String> listSnapshots() throws IOException, InterruptedException {
+        return Collections.emptyList();
+    }
+
+    /**
+     * Ermittelt in einem Aufruf, welche der Dateien sich seit dem Snapshot verändert haben können, damit der Commit
+     * großer Transaktionen nicht jede Datei einzeln prüfen muss.
+     * Backends ohne eine solche Abfrage (z.B. das LocalSnapshotBackend) liefern null.
+     * @return Die geänderten Dateien aus files sowie alle, über die das Backend nichts aussagen kann;
+     *         oder null, falls das Backend die Abfrage nicht unterstützt
+     */
+    default Set<File> changedSince(String snapshotName, Collection<File> files) throws IOException, InterruptedException {
+        return null;
+    }
+
+    /**
+     * Übergibt dem Backend die Metriken des TransactionManagers, z.B. um die Laufzeit externer Prozesse zu erfassen.
+     * Backends ohne eigene Messpunkte ignorieren den Aufruf.
+     */
+    default void attachMetrics(TransactionMetrics metrics) {
+    }
+
+    /**
+     * Wählt das Backend anhand der System-Property "transactionlib.backend" aus.
+     * "zfs" (Standard) verwendet den ZfsManager für das angegebene Dataset,
+     * "local" sichert das angegebene Verzeichnis in-process mit dem LocalSnapshotBackend.
+     * @param dataset Name des ZFS-Datasets, z.B. "testpool/mydata"
+     * @param localRoot Verzeichnis, das vom lokalen Backend gesichert wird
+     */
+    static SnapshotBackend fromSystemProperties(String dataset, File localRoot) {
+        String backend = System.getProperty("transactionlib.backend", "zfs");
+        switch (backend) {
+            case "zfs":
+                return new ZfsManager(dataset);
+            case "local":
+                return new LocalSnapshotBackend(localRoot);
+            default:
+                throw new IllegalArgumentException("Unbekanntes Snapshot-Backend: " + backend);
+        }
+    }
+}
@@ -0,0 +1,160 @@
+package transactionlib;
+
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+class SnapshotReaper {
+    // Löscht Snapshots, die von keiner aktiven Transaktion mehr benötigt werden, im Hintergrund.
+    // Freigegebene Snapshots werden gesammelt und pro Durchlauf gemeinsam an das Backend übergeben,
+    // damit z.B. ZFS nur einen "zfs destroy"-Aufruf für viele Snapshots ausführen muss.
+    // Über die Aufbewahrungsregeln können die letzten N bzw. alle jüngeren als T Minuten behalten werden.
+
+    private final SnapshotBackend snapshotBackend;
+    // Freigegebene Snapshots in Freigabereihenfolge (älteste zuerst). Geschützt durch "this".
+    private final Deque<ReleasedSnapshot> released = new ArrayDeque<>();
+    private final AtomicLong snapshotsDestroyed = new AtomicLong(0);
+    private volatile int keepLast;
+    private volatile long keepForMillis;
+    private volatile long intervalMillis = 1000;
+    private volatile double reapRatePerSecond;
+    private long lastRunNanos = System.nanoTime();
+    private ScheduledExecutorService scheduler;
+
+    SnapshotReaper(SnapshotBackend snapshotBackend) {
+        this.snapshotBackend = snapshotBackend;
+    }
+
+    /**
+     * Legt die Aufbewahrungsregeln fest.
+     * @param keepLast Anzahl der zuletzt freigegebenen Snapshots, die immer behalten werden
+     * @param keepForMinutes Mindestalter (seit Freigabe) in Minuten, bevor ein Snapshot gelöscht wird
+     */
+    void setRetention(int keepLast, long keepForMinutes) {
+        this.keepLast = keepLast;
+        this.keepForMillis = TimeUnit.MINUTES.toMillis(keepForMinutes);
+    }
+
+    void setIntervalMillis(long intervalMillis) {
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * Übernimmt einen Snapshot, dessen letzte Transaktion beendet ist, und startet bei Bedarf den Hintergrund-Thread.
+     */
+    synchronized void enqueue(String snapshotName) {
+        released.addLast(new ReleasedSnapshot(snapshotName, System.currentTimeMillis()));
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(r -> {
+                Thread thread = new Thread(r, "snapshot-reaper");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::reap, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Ein Durchlauf: löscht alle Snapshots, die nicht mehr unter die Aufbewahrungsregeln fallen, in einem Batch.
+     * Snapshots, die das Backend nicht löschen konnte, werden für den nächsten Durchlauf wieder vorne eingereiht.
+     */
+    void reap() {
+        try {
+            List<ReleasedSnapshot> batch = new ArrayList<>();
+            synchronized (this) {
+                long now = System.currentTimeMillis();
+                while (released.size() > keepLast && now - released.peekFirst().releasedAt >= keepForMillis) {
+                    batch.add(released.pollFirst());
+                }
+            }
+            int destroyed = destroy(batch);
+            snapshotsDestroyed.addAndGet(destroyed);
+            synchronized (this) {
+                long nowNanos = System.nanoTime();
+                double seconds = (nowNanos - lastRunNanos) / 1_000_000_000.0;
+                lastRunNanos = nowNanos;
+                reapRatePerSecond = seconds > 0 ? destroyed / seconds : 0;
+            }
+        } catch (RuntimeException e) {
+            // Eine Ausnahme würde die periodische Ausführung still beenden; der nächste Durchlauf versucht es erneut.
+            TransactionLog.warn("Fehler beim Löschen freigegebener Snapshots: " + e);
+        }
+    }
+
+    /**
+     * Löscht die Snapshots gemeinsam und reiht die nicht gelöschten in ursprünglicher Reihenfolge wieder ein.
+     * @return Anzahl der gelöschten Snapshots
+     */
+    private int destroy(List<ReleasedSnapshot> batch) {
+        if (batch.isEmpty()) {
+            return 0;
+        }
+        List<String> names = new ArrayList<>(batch.size());
+        for (ReleasedSnapshot snapshot : batch) {
+            names.add(snapshot.name);
+        }
+        Set<String> destroyed = Collections.emptySet();
+        try {
+            destroyed = new HashSet<>(snapshotBackend.destroySnapshots(names));
+        } finally {
+            synchronized (this) {
+                for (int i = batch.size() - 1; i >= 0; i--) {
+                    if (!destroyed.contains(batch.get(i).name)) {
+                        released.addFirst(batch.get(i));
+                    }
+                }
+            }
+        }
+        return destroyed.size();
+    }
+
+    /**
+     * @return Anzahl der freigegebenen, aber (noch) nicht gelöschten Snapshots.
+     */
+    synchronized int getPendingCount() {
+        return released.size();
+    }
+
+    long getSnapshotsDestroyed() {
+        return snapshotsDestroyed.get();
+    }
+
+    /**
+     * @return Gelöschte Snapshots pro Sekunde im letzten Durchlauf.
+     */
+    double getReapRatePerSecond() {
+        return reapRatePerSecond;
+    }
+
+    /**
+     * Beendet den Hintergrund-Thread und führt einen letzten Durchlauf nach den Aufbewahrungsregeln aus.
+     */
+    void close() {
+        ScheduledExecutorService toStop;
+        synchronized (this) {
+            toStop = scheduler;
+            scheduler = null;
+        }
+        if (toStop != null) {
+            toStop.shutdown();
+            try {
+                toStop.awaitTermination(intervalMillis + 60_000, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        reap();
+    }
+
+    private static final class ReleasedSnapshot {
+        final String name;
+        final long releasedAt;
+
+        ReleasedSnapshot(String name, long releasedAt) {
+            this.name = name;
+            this.releasedAt = releasedAt;
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package transactionlib;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+class StripedLocks {
+    // Sperrtabelle für die Commit-Phase: Jeder Dateipfad wird über seinen Hash auf einen von N Streifen
+    // (Read-Write-Locks) abgebildet. Transaktionen mit disjunkten Dateimengen landen meist auf verschiedenen
+    // Streifen und committen parallel. Alle Sperren werden in aufsteigender Streifen-Reihenfolge genommen,
+    // damit sich zwei Commits nicht gegenseitig blockieren können.
+
+    private final ReentrantReadWriteLock[] stripes;
+
+    /**
+     * @param stripeCount Anzahl der Streifen; wird auf die nächste Zweierpotenz aufgerundet
+     */
+    StripedLocks(int stripeCount) {
+        int size = Integer.highestOneBit(Math.max(1, stripeCount - 1)) << 1;
+        stripes = new ReentrantReadWriteLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantReadWriteLock();
+        }
+    }
+
+    int stripeFor(File file) {
+        int h = file.toPath().toAbsolutePath().normalize().hashCode();
+        // Verteilt auch die oberen Bits, da ähnliche Pfade sich oft nur am Ende unterscheiden.
+        h ^= (h >>> 16);
+        return h & (stripes.length - 1);
+    }
+
+    /**
+     * Sperrt die Streifen aller Dateien: gelesene Dateien gemeinsam, geschriebene exklusiv.
+     * Liegt eine Datei in beiden Mengen oder teilen sich zwei Dateien einen Streifen, gewinnt die exklusive Sperre.
+     * @return Die genommenen Sperren in Erwerbsreihenfolge, für unlock
+     */
+    List<Lock> lock(Collection<File> readSet, Collection<File> writeSet) {
+        // Streifen-Index -> exklusiv; die TreeMap liefert die feste Reihenfolge.
+        TreeMap<Integer, Boolean> wanted = new TreeMap<>();
+        for (File file : readSet) {
+            wanted.putIfAbsent(stripeFor(file), Boolean.FALSE);
+        }
+        for (File file : writeSet) {
+            wanted.put(stripeFor(file), Boolean.TRUE);
+        }
+        List<Lock> acquired = new ArrayList<>(wanted.size());
+        try {
+            for (Map.Entry<Integer, Boolean> entry : wanted.entrySet()) {
+                ReentrantReadWriteLock stripe = stripes[entry.getKey()];
+                Lock lock = entry.getValue() ? stripe.writeLock() : stripe.readLock();
+                lock.lock();
+                acquired.add(lock);
+            }
+        } catch (RuntimeException | Error e) {
+            unlock(acquired);
+            throw e;
+        }
+        return acquired;
+    }
+
+    /**
+     * Gibt die Sperren in umgekehrter Reihenfolge frei.
+     */
+    static void unlock(List<Lock> locks) {
+        for (int i = locks.size() - 1; i >= 0; i--) {
+            locks.get(i).unlock();
+        }
+    }
+}
@@ -1,99 +1,660 @@
 package transactionlib;
 
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.OverlappingFileLockException;
+import java.nio.channels.SeekableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.security.NoSuchAlgorithmException;
 import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.Lock;
 
 public class Transaction {
     // Diese Klasse repräsentiert eine einzelne Transaktion.
-    // Sie erstellt zu Beginn einen ZFS-Snapshot und einen temporären Arbeitsbereich,
-    // in dem Dateiänderungen vorgenommen werden.
+    // Sie verfügt über einen temporären Arbeitsbereich, in dem Dateiänderungen vorgenommen werden.
+    // Arbeitskopien entstehen erst beim ersten Schreiben (copy-on-first-write); unveränderte Dateien
+    // werden direkt aus dem Live-Dateisystem bzw. dem Snapshot gelesen.
+    // Der Snapshot (ZFS oder lokal, siehe SnapshotBackend) wird erst beim ersten schreibenden Zugriff erstellt,
+    // reine Lesetransaktionen kommen ganz ohne Snapshot aus.
+    // Kleine Arbeitskopien liegen im Speicher (siehe WorkingCopyMemory) und werden beim Commit direkt neben die
+    // Live-Datei geschrieben; erst oberhalb der Grenzen oder für Kanäle wird eine Datei im Arbeitsbereich angelegt.
+    // Große, nur stellenweise geänderte Dateien übernimmt der Commit blockweise an Ort und Stelle (siehe BlockDelta).
     
+    // Endung der temporären Dateien, unter denen Arbeitskopien neben der Live-Datei bereitgestellt werden.
+    private static final String STAGING_SUFFIX = ".tmp";
+
     private String transactionId;
+    // Name des Snapshots, oder null, solange die Transaktion noch nichts geschrieben hat.
     private String snapshotName;
-    private ZfsManager zfsManager;
+    private TransactionManager transactionManager;
+    private SnapshotBackend snapshotBackend;
+    // Cache für Datei-Hashes, damit unveränderte Dateien beim Commit nicht erneut gelesen werden.
+    private FingerprintCache fingerprintCache;
+    private HashAlgorithm hashAlgorithm;
+    private final TransactionMetrics metrics;
     // Speichert die initialen Metadaten (Zeitstempel, Hash) der Dateien, um Konflikte zu erkennen.
+    // Wird auch vom Manager aus anderen Threads gelesen (Benachrichtigung über Änderungen), daher nebenläufig.
     private Map<File, FileMetadata> fileMetadataMap;
-    private boolean active;
-    // Temporärer Arbeitsbereich, in dem alle Dateiänderungen vorgenommen werden.
+    // Version jeder Datei in der Versionstabelle des Managers beim ersten Zugriff.
+    private Map<File, Long> readVersions;
+    private volatile boolean active;
+    // Dateien, die vor dem Erstellen bzw. Übernehmen des Snapshots gelesen wurden. Ihre Änderungen können vor dem
+    // Snapshot liegen und sind dann in dessen Diff nicht sichtbar.
+    private Set<File> filesBeforeSnapshot;
+    // Erste Datei, deren Änderung die Transaktion zum Scheitern verurteilt, oder null.
+    private final AtomicReference<File> doomedBy = new AtomicReference<>();
+    // Leases auf heiße Dateien (Datei -> exklusiv), gehalten bis zum Ende der Transaktion.
+    private final Map<File, Boolean> leases = new HashMap<>();
+    // Lesende Zugriffe auf heiße Dateien exklusiv sperren, z.B. nach einer gescheiterten Aufwertung.
+    private boolean exclusiveLeases;
+    private boolean leaseUpgradeFailed;
+    // Ab der erfolgreichen Prüfung unter den Commit-Sperren kann die Transaktion nicht mehr scheitern.
+    private volatile boolean validated;
+    // Dateien, die während des Commits bereits ins Live-Dateisystem übernommen wurden.
+    private List<File> installedFiles;
+    // Einträge des Commits im Intent-Log des Managers, oder null.
+    private IntentLog.Entry intent;
+    // Temporärer Arbeitsbereich, in dem alle Dateiänderungen vorgenommen werden. Wird erst beim ersten Schreiben angelegt.
     private File workingDir;
+    // Arbeitskopien der geschriebenen Dateien (Live-Datei -> Datei im Arbeitsbereich).
+    private Map<File, File> workingFiles;
+    private int workingFileCounter;
+    // Arbeitskopien im Speicher (Live-Datei -> Inhalt von Position 0 bis Limit); eine Datei steht höchstens
+    // in einer der beiden Tabellen.
+    private Map<File, ByteBuffer> memoryCopies;
+    private final WorkingCopyMemory workingCopyMemory;
+    // Blockhashes des Ausgangsstands großer Arbeitskopien, für die blockweise Übernahme beim Commit.
+    private Map<File, BlockDelta.Base> blockBases;
+    // Dateien, die innerhalb der Transaktion gelöscht wurden.
+    private Set<File> deletedFiles;
+    // Nur angehängte Bytes für Dateien ohne Arbeitskopie; sie werden beim Commit an die Live-Datei angehängt.
+    private Map<File, ByteArrayOutputStream> pendingAppends;
+    // Größe der Live-Dateien vor dem Anhängen beim Commit, um ein Anhängen zurücknehmen zu können.
+    private Map<File, Long> appendOffsets;
+    // Während der Installation per FileLock gegen andere Prozesse gesperrte Dateien, an die angehängt wird.
+    private Map<File, FileChannel> appendLocks;
 
     /**
-     * Startet eine neue Transaktion: erstellt den ZFS-Snapshot und den Arbeitsbereich.
-     * Damit wird zu Beginn ein konsistenter Zustand des Dateisystems gesichert.
+     * Startet eine neue Transaktion und legt den Arbeitsbereich an.
+     * Der Snapshot wird verzögert beim ersten writeFile/deleteFile erstellt (siehe ensureSnapshot).
      */
-    public Transaction(String transactionId, ZfsManager zfsManager) throws Exception {
+    Transaction(String transactionId, TransactionManager transactionManager) {
         this.transactionId = transactionId;
-        this.zfsManager = zfsManager;
-        // Erstelle den ZFS-Snapshot mit einem eindeutigen Namen
-        this.snapshotName = zfsManager.createSnapshot(transactionId);
-        this.fileMetadataMap = new HashMap<>();
+        this.transactionManager = transactionManager;
+        this.snapshotBackend = transactionManager.getSnapshotBackend();
+        this.fingerprintCache = transactionManager.getFingerprintCache();
+        this.hashAlgorithm = transactionManager.getHashAlgorithm();
+        this.metrics = transactionManager.getMetrics();
+        this.fileMetadataMap = new ConcurrentHashMap<>();
+        this.readVersions = new ConcurrentHashMap<>();
+        this.installedFiles = new ArrayList<>();
+        this.workingFiles = new HashMap<>();
+        this.memoryCopies = new HashMap<>();
+        this.blockBases = new HashMap<>();
+        this.workingCopyMemory = transactionManager.getWorkingCopyMemory();
+        this.deletedFiles = new HashSet<>();
+        this.pendingAppends = new HashMap<>();
+        this.appendOffsets = new HashMap<>();
+        this.appendLocks = new HashMap<>();
         this.active = true;
-        // Erstelle einen temporären Arbeitsbereich, in dem alle Dateiänderungen erfolgen
         this.workingDir = new File(System.getProperty("java.io.tmpdir"), "tx_" + transactionId);
-        if (!workingDir.exists()) {
-            workingDir.mkdirs();
-        }
+        metrics.transactionStarted();
     }
 
     public String getTransactionId() {
         return transactionId;
     }
     
+    /**
+     * @return Den Namen des Snapshots, oder null, falls die Transaktion (noch) nichts geschrieben hat.
+     */
     public String getSnapshotName() {
         return snapshotName;
     }
+
+    /**
+     * @return true, solange die Transaktion weder committed noch zurückgesetzt wurde.
+     */
+    public boolean isActive() {
+        return active;
+    }
+
+    /**
+     * @return Die Datei, an der die Transaktion gescheitert ist, oder null.
+     */
+    File getConflictingFile() {
+        return doomedBy.get();
+    }
+
+    /**
+     * @return Alle Dateien, die die Transaktion gelesen, geschrieben oder erweitert hat.
+     */
+    Set<File> getAccessedFiles() {
+        Set<File> files = new HashSet<>(fileMetadataMap.keySet());
+        files.addAll(pendingAppends.keySet());
+        return files;
+    }
+
+    /**
+     * @return true, falls eine gelesene oder geschriebene Datei inzwischen verändert wurde und der Commit
+     *         daher scheitern wird. Lang laufende Transaktionen können das abfragen, um früh abzubrechen.
+     */
+    public boolean isDoomed() {
+        return doomedBy.get() != null;
+    }
+
+    /**
+     * Wird vom Manager aufgerufen, wenn sich eine Datei aus dem Lese-/Schreibbereich der Transaktion geändert hat,
+     * sei es durch einen Commit oder extern. Markiert die Transaktion als gescheitert, wenn sich Version oder
+     * Änderungszeitpunkt gegenüber dem ersten Zugriff unterscheiden.
+     */
+    void checkForConflict(File file) {
+        if (!active || validated || doomedBy.get() != null) {
+            return;
+        }
+        Long readVersion = readVersions.get(file);
+        FileMetadata initialMetadata = fileMetadataMap.get(file);
+        if (readVersion == null || initialMetadata == null) {
+            return;
+        }
+        if (readVersion != transactionManager.getFileVersion(file) || statChanged(initialMetadata, file)) {
+            if (doomedBy.compareAndSet(null, file)) {
+                transactionManager.recordTransactionDoomed();
+            }
+        }
+    }
+
+    /**
+     * @return true, falls sich die Stat-Daten der Datei geändert haben oder nicht gelesen werden können.
+     */
+    private static boolean statChanged(FileMetadata initialMetadata, File file) {
+        try {
+            return !initialMetadata.hasSameStat(file);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Sichert eine heiße Datei beim ersten Zugriff mit einer Lease; die Transaktion kann an ihr dann nicht
+     * mehr scheitern, andere Transaktionen warten stattdessen. Für nicht heiße Dateien passiert nichts,
+     * sie werden wie bisher erst beim Commit validiert. Eine gehaltene gemeinsame Lease wird bei einem
+     * Schreibzugriff aufgewertet; ist das nicht sofort möglich, wird die Transaktion als gescheitert abgebrochen.
+     * @param exclusive true für Schreibzugriffe
+     */
+    private void acquireLease(File file, boolean exclusive) throws IOException {
+        LeaseTable leaseTable = transactionManager.getLeaseTable();
+        Boolean held = leases.get(file);
+        if (held != null) {
+            if (exclusive && !held) {
+                if (!leaseTable.tryUpgrade(file)) {
+                    leaseUpgradeFailed = true;
+                    failWithConflict(file, AbortReason.LEASE);
+                }
+                leases.put(file, Boolean.TRUE);
+            }
+            return;
+        }
+        if (!transactionManager.isHot(file)) {
+            return;
+        }
+        boolean mode = exclusive || exclusiveLeases;
+        try {
+            if (!leaseTable.acquire(file, mode, 0)) {
+                // Warten auf eine Lease zählt als Konkurrenz, damit die Datei heiß bleibt, solange sie umkämpft ist.
+                transactionManager.recordContention(Collections.singleton(file), file);
+                if (!leaseTable.acquire(file, mode, transactionManager.getLeaseTimeoutMillis())) {
+                    failWithConflict(file, AbortReason.LEASE);
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Warten auf Lease unterbrochen: " + file.getPath());
+        }
+        leases.put(file, mode);
+    }
+
+    private void failWithConflict(File file, AbortReason reason) throws IOException {
+        doomedBy.compareAndSet(null, file);
+        checkNotDoomed(reason);
+    }
+
+    void setExclusiveLeases(boolean exclusiveLeases) {
+        this.exclusiveLeases = exclusiveLeases;
+    }
+
+    boolean isLeaseUpgradeFailed() {
+        return leaseUpgradeFailed;
+    }
+
+    /**
+     * Bricht eine gescheiterte Transaktion sofort ab, statt weitere Arbeit bis zum Commit zu verschwenden.
+     * Der Rollback gibt dabei auch den Snapshot frei.
+     */
+    private void checkNotDoomed() throws IOException {
+        checkNotDoomed(AbortReason.DOOMED);
+    }
+
+    private void checkNotDoomed(AbortReason reason) throws IOException {
+        File conflict = doomedBy.get();
+        if (conflict == null) {
+            return;
+        }
+        if (active) {
+            metrics.recordAbort(reason, conflict);
+            transactionManager.recordContention(getAccessedFiles(), conflict);
+            try {
+                rollback();
+            } catch (IOException e) {
+                throw e;
+            } catch (Exception e) {
+                throw new IOException("Rollback fehlgeschlagen: " + transactionId, e);
+            }
+        }
+        throw new TransactionConflictException(transactionId, conflict);
+    }
+
+    /**
+     * Besorgt den Snapshot der Transaktion, falls das noch nicht geschehen ist.
+     * Wird vor dem ersten schreibenden Zugriff aufgerufen, damit ein Rollback möglich ist.
+     * Der Snapshot kann mit gleichzeitig startenden Transaktionen geteilt sein (siehe TransactionManager).
+     */
+    private void ensureSnapshot() throws IOException {
+        if (snapshotName != null) {
+            return;
+        }
+        try {
+            snapshotName = transactionManager.acquireSnapshot(transactionId);
+            filesBeforeSnapshot = new HashSet<>(fileMetadataMap.keySet());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Snapshot-Erstellung unterbrochen: " + transactionId);
+        }
+    }
+
+    /**
+     * Gibt den Snapshot an den TransactionManager zurück bzw. meldet, dass keiner benötigt wurde.
+     */
+    private void finish() {
+        active = false;
+        metrics.transactionFinished();
+        transactionManager.unwatchFiles(this, fileMetadataMap.keySet());
+        for (Map.Entry<File, Boolean> lease : leases.entrySet()) {
+            transactionManager.getLeaseTable().release(lease.getKey(), lease.getValue());
+        }
+        leases.clear();
+        for (ByteBuffer buffer : memoryCopies.values()) {
+            workingCopyMemory.release(buffer);
+        }
+        memoryCopies.clear();
+        if (snapshotName == null) {
+            transactionManager.recordSnapshotAvoided();
+        } else {
+            transactionManager.releaseSnapshot(snapshotName);
+        }
+    }
     
     /**
-     * Ermittelt die Arbeitskopie zu einer gegebenen Datei.
-     * Hier wird vereinfacht davon ausgegangen, dass die Datei im aktuellen Verzeichnis liegt.
+     * Ermittelt die Arbeitskopie zu einer gegebenen Datei und legt dafür bei Bedarf den Arbeitsbereich an.
+     * Der Name enthält eine laufende Nummer, damit gleichnamige Dateien aus verschiedenen Verzeichnissen
+     * nicht kollidieren.
+     */
+    private File getOrCreateWorkingFile(File file) throws IOException {
+        File workingFile = workingFiles.get(file);
+        if (workingFile == null) {
+            Files.createDirectories(workingDir.toPath());
+            workingFile = new File(workingDir, (workingFileCounter++) + "_" + file.getName());
+            workingFiles.put(file, workingFile);
+        }
+        return workingFile;
+    }
+
+    /**
+     * Legt den Inhalt prefix + data als Arbeitskopie im Speicher ab und ersetzt eine vorhandene Arbeitskopie.
+     * @param prefix Bisheriger Inhalt, oder null
+     * @return false, falls Größengrenze oder Budget überschritten würden; die Arbeitskopien bleiben dann unverändert
      */
-    private File getWorkingFile(File file) {
-        return new File(workingDir, file.getName());
+    private boolean storeInMemory(File file, ByteBuffer prefix, byte[] data) throws IOException {
+        long size = (prefix == null ? 0 : prefix.remaining()) + (long) data.length;
+        ByteBuffer buffer = workingCopyMemory.allocate(size);
+        if (buffer == null) {
+            return false;
+        }
+        if (prefix != null) {
+            buffer.put(prefix.duplicate());
+        }
+        buffer.put(data).flip();
+        releaseMemoryCopy(file);
+        memoryCopies.put(file, buffer);
+        File workingFile = workingFiles.remove(file);
+        if (workingFile != null) {
+            Files.deleteIfExists(workingFile.toPath());
+        }
+        return true;
+    }
+
+    /**
+     * Verwirft die Arbeitskopie im Speicher, falls vorhanden, und gibt ihren Speicher frei.
+     */
+    private void releaseMemoryCopy(File file) {
+        ByteBuffer buffer = memoryCopies.remove(file);
+        if (buffer != null) {
+            workingCopyMemory.release(buffer);
+        }
+    }
+
+    /**
+     * Schreibt den Inhalt eines Puffers vollständig in eine Datei, ohne die Position des Puffers zu verändern.
+     */
+    private static void writeBuffer(Path path, ByteBuffer content, OpenOption... options) throws IOException {
+        try (FileChannel channel = FileChannel.open(path, options)) {
+            ByteBuffer buffer = content.duplicate();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
+    private static byte[] toByteArray(ByteBuffer content) {
+        byte[] bytes = new byte[content.remaining()];
+        content.duplicate().get(bytes);
+        return bytes;
+    }
+
+    /**
+     * Speichert die initialen Metadaten und die Version einer Datei beim ersten Zugriff, um später Konflikte zu erkennen.
+     */
+    private FileMetadata recordInitialMetadata(File file) throws IOException, NoSuchAlgorithmException {
+        FileMetadata initialMetadata = fileMetadataMap.get(file);
+        if (initialMetadata == null) {
+            // Die Version wird vor den Metadaten gelesen: Ein Commit erhöht sie erst nach der Installation,
+            // ein dazwischen liegender Commit führt also höchstens zu einem unnötigen Konflikt.
+            readVersions.put(file, transactionManager.getFileVersion(file));
+            initialMetadata = fingerprint(file);
+            fileMetadataMap.put(file, initialMetadata);
+            transactionManager.watchFile(this, file);
+        }
+        return initialMetadata;
     }
     
+    /**
+     * Ermittelt Zeitstempel und Hash einer Datei über den Fingerprint-Cache und erfasst die Dauer.
+     */
+    private FileMetadata fingerprint(File file) throws IOException, NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        FileMetadata metadata = FileMetadata.fromFile(file, fingerprintCache, hashAlgorithm);
+        metrics.record(TransactionPhase.HASH, start);
+        return metadata;
+    }
+
     /**
      * Liest den Inhalt einer Datei innerhalb der Transaktion.
-     * Falls noch keine Arbeitskopie existiert, wird die Live-Datei in den Arbeitsbereich kopiert und
-     * die ursprünglichen Metadaten werden gespeichert, um spätere Konflikte erkennen zu können.
+     * Hat die Transaktion die Datei bereits geschrieben, wird die Arbeitskopie gelesen. Andernfalls wird
+     * ohne Kopie direkt gelesen: aus der Live-Datei, solange sie noch dem beim ersten Zugriff erfassten
+     * Stand entspricht, sonst aus der Snapshot-Ansicht. Ist auch diese nicht passend, wird die Live-Datei
+     * geliefert; der Commit erkennt den Konflikt dann ohnehin.
+     * Noch nicht übernommene appendFile-Daten werden an den gelesenen Inhalt angehängt.
      */
     public String readFile(File file) throws IOException, NoSuchAlgorithmException {
-        File workingFile = getWorkingFile(file);
-        if (!workingFile.exists()) {
-            if (file.exists()) {
-                // Kopiere die aktuelle Live-Datei in den temporären Arbeitsbereich
-                Files.copy(file.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            } else {
-                // Falls die Datei nicht existiert, wird eine leere Datei erzeugt
-                workingFile.createNewFile();
-            }
-            // Speichere die initialen Metadaten, um später Konflikte zu erkennen
-            FileMetadata initialMetadata = FileMetadata.fromFile(file);
-            fileMetadataMap.put(file, initialMetadata);
+        checkNotDoomed();
+        acquireLease(file, false);
+        if (deletedFiles.contains(file)) {
+            return "";
+        }
+        ByteBuffer memoryCopy = memoryCopies.get(file);
+        if (memoryCopy != null) {
+            return StandardCharsets.UTF_8.decode(memoryCopy.duplicate()).toString();
+        }
+        File workingFile = workingFiles.get(file);
+        if (workingFile != null) {
+            return new String(Files.readAllBytes(workingFile.toPath()), StandardCharsets.UTF_8);
+        }
+        String content = readUnmodifiedFile(file);
+        ByteArrayOutputStream appended = pendingAppends.get(file);
+        return appended == null ? content : content + appended.toString(StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Liest eine Datei, für die die Transaktion keine Arbeitskopie hat, und nimmt sie in die Lesemenge auf.
+     */
+    private String readUnmodifiedFile(File file) throws IOException, NoSuchAlgorithmException {
+        File source = resolveReadSource(file);
+        if (!source.exists()) {
+            return "";
+        }
+        return new String(Files.readAllBytes(source.toPath()), StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Bestimmt, woher eine Datei ohne Arbeitskopie gelesen wird, und nimmt sie in die Lesemenge auf:
+     * die Live-Datei, solange sie dem erfassten Stand entspricht, sonst die passende Snapshot-Ansicht.
+     */
+    private File resolveReadSource(File file) throws IOException, NoSuchAlgorithmException {
+        boolean firstAccess = !fileMetadataMap.containsKey(file);
+        FileMetadata initialMetadata = recordInitialMetadata(file);
+        if (!firstAccess) {
+            FileMetadata currentMetadata = fingerprint(file);
+            if (!initialMetadata.sameHash(currentMetadata)) {
+                File savedFile = readableSnapshotCopy(file, initialMetadata);
+                if (savedFile != null) {
+                    return savedFile;
+                }
+            }
+        }
+        return file;
+    }
+
+    /**
+     * Stellt sicher, dass eine Arbeitskopie mit dem aktuellen Transaktionsstand der Datei existiert.
+     * Wird für Teilschreibzugriffe benötigt; die Kopie erfolgt im Kernel über Files.copy, nicht über den Heap.
+     * Ausstehende appendFile-Daten werden dabei in die Arbeitskopie übernommen, eine Arbeitskopie im Speicher
+     * wird in den Arbeitsbereich ausgelagert.
+     */
+    private File ensureWorkingCopy(File file) throws IOException, NoSuchAlgorithmException {
+        File workingFile = workingFiles.get(file);
+        if (workingFile != null) {
+            return workingFile;
+        }
+        ByteBuffer memoryCopy = memoryCopies.get(file);
+        if (memoryCopy != null) {
+            workingFile = getOrCreateWorkingFile(file);
+            writeBuffer(workingFile.toPath(), memoryCopy, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            releaseMemoryCopy(file);
+            return workingFile;
+        }
+        File source = deletedFiles.contains(file) ? null : resolveReadSource(file);
+        workingFile = getOrCreateWorkingFile(file);
+        if (source != null && source.exists()) {
+            long start = System.nanoTime();
+            Files.copy(source.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            metrics.record(TransactionPhase.WORKING_COPY, start);
+            long size = Files.size(workingFile.toPath());
+            metrics.recordBytesCopied(size);
+            // Ohne Intent-Log oder bei geteiltem Inode wird beim Commit ohnehin vollständig bereitgestellt.
+            if (size >= BlockDelta.MIN_FILE_SIZE) {
+                if (transactionManager.getIntentLog() != null && BlockDelta.hasOwnInode(file.toPath())) {
+                    long hashStart = System.nanoTime();
+                    blockBases.put(file, BlockDelta.Base.of(workingFile.toPath()));
+                    metrics.record(TransactionPhase.HASH, hashStart);
+                } else {
+                    metrics.recordBlockDeltaFallback();
+                }
+            }
+        } else {
+            Files.write(workingFile.toPath(), new byte[0]);
+        }
+        ByteArrayOutputStream appended = pendingAppends.remove(file);
+        if (appended != null) {
+            Files.write(workingFile.toPath(), appended.toByteArray(), StandardOpenOption.APPEND);
         }
-        // Liefere den Inhalt der Arbeitskopie zurück
-        return new String(Files.readAllBytes(workingFile.toPath()), StandardCharsets.UTF_8);
+        deletedFiles.remove(file);
+        return workingFile;
+    }
+
+    /**
+     * Öffnet einen InputStream auf den Transaktionsstand der Datei, ohne sie vollständig in den Heap zu laden.
+     * @throws NoSuchFileException falls die Datei nicht existiert oder in der Transaktion gelöscht wurde
+     */
+    public InputStream openInputStream(File file) throws IOException, NoSuchAlgorithmException {
+        checkNotDoomed();
+        acquireLease(file, false);
+        if (deletedFiles.contains(file)) {
+            throw new NoSuchFileException(file.getPath());
+        }
+        ByteBuffer memoryCopy = memoryCopies.get(file);
+        if (memoryCopy != null) {
+            return new ByteArrayInputStream(toByteArray(memoryCopy));
+        }
+        File workingFile = workingFiles.get(file);
+        if (workingFile != null) {
+            return Files.newInputStream(workingFile.toPath());
+        }
+        InputStream in = Files.newInputStream(resolveReadSource(file).toPath());
+        ByteArrayOutputStream appended = pendingAppends.get(file);
+        return appended == null ? in : new SequenceInputStream(in, new ByteArrayInputStream(appended.toByteArray()));
+    }
+
+    /**
+     * Öffnet einen OutputStream, der den Inhalt der Datei innerhalb der Transaktion vollständig ersetzt.
+     * Die Daten fließen direkt in die Arbeitskopie; der Heap-Bedarf ist unabhängig von der Dateigröße.
+     */
+    public OutputStream openOutputStream(File file) throws IOException, NoSuchAlgorithmException {
+        checkNotDoomed();
+        acquireLease(file, true);
+        ensureSnapshot();
+        recordInitialMetadata(file);
+        releaseMemoryCopy(file);
+        File workingFile = getOrCreateWorkingFile(file);
+        deletedFiles.remove(file);
+        pendingAppends.remove(file);
+        return Files.newOutputStream(workingFile.toPath());
+    }
+
+    /**
+     * Öffnet einen Kanal mit wahlfreiem Zugriff auf den Transaktionsstand der Datei.
+     * Ohne WRITE/APPEND wird nur gelesen (bei ausstehenden Anhängen oder einer Arbeitskopie im Speicher über
+     * eine Arbeitskopie im Arbeitsbereich);
+     * mit WRITE/APPEND wird beim ersten Schreibzugriff eine Arbeitskopie angelegt, auf die der Kanal zeigt.
+     */
+    public SeekableByteChannel openChannel(File file, OpenOption... options) throws IOException, NoSuchAlgorithmException {
+        checkNotDoomed();
+        Set<OpenOption> optionSet = new HashSet<>(Arrays.asList(options));
+        boolean writing = optionSet.contains(StandardOpenOption.WRITE) || optionSet.contains(StandardOpenOption.APPEND);
+        acquireLease(file, writing);
+        if (writing) {
+            ensureSnapshot();
+            return FileChannel.open(ensureWorkingCopy(file).toPath(), optionSet);
+        }
+        if (deletedFiles.contains(file)) {
+            throw new NoSuchFileException(file.getPath());
+        }
+        File workingFile = pendingAppends.containsKey(file) || memoryCopies.containsKey(file)
+                ? ensureWorkingCopy(file) : workingFiles.get(file);
+        File source = workingFile != null ? workingFile : resolveReadSource(file);
+        return FileChannel.open(source.toPath(), StandardOpenOption.READ);
+    }
+
+    /**
+     * Liest einen Bytebereich der Datei.
+     * @return Die gelesenen Bytes; weniger als length, wenn das Dateiende erreicht wird
+     */
+    public byte[] readBytes(File file, long position, int length) throws IOException, NoSuchAlgorithmException {
+        try (SeekableByteChannel channel = openChannel(file)) {
+            channel.position(position);
+            ByteBuffer buffer = ByteBuffer.allocate(length);
+            while (buffer.hasRemaining() && channel.read(buffer) > 0) {
+                // weiterlesen, bis der Bereich gefüllt oder das Dateiende erreicht ist
+            }
+            return Arrays.copyOf(buffer.array(), buffer.position());
+        }
+    }
+
+    /**
+     * Schreibt Bytes an eine Position der Datei; der übrige Inhalt bleibt erhalten.
+     */
+    public void writeBytes(File file, long position, ByteBuffer data) throws IOException, NoSuchAlgorithmException {
+        try (SeekableByteChannel channel = openChannel(file, StandardOpenOption.WRITE)) {
+            channel.position(position);
+            while (data.hasRemaining()) {
+                channel.write(data);
+            }
+        }
+    }
+
+    /**
+     * Sucht die Datei in der Snapshot-Ansicht, sofern ihr Inhalt dort dem erwarteten Stand entspricht.
+     * @return Die Datei im Snapshot, oder null, falls es keinen passenden Snapshot-Stand gibt.
+     */
+    private File readableSnapshotCopy(File file, FileMetadata expected) throws IOException, NoSuchAlgorithmException {
+        if (snapshotName == null) {
+            return null;
+        }
+        try {
+            File savedFile = snapshotBackend.resolveInSnapshot(snapshotName, file);
+            if (savedFile != null && expected.sameHash(fingerprint(savedFile))) {
+                return savedFile;
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        return null;
     }
     
     /**
      * Schreibt den Inhalt in die Arbeitskopie der Datei.
      * So erfolgen alle Schreibvorgänge isoliert im temporären Arbeitsbereich, bis der Commit erfolgt.
+     * Da der Inhalt vollständig ersetzt wird, muss die Live-Datei dafür nicht kopiert werden.
+     * Kleine Inhalte bleiben im Speicher, nur oberhalb der Grenzen von WorkingCopyMemory entsteht eine Datei.
      */
     public void writeFile(File file, String content) throws IOException, NoSuchAlgorithmException {
-        File workingFile = getWorkingFile(file);
-        if (!workingFile.exists()) {
-            if (file.exists()) {
-                Files.copy(file.toPath(), workingFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            } else {
-                workingFile.createNewFile();
-            }
-            // Speichere initiale Metadaten, falls sie noch nicht erfasst wurden
-            fileMetadataMap.put(file, FileMetadata.fromFile(file));
+        checkNotDoomed();
+        acquireLease(file, true);
+        ensureSnapshot();
+        recordInitialMetadata(file);
+        deletedFiles.remove(file);
+        pendingAppends.remove(file);
+        byte[] bytes = content.getBytes(StandardCharsets.UTF_8);
+        if (storeInMemory(file, null, bytes)) {
+            return;
         }
+        releaseMemoryCopy(file);
         // Schreibe den neuen Inhalt in die Arbeitskopie
-        Files.write(workingFile.toPath(), content.getBytes(StandardCharsets.UTF_8));
+        Files.write(getOrCreateWorkingFile(file).toPath(), bytes);
+    }
+
+    /**
+     * Hängt Daten an eine Datei an, ohne sie zu lesen oder zu kopieren.
+     * Es wird nur das Delta gespeichert und beim Commit an das aktuelle Ende der Live-Datei geschrieben.
+     * Da Anhängen kommutiert, verursachen zwei Transaktionen, die dieselbe Datei nur erweitern, keinen Konflikt.
+     * Hat die Transaktion die Datei bereits geschrieben oder gelöscht, wird die Arbeitskopie erweitert.
+     */
+    public void appendFile(File file, byte[] data) throws IOException, NoSuchAlgorithmException {
+        checkNotDoomed();
+        // Blindes Anhängen braucht erst beim Commit eine Lease; wurde die Datei schon gelesen, wird jetzt aufgewertet.
+        if (leases.containsKey(file)) {
+            acquireLease(file, true);
+        }
+        ensureSnapshot();
+        if (memoryCopies.containsKey(file) || deletedFiles.contains(file)) {
+            if (storeInMemory(file, memoryCopies.get(file), data)) {
+                deletedFiles.remove(file);
+                return;
+            }
+            // Zu groß für den Speicher: Die Arbeitskopie wird ausgelagert bzw. leer angelegt und dort erweitert.
+            Files.write(ensureWorkingCopy(file).toPath(), data, StandardOpenOption.APPEND);
+            return;
+        }
+        if (workingFiles.containsKey(file)) {
+            Files.write(workingFiles.get(file).toPath(), data, StandardOpenOption.APPEND);
+            return;
+        }
+        pendingAppends.computeIfAbsent(file, f -> new ByteArrayOutputStream()).write(data);
     }
     
     /**
@@ -101,14 +662,18 @@ public class Transaction {
      * Dadurch wird eine Löschoperation innerhalb der Transaktion realisiert.
      */
     public void deleteFile(File file) throws IOException, NoSuchAlgorithmException {
-        File workingFile = getWorkingFile(file);
-        if (workingFile.exists()) {
-            workingFile.delete();
-        }
+        checkNotDoomed();
+        acquireLease(file, true);
+        ensureSnapshot();
         // Speichere initiale Metadaten, falls sie noch nicht vorhanden sind, um Konflikte erkennen zu können
-        if (!fileMetadataMap.containsKey(file)) {
-            fileMetadataMap.put(file, FileMetadata.fromFile(file));
+        recordInitialMetadata(file);
+        File workingFile = workingFiles.remove(file);
+        if (workingFile != null) {
+            Files.deleteIfExists(workingFile.toPath());
         }
+        releaseMemoryCopy(file);
+        pendingAppends.remove(file);
+        deletedFiles.add(file);
     }
     
     /**
@@ -122,56 +687,686 @@ public class Transaction {
         if (!active) {
             throw new IllegalStateException("Transaktion ist nicht mehr aktiv.");
         }
-        // Konfliktprüfung: Vergleiche für jede bearbeitete Datei die gespeicherten Metadaten mit den aktuellen Metadaten.
-        for (Map.Entry<File, FileMetadata> entry : fileMetadataMap.entrySet()) {
-            File liveFile = entry.getKey();
-            FileMetadata initialMetadata = entry.getValue();
-            FileMetadata currentMetadata = FileMetadata.fromFile(liveFile);
-            if (initialMetadata.getLastModified() != currentMetadata.getLastModified() ||
-                !initialMetadata.getFileHash().equals(currentMetadata.getFileHash())) {
-                // Falls ein Unterschied festgestellt wird, liegt ein Konflikt vor – führe Rollback aus.
-                System.out.println("Konflikt erkannt für Datei: " + liveFile.getAbsolutePath());
-                rollback();
-                return false;
+        long commitStart = System.nanoTime();
+        // Erste Konfliktprüfung ohne Sperren, damit bei einem offensichtlichen Konflikt nichts bereitgestellt wird.
+        // Wurde die Transaktion bereits als gescheitert gemeldet, entfällt auch diese Prüfung.
+        try {
+            // Blind angehängte heiße Dateien werden erst jetzt gesperrt, damit Leser mit Lease nicht scheitern.
+            for (File file : pendingAppends.keySet()) {
+                acquireLease(file, true);
             }
+        } catch (TransactionConflictException e) {
+            return false;
+        }
+        File conflict = doomedBy.get();
+        AbortReason reason = AbortReason.DOOMED;
+        if (conflict == null) {
+            conflict = findConflict();
+            reason = AbortReason.CONFLICT;
         }
-        // Falls keine Konflikte auftreten, werden die Änderungen aus dem Arbeitsbereich in das Live-Dateisystem übernommen.
-        for (File liveFile : fileMetadataMap.keySet()) {
-            File workingFile = getWorkingFile(liveFile);
-            if (workingFile.exists()) {
-                Files.copy(workingFile.toPath(), liveFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
-            } else {
-                // Wenn die Arbeitskopie gelöscht wurde, lösche auch die Live-Datei.
-                Files.deleteIfExists(liveFile.toPath());
+        if (conflict != null) {
+            return abortWithConflict(conflict, reason, Collections.emptyList());
+        }
+        // Jede Arbeitskopie wird zuerst als temporäre Datei neben der Live-Datei bereitgestellt und erst dann
+        // per atomarem Rename installiert; ein Absturz hinterlässt so nie eine halb geschriebene Live-Datei.
+        // Große Dateien mit wenigen geänderten Blöcken werden stattdessen blockweise übernommen; die Blöcke stehen
+        // im Intent-Log und werden nach einem Absturz nachgespielt.
+        // Das Kopieren, Hashen und das fsync laufen noch ohne Sperren und damit parallel zu anderen Commits.
+        Map<File, Path> stagedFiles = new LinkedHashMap<>();
+        Map<File, BlockDelta> blockDeltas = new LinkedHashMap<>();
+        boolean durable = transactionManager.isDurableCommits();
+        IntentLog intentLog = transactionManager.getIntentLog();
+        try {
+            // Die temporären Dateien werden vorher im Intent-Log vermerkt, damit sie nach einem Absturz auffindbar sind.
+            // Angehängte Dateien werden nur bereitgestellt, wenn sie ihren Inode teilen (siehe stageSharedAppends).
+            if (intentLog != null && (!workingFiles.isEmpty() || !memoryCopies.isEmpty() || !pendingAppends.isEmpty())) {
+                List<Path> stagingPaths = new ArrayList<>();
+                for (File liveFile : workingFiles.keySet()) {
+                    stagingPaths.add(stagingPath(liveFile));
+                }
+                for (File liveFile : memoryCopies.keySet()) {
+                    stagingPaths.add(stagingPath(liveFile));
+                }
+                for (File liveFile : pendingAppends.keySet()) {
+                    stagingPaths.add(stagingPath(liveFile));
+                }
+                intent = intentLog.prepare(transactionId, stagingPaths);
+            }
+            // Nur gelesene Dateien haben keine Arbeitskopie und bleiben unverändert.
+            stageAll(stagedFiles, blockDeltas);
+            if (durable) {
+                transactionManager.getGroupCommit().sync(stagedFiles.values(), Collections.emptyList());
             }
+        } catch (Exception e) {
+            // Auch RuntimeExceptions (z.B. aus ParallelIo) räumen auf, sonst blieben temporäre Dateien und
+            // der PREPARE-Eintrag liegen und die Transaktion aktiv.
+            TransactionLog.warn("Fehler beim Bereitstellen der Änderungen: " + e);
+            metrics.recordAbort(AbortReason.ERROR, null);
+            deleteStagedFiles(stagedFiles.values());
+            rollback();
+            finishIntent(false);
+            throw e;
         }
-        active = false;
-        System.out.println("Transaktion " + transactionId + " erfolgreich committed.");
-        // Optional: Hier könnte man den Snapshot löschen, wenn er nicht mehr benötigt wird.
+        // Prüfung und Installation laufen unter den Sperren aller beteiligten Dateien: gelesene Dateien
+        // gemeinsam, geschriebene exklusiv. So kann keine andere Transaktion dazwischen installieren.
+        Set<File> writeSet = new HashSet<>(workingFiles.keySet());
+        writeSet.addAll(memoryCopies.keySet());
+        writeSet.addAll(deletedFiles);
+        writeSet.addAll(pendingAppends.keySet());
+        List<Lock> locks = transactionManager.getCommitLocks().lock(fileMetadataMap.keySet(), writeSet);
+        try {
+            conflict = findConflict();
+            if (conflict != null) {
+                return abortWithConflict(conflict, AbortReason.CONFLICT, stagedFiles.values());
+            }
+            validated = true;
+            long installStart = System.nanoTime();
+            try {
+                stageChangedBlockFiles(blockDeltas, stagedFiles, durable);
+                stageSharedAppends(stagedFiles, durable);
+                // Commit-Punkt: Sobald der Eintrag dauerhaft ist, wird der Commit nach einem Absturz zu Ende installiert.
+                if (intentLog != null) {
+                    intent = intentLog.commit(intent, transactionId, redoActions(stagedFiles, blockDeltas));
+                    if (durable) {
+                        transactionManager.getGroupCommit().sync(
+                                Collections.singleton(intent.getCommitSegment()), Collections.emptyList());
+                    }
+                }
+                Set<Path> changedDirectories = new LinkedHashSet<>();
+                List<Path> writtenFiles = new ArrayList<>();
+                for (Map.Entry<File, Path> entry : stagedFiles.entrySet()) {
+                    Path livePath = entry.getKey().toPath();
+                    installedFiles.add(entry.getKey());
+                    Files.move(entry.getValue(), livePath, StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                    changedDirectories.add(parentDirectory(livePath));
+                }
+                for (Map.Entry<File, BlockDelta> entry : blockDeltas.entrySet()) {
+                    installedFiles.add(entry.getKey());
+                    entry.getValue().applyTo(entry.getKey().toPath());
+                    metrics.recordBytesCopied(entry.getValue().getChangedBytes());
+                    writtenFiles.add(entry.getKey().toPath());
+                }
+                for (File liveFile : deletedFiles) {
+                    // Wenn die Datei in der Transaktion gelöscht wurde, lösche auch die Live-Datei.
+                    installedFiles.add(liveFile);
+                    if (Files.deleteIfExists(liveFile.toPath())) {
+                        changedDirectories.add(parentDirectory(liveFile.toPath()));
+                    }
+                }
+                for (Map.Entry<File, ByteArrayOutputStream> entry : pendingAppends.entrySet()) {
+                    if (stagedFiles.containsKey(entry.getKey())) {
+                        continue;
+                    }
+                    installedFiles.add(entry.getKey());
+                    appendToLiveFile(entry.getKey(), entry.getValue().toByteArray());
+                    writtenFiles.add(entry.getKey().toPath());
+                    changedDirectories.add(parentDirectory(entry.getKey().toPath()));
+                }
+                if (durable) {
+                    transactionManager.getGroupCommit().sync(writtenFiles, changedDirectories);
+                }
+                finishIntent(true);
+                metrics.record(TransactionPhase.INSTALL, installStart);
+            } catch (Exception e) {
+                // Bereits übernommene Dateien werden wiederhergestellt, damit kein halber Commit sichtbar bleibt.
+                TransactionLog.warn("Fehler beim Übernehmen der Änderungen: " + e);
+                metrics.recordAbort(AbortReason.ERROR, null);
+                deleteStagedFiles(stagedFiles.values());
+                rollback();
+                finishIntent(false);
+                throw e;
+            }
+            transactionManager.recordCommit();
+        } finally {
+            // Auch nach einem fehlgeschlagenen und zurückgesetzten Commit, da sich die Dateien zwischenzeitlich geändert haben.
+            transactionManager.bumpFileVersions(installedFiles, this);
+            releaseAppendLocks();
+            StripedLocks.unlock(locks);
+        }
+        finish();
+        transactionManager.recordContention(getAccessedFiles(), null);
+        TransactionLog.info("Transaktion " + transactionId + " erfolgreich committed.");
+        deleteDirectoryRecursively(workingDir);
+        metrics.record(TransactionPhase.COMMIT, commitStart);
         return true;
     }
+
+    /**
+     * Konfliktprüfung: Vergleicht für jede bearbeitete Datei die gelesene Version mit der aktuellen Version
+     * in der Versionstabelle. Je nach ExternalChangeDetection werden zusätzlich Zeitstempel und Hash
+     * geprüft, um Änderungen außerhalb der Bibliothek zu erkennen. Bei großen Transaktionen werden diese
+     * Prüfungen auf die Dateien beschränkt, die das Snapshot-Backend als seit dem Snapshot geändert meldet,
+     * und bei vielen Dateien parallel ausgeführt (siehe ParallelIo).
+     * @return Eine veränderte Datei (bei Versionsänderungen die erste), oder null, falls kein Konflikt vorliegt
+     */
+    private File findConflict() throws IOException, NoSuchAlgorithmException {
+        long start = System.nanoTime();
+        try {
+            ExternalChangeDetection detection = transactionManager.getExternalChangeDetection();
+            for (File liveFile : fileMetadataMap.keySet()) {
+                if (readVersions.get(liveFile) != transactionManager.getFileVersion(liveFile)) {
+                    return liveFile;
+                }
+            }
+            if (detection == ExternalChangeDetection.NONE) {
+                return null;
+            }
+            Set<File> candidates = changedSinceSnapshot();
+            List<File> filesToCheck = new ArrayList<>();
+            for (File liveFile : fileMetadataMap.keySet()) {
+                if (candidates == null || candidates.contains(liveFile)) {
+                    filesToCheck.add(liveFile);
+                }
+            }
+            AtomicReference<File> changed = new AtomicReference<>();
+            transactionManager.getParallelIo().forEach(filesToCheck, liveFile -> {
+                if (changed.get() == null && changedExternally(liveFile, detection)) {
+                    changed.compareAndSet(null, liveFile);
+                }
+            });
+            return changed.get();
+        } finally {
+            metrics.record(TransactionPhase.VALIDATE, start);
+        }
+    }
+
+    /**
+     * Prüft je nach ExternalChangeDetection die Stat-Daten bzw. zusätzlich den Hash der Live-Datei gegen den
+     * beim ersten Zugriff erfassten Stand. War die mtime beim Erfassen zu jung, um eine Änderung im selben
+     * Zeitstempel-Takt auszuschließen, wird auch bei MTIME der Hash verglichen.
+     */
+    private boolean changedExternally(File liveFile, ExternalChangeDetection detection)
+            throws IOException, NoSuchAlgorithmException {
+        FileMetadata initialMetadata = fileMetadataMap.get(liveFile);
+        if (detection == ExternalChangeDetection.MTIME && !initialMetadata.isRacy()) {
+            return !initialMetadata.hasSameStat(liveFile);
+        }
+        FileMetadata currentMetadata = fingerprint(liveFile);
+        return !initialMetadata.sameStat(currentMetadata) || !initialMetadata.sameHash(currentMetadata);
+    }
+
+    /**
+     * Fragt das Snapshot-Backend, welche Dateien der Transaktion sich seit dem Snapshot geändert haben können.
+     * Dateien, die schon vor dem Snapshot gelesen wurden, werden immer einzeln geprüft.
+     * @return Die einzeln zu prüfenden Dateien, oder null, falls alle Dateien einzeln geprüft werden müssen
+     */
+    private Set<File> changedSinceSnapshot() {
+        int threshold = transactionManager.getChangedFileQueryThreshold();
+        if (snapshotName == null || threshold <= 0 || fileMetadataMap.size() < threshold) {
+            return null;
+        }
+        try {
+            Set<File> changed = snapshotBackend.changedSince(snapshotName, fileMetadataMap.keySet());
+            if (changed == null) {
+                return null;
+            }
+            Set<File> candidates = new HashSet<>(changed);
+            candidates.addAll(filesBeforeSnapshot);
+            return candidates;
+        } catch (IOException e) {
+            transactionManager.disableChangedFileQuery(e);
+            return null;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        }
+    }
+
+    /**
+     * Falls ein Unterschied festgestellt wurde, liegt ein Konflikt vor – führt Rollback aus.
+     */
+    private boolean abortWithConflict(File liveFile, AbortReason reason, Collection<Path> stagedFiles) throws Exception {
+        TransactionLog.info("Konflikt erkannt für Datei: " + liveFile.getAbsolutePath());
+        doomedBy.compareAndSet(null, liveFile);
+        metrics.recordAbort(reason, liveFile);
+        transactionManager.recordContention(getAccessedFiles(), liveFile);
+        deleteStagedFiles(stagedFiles);
+        rollback();
+        finishIntent(false);
+        return false;
+    }
+
+    /**
+     * Beschreibt den Commit für das Intent-Log so, dass er sich nach einem Absturz wiederholen lässt.
+     * Wird unter den Commit-Sperren aufgerufen; Zustand und Länge der Live-Dateien sind daher stabil und werden
+     * vor jedem Rename, Löschen und Anhängen festgehalten, damit die Wiederherstellung keine neuere Version
+     * überschreibt.
+     */
+    private List<IntentLog.Action> redoActions(Map<File, Path> stagedFiles, Map<File, BlockDelta> blockDeltas)
+            throws IOException {
+        List<IntentLog.Action> actions = new ArrayList<>();
+        for (Map.Entry<File, Path> entry : stagedFiles.entrySet()) {
+            actions.add(IntentLog.Action.expect(entry.getKey().toPath(), false));
+            actions.add(IntentLog.Action.rename(entry.getValue(), entry.getKey().toPath()));
+        }
+        for (Map.Entry<File, BlockDelta> entry : blockDeltas.entrySet()) {
+            actions.addAll(entry.getValue().redoActions(entry.getKey().toPath()));
+        }
+        for (File liveFile : deletedFiles) {
+            actions.add(IntentLog.Action.expect(liveFile.toPath(), false));
+            actions.add(IntentLog.Action.delete(liveFile.toPath()));
+        }
+        for (Map.Entry<File, ByteArrayOutputStream> entry : pendingAppends.entrySet()) {
+            if (stagedFiles.containsKey(entry.getKey())) {
+                continue;
+            }
+            Path livePath = entry.getKey().toPath();
+            IntentLog.Action expect = IntentLog.Action.expect(livePath, true);
+            actions.add(expect);
+            actions.add(IntentLog.Action.append(livePath, Math.max(0, expect.expectedSize()), entry.getValue().toByteArray()));
+        }
+        return actions;
+    }
+
+    /**
+     * Schließt die Einträge im Intent-Log ab; nach dem Commit-Punkt wird das noch unter den Commit-Sperren
+     * aufgerufen. Bei einem Abbruch immer erst nach dem Rollback, damit das Log nie "abgebrochen" meldet, während
+     * Live-Dateien noch halb wiederhergestellt sind. Ein Fehler dabei wird nur gemeldet, da der Commit zu diesem
+     * Zeitpunkt bereits vollständig installiert bzw. zurückgenommen ist.
+     */
+    private void finishIntent(boolean committed) {
+        IntentLog intentLog = transactionManager.getIntentLog();
+        if (intentLog == null || intent == null) {
+            return;
+        }
+        try {
+            intentLog.finish(intent, committed,
+                    transactionManager.isDurableCommits() ? transactionManager.getGroupCommit() : null);
+        } catch (IOException e) {
+            TransactionLog.warn("Intent-Log konnte nicht abgeschlossen werden: " + e.getMessage());
+        }
+        intent = null;
+    }
+
+    /**
+     * Stellt alle Arbeitskopien bereit bzw. ermittelt ihre geänderten Blöcke, bei vielen Dateien parallel
+     * (siehe ParallelIo). Auch bei einem Fehler enthalten stagedFiles danach alle bereits angelegten temporären
+     * Dateien, damit der Aufrufer sie entfernen kann. Die Reihenfolge entspricht der der Arbeitskopien.
+     */
+    private void stageAll(Map<File, Path> stagedFiles, Map<File, BlockDelta> blockDeltas)
+            throws IOException, NoSuchAlgorithmException {
+        List<File> liveFiles = new ArrayList<>(workingFiles.keySet());
+        liveFiles.addAll(memoryCopies.keySet());
+        Map<File, Path> staged = new ConcurrentHashMap<>();
+        Map<File, BlockDelta> deltas = new ConcurrentHashMap<>();
+        try {
+            transactionManager.getParallelIo().forEach(liveFiles, liveFile -> {
+                ByteBuffer memoryCopy = memoryCopies.get(liveFile);
+                if (memoryCopy != null) {
+                    staged.put(liveFile, stageMemoryCopy(memoryCopy, liveFile));
+                    return;
+                }
+                File workingFile = workingFiles.get(liveFile);
+                BlockDelta delta = computeBlockDelta(liveFile, workingFile);
+                if (delta != null) {
+                    deltas.put(liveFile, delta);
+                } else {
+                    staged.put(liveFile, stageWorkingFile(workingFile, liveFile));
+                }
+            });
+        } finally {
+            for (File liveFile : liveFiles) {
+                if (staged.containsKey(liveFile)) {
+                    stagedFiles.put(liveFile, staged.get(liveFile));
+                } else if (deltas.containsKey(liveFile)) {
+                    blockDeltas.put(liveFile, deltas.get(liveFile));
+                }
+            }
+        }
+    }
+
+    /**
+     * Ermittelt die geänderten Blöcke einer Arbeitskopie, sofern beim Anlegen Blockhashes erfasst wurden.
+     * Ohne dauerhafte Commits ist der COMMIT-Eintrag nach einem Absturz nicht sicher vorhanden; eine halb
+     * übernommene Live-Datei ließe sich dann nicht reparieren, daher wird in diesem Fall immer bereitgestellt.
+     * @return Das Delta, oder null, falls die Datei vollständig bereitgestellt werden muss
+     */
+    private BlockDelta computeBlockDelta(File liveFile, File workingFile) throws IOException {
+        BlockDelta.Base base = blockBases.get(liveFile);
+        if (base == null) {
+            return null;
+        }
+        if (transactionManager.getIntentLog() == null || !transactionManager.isDurableCommits()) {
+            metrics.recordBlockDeltaFallback();
+            return null;
+        }
+        long start = System.nanoTime();
+        BlockDelta delta = BlockDelta.compute(workingFile.toPath(), base);
+        metrics.record(TransactionPhase.HASH, start);
+        if (delta == null) {
+            return null;
+        }
+        if (!delta.canApplyInPlace(liveFile.toPath())) {
+            metrics.recordBlockDeltaFallback();
+            return null;
+        }
+        return delta;
+    }
+
+    /**
+     * Prüft unter den Commit-Sperren, ob die blockweise zu übernehmenden Live-Dateien noch passen. Andernfalls
+     * (z.B. inzwischen per Hardlink gesichert, oder dauerhafte Commits wurden inzwischen abgeschaltet) wird die
+     * Arbeitskopie jetzt doch vollständig bereitgestellt; ihr Pfad steht bereits im PREPARE-Eintrag.
+     */
+    private void stageChangedBlockFiles(Map<File, BlockDelta> blockDeltas, Map<File, Path> stagedFiles,
+                                        boolean durable) throws IOException {
+        List<Path> lateStaged = new ArrayList<>();
+        Iterator<Map.Entry<File, BlockDelta>> iterator = blockDeltas.entrySet().iterator();
+        while (iterator.hasNext()) {
+            Map.Entry<File, BlockDelta> entry = iterator.next();
+            if (!durable || !entry.getValue().canApplyInPlace(entry.getKey().toPath())) {
+                metrics.recordBlockDeltaFallback();
+                Path staged = stageWorkingFile(workingFiles.get(entry.getKey()), entry.getKey());
+                stagedFiles.put(entry.getKey(), staged);
+                lateStaged.add(staged);
+                iterator.remove();
+            }
+        }
+        if (durable) {
+            transactionManager.getGroupCommit().sync(lateStaged, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Sperrt die Dateien, an die nur angehängt wird, bis zum Ende der Installation per FileLock gegen andere
+     * Prozesse (die Streifen-Sperren gelten nur im eigenen Manager). Teilt eine Live-Datei ihren Inode mit einem
+     * anderen Pfad, z.B. mit einem Hardlink-Snapshot des LocalSnapshotBackend, wird sie doch vollständig
+     * bereitgestellt, da ein Anhängen an Ort und Stelle diesen Snapshot mitverändern würde. Das kostet
+     * O(Dateigröße) und wird in den Metriken gezählt (getAppendCopyFallbacks); erst die Sperre verhindert, dass
+     * ein anderer Prozess zwischen Kopie und Rename anhängt und sein Anhängen verloren geht.
+     * Wird unter den Commit-Sperren aufgerufen; der Pfad der temporären Datei steht bereits im PREPARE-Eintrag.
+     */
+    private void stageSharedAppends(Map<File, Path> stagedFiles, boolean durable) throws IOException {
+        List<Path> lateStaged = new ArrayList<>();
+        for (Map.Entry<File, ByteArrayOutputStream> entry : pendingAppends.entrySet()) {
+            Path livePath = entry.getKey().toPath();
+            if (!Files.isRegularFile(livePath, LinkOption.NOFOLLOW_LINKS)) {
+                continue;
+            }
+            appendLocks.put(entry.getKey(), lockForAppend(livePath));
+            if (BlockDelta.hasOwnInode(livePath)) {
+                continue;
+            }
+            Path staged = stagingPath(entry.getKey());
+            long start = System.nanoTime();
+            FileChannel locked = appendLocks.get(entry.getKey());
+            long offset = locked.size();
+            try {
+                // Über den gesperrten Kanal kopieren: Schließt der Prozess einen anderen Deskriptor der Datei,
+                // gibt das Betriebssystem die Sperre frei.
+                try (FileChannel target = FileChannel.open(staged, StandardOpenOption.CREATE,
+                        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                    long position = 0;
+                    while (position < offset) {
+                        position += locked.transferTo(position, offset - position, target);
+                    }
+                }
+                writeBuffer(staged, ByteBuffer.wrap(entry.getValue().toByteArray()),
+                        StandardOpenOption.WRITE, StandardOpenOption.APPEND);
+                metrics.recordBytesCopied(offset + entry.getValue().size());
+                metrics.recordAppendCopyFallback();
+            } catch (IOException e) {
+                Files.deleteIfExists(staged);
+                throw e;
+            }
+            metrics.record(TransactionPhase.WORKING_COPY, start);
+            // Für die Rücknahme per Kürzen wie bei einem Anhängen an Ort und Stelle.
+            appendOffsets.put(entry.getKey(), offset);
+            stagedFiles.put(entry.getKey(), staged);
+            lateStaged.add(staged);
+        }
+        if (durable) {
+            transactionManager.getGroupCommit().sync(lateStaged, Collections.emptyList());
+        }
+    }
+
+    /**
+     * Öffnet die Live-Datei zum Anhängen und sperrt sie exklusiv gegen andere Prozesse. Wurde der Pfad
+     * inzwischen per Rename durch eine andere Datei ersetzt, gilt die Sperre dem alten Inode; dann wird erneut
+     * geöffnet. Sperrt ein anderer Manager derselben JVM die Datei, wird kurz gewartet und wiederholt.
+     * Solange die Sperre gehalten wird, darf die Datei nur über diesen Kanal gelesen und geschrieben werden,
+     * da das Schließen eines anderen Deskriptors derselben Datei die Sperre des Prozesses aufhebt.
+     * @return Der Kanal mit der Sperre; schließen gibt die Sperre frei
+     */
+    private static FileChannel lockForAppend(Path livePath) throws IOException {
+        while (true) {
+            Object fileKey = Files.readAttributes(livePath, BasicFileAttributes.class).fileKey();
+            FileChannel channel = FileChannel.open(livePath, StandardOpenOption.READ, StandardOpenOption.WRITE);
+            try {
+                channel.lock();
+                if (Objects.equals(fileKey, Files.readAttributes(livePath, BasicFileAttributes.class).fileKey())) {
+                    return channel;
+                }
+            } catch (OverlappingFileLockException e) {
+                try {
+                    Thread.sleep(1);
+                } catch (InterruptedException interrupted) {
+                    Thread.currentThread().interrupt();
+                    channel.close();
+                    throw new InterruptedIOException("Warten auf Dateisperre unterbrochen: " + livePath);
+                }
+            } catch (IOException e) {
+                channel.close();
+                throw e;
+            }
+            channel.close();
+        }
+    }
+
+    private void releaseAppendLocks() {
+        for (FileChannel channel : appendLocks.values()) {
+            try {
+                channel.close();
+            } catch (IOException e) {
+                TransactionLog.warn("Dateisperre konnte nicht freigegeben werden: " + e.getMessage());
+            }
+        }
+        appendLocks.clear();
+    }
+
+    private static void deleteStagedFiles(Collection<Path> stagedFiles) throws IOException {
+        for (Path staged : stagedFiles) {
+            Files.deleteIfExists(staged);
+        }
+    }
     
+    /**
+     * Kopiert eine Arbeitskopie per FileChannel.transferTo (ohne Heap-Puffer) in eine temporäre Datei
+     * im Verzeichnis der Live-Datei, damit sie anschließend per Rename installiert werden kann.
+     * Die Live-Datei wird so ersetzt und nicht überschrieben, Hardlink-Snapshots bleiben unverändert.
+     * @return Pfad der temporären Datei
+     */
+    private Path stageWorkingFile(File workingFile, File liveFile) throws IOException {
+        Path staged = stagingPath(liveFile);
+        Files.createDirectories(staged.getParent());
+        long start = System.nanoTime();
+        try (FileChannel in = FileChannel.open(workingFile.toPath(), StandardOpenOption.READ);
+             FileChannel out = FileChannel.open(staged, StandardOpenOption.CREATE,
+                     StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+            long size = in.size();
+            long position = 0;
+            while (position < size) {
+                position += in.transferTo(position, size - position, out);
+            }
+            metrics.recordBytesCopied(size);
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+        metrics.record(TransactionPhase.WORKING_COPY, start);
+        return staged;
+    }
+
+    /**
+     * Schreibt eine Arbeitskopie aus dem Speicher direkt in die temporäre Datei neben der Live-Datei.
+     * @return Pfad der temporären Datei
+     */
+    private Path stageMemoryCopy(ByteBuffer content, File liveFile) throws IOException {
+        Path staged = stagingPath(liveFile);
+        Files.createDirectories(staged.getParent());
+        long start = System.nanoTime();
+        try {
+            writeBuffer(staged, content, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+            metrics.recordBytesCopied(content.remaining());
+        } catch (IOException e) {
+            Files.deleteIfExists(staged);
+            throw e;
+        }
+        metrics.record(TransactionPhase.WORKING_COPY, start);
+        return staged;
+    }
+
+    /**
+     * @return Pfad der temporären Datei, unter der die Arbeitskopie neben der Live-Datei bereitgestellt wird.
+     */
+    private Path stagingPath(File liveFile) {
+        Path livePath = liveFile.toPath().toAbsolutePath();
+        return livePath.resolveSibling("." + livePath.getFileName() + "." + transactionId + STAGING_SUFFIX);
+    }
+
+    /**
+     * @return true, falls path eine temporäre Datei ist, unter der eine Transaktion ihre Arbeitskopie bereitstellt.
+     *         Solche Dateien gehören nicht zum Datenbestand und werden z.B. nicht in Snapshots übernommen.
+     */
+    static boolean isStagingFile(Path path) {
+        String name = path.getFileName().toString();
+        return name.startsWith(".") && name.contains(".tx_") && name.endsWith(STAGING_SUFFIX);
+    }
+
+    private static Path parentDirectory(Path path) {
+        return path.toAbsolutePath().getParent();
+    }
+
+    /**
+     * Hängt das Delta im APPEND-Modus an die Live-Datei an; das Betriebssystem positioniert jeden
+     * Schreibvorgang atomar am aktuellen Dateiende, auch wenn andere Transaktionen gleichzeitig anhängen.
+     * Eine bereits gesperrte Datei wird über den Kanal mit der Sperre am Dateiende beschrieben; die Sperre
+     * schließt gleichzeitiges Anhängen anderer Prozesse aus.
+     */
+    private void appendToLiveFile(File liveFile, byte[] data) throws IOException {
+        FileChannel locked = appendLocks.get(liveFile);
+        if (locked != null) {
+            long offset = locked.size();
+            appendOffsets.put(liveFile, offset);
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                offset += locked.write(buffer, offset);
+            }
+            return;
+        }
+        try (FileChannel channel = FileChannel.open(liveFile.toPath(), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+            appendOffsets.put(liveFile, channel.size());
+            ByteBuffer buffer = ByteBuffer.wrap(data);
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+    }
+
     /**
      * Führt ein Rollback der Transaktion durch:
-     * - Setzt den Zustand des Dateisystems mittels des zuvor erstellten ZFS-Snapshots zurück.
+     * - Setzt den Zustand des Dateisystems mittels des zuvor erstellten Snapshots zurück,
+     *   je nach RollbackMode dateiweise oder für das ganze Dataset.
      * - Entfernt den temporären Arbeitsbereich.
      */
     public void rollback() throws Exception {
         if (!active) {
             throw new IllegalStateException("Transaktion ist nicht mehr aktiv.");
         }
-        try {
-            zfsManager.rollbackToSnapshot(snapshotName);
-        } catch (IOException e) {
-            // Logge den Fehler, aber markiere die Transaktion trotzdem als zurückgesetzt
-            System.err.println("Rollback-Fehler: " + e.getMessage());
+        long rollbackStart = System.nanoTime();
+        // Ohne Snapshot hat die Transaktion nichts geschrieben, es gibt also nichts zurückzusetzen.
+        if (snapshotName != null) {
+            try {
+                if (transactionManager.getRollbackMode() == RollbackMode.DATASET) {
+                    snapshotBackend.rollbackToSnapshot(snapshotName);
+                    // Das ganze Dataset wurde zurückgesetzt; keine gelesene Version ist mehr gültig.
+                    transactionManager.invalidateFileVersions();
+                } else {
+                    restoreInstalledFiles();
+                }
+            } catch (IOException e) {
+                // Logge den Fehler, aber markiere die Transaktion trotzdem als zurückgesetzt
+                TransactionLog.warn("Rollback-Fehler: " + e.getMessage());
+            }
         }
-        active = false;
-        System.out.println("Transaktion " + transactionId + " wurde zurückgesetzt.");
+        finish();
+        TransactionLog.info("Transaktion " + transactionId + " wurde zurückgesetzt.");
         deleteDirectoryRecursively(workingDir);
+        metrics.record(TransactionPhase.ROLLBACK, rollbackStart);
+    }
+
+
+    /**
+     * Dateiweiser Rollback: Nur Dateien, die diese Transaktion bereits installiert hat, wurden von ihr verändert.
+     * Sie werden aus der Snapshot-Ansicht wiederhergestellt; alle übrigen Einträge der fileMetadataMap bleiben
+     * unangetastet, damit Commits anderer Transaktionen erhalten bleiben.
+     * Eine Datei wird nur zurückkopiert, wenn ihr Stand im Snapshot dem beim ersten Zugriff gesehenen entspricht.
+     * Wie beim Commit wird die Kopie als temporäre Datei neben der Live-Datei bereitgestellt und per atomarem
+     * Rename installiert, damit ein Absturz keine halb zurückkopierte Live-Datei hinterlässt.
+     * Angehängte Daten werden durch Kürzen auf die alte Länge entfernt.
+     */
+    private void restoreInstalledFiles() throws IOException, InterruptedException, NoSuchAlgorithmException {
+        boolean durable = transactionManager.isDurableCommits();
+        Set<Path> changedDirectories = new LinkedHashSet<>();
+        for (int i = installedFiles.size() - 1; i >= 0; i--) {
+            File liveFile = installedFiles.get(i);
+            if (pendingAppends.containsKey(liveFile)) {
+                truncateAppend(liveFile);
+                continue;
+            }
+            File savedFile = snapshotBackend.resolveInSnapshot(snapshotName, liveFile);
+            FileMetadata initialMetadata = fileMetadataMap.get(liveFile);
+            if (savedFile == null
+                    || !initialMetadata.sameHash(fingerprint(savedFile))) {
+                TransactionLog.warn("Datei kann nicht aus dem Snapshot wiederhergestellt werden: " + liveFile);
+                continue;
+            }
+            if (savedFile.exists()) {
+                Path staged = stagingPath(liveFile);
+                try {
+                    Files.copy(savedFile.toPath(), staged, StandardCopyOption.REPLACE_EXISTING);
+                    metrics.recordBytesCopied(savedFile.length());
+                    if (durable) {
+                        transactionManager.getGroupCommit().sync(Collections.singleton(staged), Collections.emptyList());
+                    }
+                    Files.move(staged, liveFile.toPath(), StandardCopyOption.ATOMIC_MOVE, StandardCopyOption.REPLACE_EXISTING);
+                } catch (IOException e) {
+                    Files.deleteIfExists(staged);
+                    throw e;
+                }
+                changedDirectories.add(parentDirectory(liveFile.toPath()));
+            } else if (Files.deleteIfExists(liveFile.toPath())) {
+                changedDirectories.add(parentDirectory(liveFile.toPath()));
+            }
+            TransactionLog.info("Datei wiederhergestellt: " + liveFile.getAbsolutePath());
+        }
+        if (durable && !changedDirectories.isEmpty()) {
+            transactionManager.getGroupCommit().sync(Collections.emptyList(), changedDirectories);
+        }
+        installedFiles.clear();
+    }
+
+    /**
+     * Nimmt ein beim Commit angehängtes Delta zurück, sofern seitdem niemand weiter angehängt hat.
+     */
+    private void truncateAppend(File liveFile) throws IOException {
+        Long offset = appendOffsets.get(liveFile);
+        if (offset == null) {
+            return;
+        }
+        long appendedLength = pendingAppends.get(liveFile).size();
+        try (FileChannel channel = FileChannel.open(liveFile.toPath(), StandardOpenOption.WRITE)) {
+            if (channel.size() != offset + appendedLength) {
+                TransactionLog.warn("Angehängte Daten können nicht entfernt werden, Datei wurde weiter verändert: " + liveFile);
+                return;
+            }
+            channel.truncate(offset);
+        }
+        TransactionLog.info("Angehängte Daten entfernt: " + liveFile.getAbsolutePath());
     }
 
-    
     /**
      * Hilfsmethode zum rekursiven Löschen eines Verzeichnisses.
      */
@@ -0,0 +1,11 @@
+package transactionlib;
+
+/**
+ * Arbeit, die TransactionManager.runInTransaction innerhalb einer Transaktion ausführt.
+ * Der Rumpf kann bei Konflikten mehrfach aufgerufen werden, jedes Mal mit einer neuen Transaktion;
+ * er sollte daher außerhalb der Transaktion keine Seiteneffekte haben. Den Commit übernimmt der Manager.
+ */
+@FunctionalInterface
+public interface TransactionBody<T> {
+    T run(Transaction transaction) throws Exception;
+}
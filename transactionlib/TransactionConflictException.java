@@ -0,0 +1,25 @@
+package transactionlib;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Wird von den Dateioperationen einer Transaktion geworfen, wenn eine ihrer Dateien inzwischen
+ * von einer anderen Transaktion oder außerhalb der Bibliothek verändert wurde.
+ * Die Transaktion ist zu diesem Zeitpunkt bereits zurückgesetzt und kann neu gestartet werden.
+ */
+public class TransactionConflictException extends IOException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final File conflictingFile;
+
+    public TransactionConflictException(String transactionId, File conflictingFile) {
+        super("Transaktion " + transactionId + " abgebrochen, Datei wurde verändert: " + conflictingFile.getAbsolutePath());
+        this.conflictingFile = conflictingFile;
+    }
+
+    public File getConflictingFile() {
+        return conflictingFile;
+    }
+}
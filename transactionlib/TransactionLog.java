@@ -0,0 +1,42 @@
+package transactionlib;
+
+/**
+ * Schaltbare Konsolenausgabe der Bibliothek für Meldungen wie "Snapshot erstellt" oder "Konflikt erkannt".
+ * Unter Last kostet die synchronisierte Ausgabe auf System.out spürbar Zeit; sie lässt sich daher mit
+ * -Dtransactionlib.log=false oder setEnabled(false) abschalten. Warnungen und Fehlermeldungen der Bibliothek (warn)
+ * gehen auf System.err und werden mit abgeschaltet.
+ */
+public final class TransactionLog {
+
+    private static volatile boolean enabled = Boolean.parseBoolean(System.getProperty("transactionlib.log", "true"));
+
+    private TransactionLog() {
+    }
+
+    /**
+     * Schaltet die Meldungen aller TransactionManager und Snapshot-Backends im Prozess ein oder aus.
+     */
+    public static void setEnabled(boolean enabled) {
+        TransactionLog.enabled = enabled;
+    }
+
+    public static boolean isEnabled() {
+        return enabled;
+    }
+
+    static void info(String message) {
+        if (enabled) {
+            System.out.println(message);
+        }
+    }
+
+    /**
+     * Gibt eine Warnung auf System.err aus, z.B. wenn die Wiederherstellung eine Aktion überspringt oder ein
+     * Commit an einem E/A-Fehler scheitert.
+     */
+    static void warn(String message) {
+        if (enabled) {
+            System.err.println(message);
+        }
+    }
+}
@@ -1,27 +1,1031 @@
 package transactionlib;
 
+import java.io.IOException;
+import java.io.File;
+import java.lang.management.ManagementFactory;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import javax.management.JMException;
+import javax.management.ObjectName;
 
-public class TransactionManager {
+public class TransactionManager implements AutoCloseable {
     // Verwaltet die Erzeugung von Transaktionen und stellt sicher, dass jede Transaktion eine eindeutige ID erhält.
-    
-    private ZfsManager zfsManager;
+    // Zusätzlich verwaltet er die Snapshots: Transaktionen, die kurz nacheinander ihren ersten Schreibzugriff
+    // machen, teilen sich einen referenzgezählten Snapshot, solange dazwischen kein Commit stattgefunden hat.
+    // Nicht mehr benötigte Snapshots werden vom SnapshotReaper im Hintergrund gelöscht; close() beendet ihn.
+    // Die fsyncs gleichzeitig committender Transaktionen werden über einen gemeinsamen GroupCommit gebündelt.
+    // Prüfung und Installation eines Commits laufen unter den Streifen-Sperren der beteiligten Dateien.
+    // Die Versionstabelle zählt Installationen pro Pfad, sodass ein Commit Konflikte ohne Datei-I/O erkennt.
+    // Laufende Transaktionen werden über Commits und (per WatchService) externe Änderungen an ihren Dateien
+    // benachrichtigt, damit sie nicht erst beim Commit von einem Konflikt erfahren.
+    // runInTransaction wiederholt gescheiterte Transaktionen; die Wartezeit richtet sich nach der Konfliktrate.
+    // Dateien mit hoher Konfliktrate werden pessimistisch behandelt: Transaktionen sichern sie beim ersten
+    // Zugriff mit einer Lease, bis die Konkurrenz wieder nachlässt.
+    // Die asynchrone API (beginAsync, commitAsync, runInTransactionAsync) läuft auf virtuellen Threads,
+    // sofern die JVM sie anbietet; blockierende Aufrufe (zfs-Prozesse, fsync, Sleeps) binden so keine Plattform-Threads.
+    // Vor Java 21 laufen höchstens PLATFORM_THREAD_LIMIT Aufgaben gleichzeitig, weitere warten in der Queue.
+    // Laufzeiten der einzelnen Phasen und weitere Zähler sammelt TransactionMetrics; sie sind per JMX abrufbar,
+    // sofern das nicht mit -Dtransactionlib.jmx=false abgeschaltet wird.
+    // Ist ein Verzeichnis für das IntentLog angegeben, werden Commits vor der Installation dort vermerkt. Beim Start
+    // spielt der Manager dann die Logs abgestürzter Prozesse nach und räumt deren Arbeitsverzeichnisse und Snapshots
+    // auf; dafür enthält jede Transaktions-ID die Prozess-ID. Ohne Verzeichnis arbeitet er ohne Wiederherstellung.
+    // Kleine Arbeitskopien halten die Transaktionen im Speicher; das gemeinsame Budget dafür verwaltet WorkingCopyMemory.
+    // Commits mit vielen Dateien hashen, stellen bereit und synchronisieren über ParallelIo; die Parallelität ist
+    // für alle Commits des Managers gemeinsam begrenzt.
+
+    // Nummeriert die Manager im Prozess für die JMX-Namen.
+    private static final AtomicInteger INSTANCE_COUNTER = new AtomicInteger(0);
+    private static final long PID = ProcessHandle.current().pid();
+    // Obergrenze der Plattform-Threads eines Executors, falls die JVM keine virtuellen Threads anbietet.
+    static final int PLATFORM_THREAD_LIMIT = 256;
+    // Transaktions-IDs "tx_<pid>_<zähler>_<zeitstempel>", wie sie in Arbeitsverzeichnissen und Snapshot-Namen
+    // (jeweils mit Präfix "tx_") vorkommen.
+    private static final Pattern TRANSACTION_ID = Pattern.compile("tx_tx_(\\d+)_\\d+_(\\d+)$");
+
+    private SnapshotBackend snapshotBackend;
     private AtomicInteger transactionCounter;
-    
-    public TransactionManager(ZfsManager zfsManager) {
-        this.zfsManager = zfsManager;
+    // Zählt Transaktionen, die beendet wurden, ohne je einen Snapshot zu benötigen.
+    private AtomicLong snapshotsAvoided;
+    private AtomicLong snapshotsCreated;
+    private AtomicLong snapshotsShared;
+    // Wird bei jedem erfolgreichen Commit erhöht; ein Snapshot aus einer älteren Epoche wird nicht mehr geteilt.
+    private AtomicLong commitEpoch;
+    // Zeitfenster, in dem ein bestehender Snapshot wiederverwendet wird; 0 deaktiviert das Teilen.
+    private volatile long snapshotCoalescingWindowMillis;
+    private volatile RollbackMode rollbackMode;
+    // Alle Snapshots, die noch von mindestens einer Transaktion referenziert werden. Geschützt durch "this".
+    private final Map<String, SharedSnapshot> sharedSnapshots = new HashMap<>();
+    // Der zuletzt begonnene Snapshot, an den sich neue Transaktionen anhängen können.
+    private SharedSnapshot currentSnapshot;
+    private final SnapshotReaper snapshotReaper;
+    private volatile FingerprintCache fingerprintCache;
+    private volatile HashAlgorithm hashAlgorithm;
+    private final GroupCommit groupCommit;
+    private final StripedLocks commitLocks;
+    private final ParallelIo parallelIo;
+    // Pfad -> Anzahl der Installationen über diesen Manager. Fehlende Einträge entsprechen Version 0.
+    private final ConcurrentHashMap<Path, AtomicLong> fileVersions = new ConcurrentHashMap<>();
+    private volatile ExternalChangeDetection externalChangeDetection;
+    // Ab dieser Anzahl gelesener/geschriebener Dateien fragt ein Commit das Backend nach geänderten Dateien.
+    private volatile int changedFileQueryThreshold;
+    // Pfad -> laufende Transaktionen, die darauf zugreifen (mit der Datei, wie die Transaktion sie kennt).
+    private final ConcurrentHashMap<Path, Map<Transaction, File>> watchers = new ConcurrentHashMap<>();
+    private final FileChangeWatcher fileChangeWatcher;
+    private AtomicLong transactionsDoomed;
+    private final ContentionTracker contentionTracker;
+    private AtomicLong retries;
+    private final LeaseTable leaseTable;
+    private volatile long leaseTimeoutMillis;
+    private final TransactionMetrics metrics;
+    // Name, unter dem die Metriken beim MBeanServer registriert sind, oder null. Geschützt durch "this".
+    private ObjectName metricsName;
+    // Wird beim ersten asynchronen Aufruf angelegt. Geschützt durch "this".
+    private ExecutorService asyncExecutor;
+    private boolean ownsAsyncExecutor;
+    private volatile boolean durableCommits;
+    private final WorkingCopyMemory workingCopyMemory;
+    // Redo-Log der Commits, oder null, falls ohne Wiederherstellung gearbeitet wird.
+    private IntentLog intentLog;
+    private IOException intentLogFailure;
+    private int recoveredCommits;
+    private int orphansRemoved;
+    // Beim Start gefundene Snapshots abgestürzter Prozesse; sie zählen bis zum Löschen als vorhanden.
+    private AtomicLong orphanedSnapshots;
+
+    /**
+     * Erstellt einen Manager ohne Intent-Log und ohne Wiederherstellung beim Start. Nur wenn die System-Property
+     * "transactionlib.intentDir" ausdrücklich auf ein Verzeichnis gesetzt ist, wird dort protokolliert; ist das Log
+     * dann nicht verfügbar, wird eine Meldung ausgegeben und ohne Wiederherstellung gearbeitet.
+     */
+    public TransactionManager(SnapshotBackend snapshotBackend) {
+        this(snapshotBackend, defaultIntentLogDirectory(), false);
+    }
+
+    /**
+     * Erstellt einen Manager, der Commits im angegebenen Verzeichnis protokolliert. Vorher werden dort liegende
+     * Logs abgestürzter Prozesse nachgespielt und deren Arbeitsverzeichnisse und Snapshots aufgeräumt.
+     * Das Verzeichnis sollte einen Neustart überleben, aber nicht im Snapshot-Bereich (z.B. im ZFS-Dataset) liegen.
+     * @param intentLogDirectory Verzeichnis des Logs, oder null für einen Manager ohne Wiederherstellung
+     * @throws IOException falls die Wiederherstellung scheitert oder das Log nicht angelegt werden kann
+     */
+    public TransactionManager(SnapshotBackend snapshotBackend, File intentLogDirectory) throws IOException {
+        this(snapshotBackend, intentLogDirectory, true);
+        if (intentLogFailure != null) {
+            close();
+            throw intentLogFailure;
+        }
+    }
+
+    private TransactionManager(SnapshotBackend snapshotBackend, File intentLogDirectory, boolean required) {
+        this.snapshotBackend = snapshotBackend;
         this.transactionCounter = new AtomicInteger(0);
+        this.snapshotsAvoided = new AtomicLong(0);
+        this.snapshotsCreated = new AtomicLong(0);
+        this.snapshotsShared = new AtomicLong(0);
+        this.commitEpoch = new AtomicLong(0);
+        this.snapshotCoalescingWindowMillis = 100;
+        this.rollbackMode = RollbackMode.FILES;
+        this.snapshotReaper = new SnapshotReaper(snapshotBackend);
+        this.fingerprintCache = new FingerprintCache(10_000);
+        this.hashAlgorithm = HashAlgorithm.XXH64;
+        this.parallelIo = new ParallelIo(newVirtualThreadExecutor(), Math.max(4, Runtime.getRuntime().availableProcessors()));
+        this.groupCommit = new GroupCommit(parallelIo);
+        this.commitLocks = new StripedLocks(1024);
+        this.externalChangeDetection = ExternalChangeDetection.MTIME;
+        this.changedFileQueryThreshold = 1000;
+        this.fileChangeWatcher = new FileChangeWatcher(path -> notifyWatchers(path, null));
+        this.transactionsDoomed = new AtomicLong(0);
+        this.contentionTracker = new ContentionTracker(10_000);
+        this.retries = new AtomicLong(0);
+        this.leaseTable = new LeaseTable();
+        this.leaseTimeoutMillis = 30_000;
+        this.durableCommits = true;
+        this.workingCopyMemory = new WorkingCopyMemory(64 * 1024, 32L * 1024 * 1024);
+        this.metrics = new TransactionMetrics(this);
+        snapshotBackend.attachMetrics(metrics);
+        this.orphanedSnapshots = new AtomicLong(0);
+        if (Boolean.parseBoolean(System.getProperty("transactionlib.jmx", "true"))) {
+            registerMetrics();
+        }
+        if (intentLogDirectory != null) {
+            try {
+                recover(intentLogDirectory.toPath());
+                this.intentLog = new IntentLog(intentLogDirectory.toPath());
+            } catch (IOException e) {
+                if (required) {
+                    intentLogFailure = e;
+                } else {
+                    TransactionLog.warn("Intent-Log nicht verfügbar, Commits werden ohne Wiederherstellung ausgeführt: "
+                            + e.getMessage());
+                }
+            }
+        }
+    }
+
+    /**
+     * @return Das Verzeichnis aus "transactionlib.intentDir", oder null, falls die Property nicht gesetzt ist.
+     *         Ein gemeinsames Standardverzeichnis gibt es bewusst nicht: Die Wiederherstellung darin würde Dateien
+     *         fremder Prozesse anfassen.
+     */
+    private static File defaultIntentLogDirectory() {
+        String directory = System.getProperty("transactionlib.intentDir", "");
+        return directory.isEmpty() ? null : new File(directory);
+    }
+
+    /**
+     * Wiederherstellung beim Start: Commits abgestürzter Prozesse werden anhand ihrer Intent-Logs zu Ende
+     * installiert oder verworfen, danach werden ihre Arbeitsverzeichnisse gelöscht und ihre Snapshots dem
+     * Reaper übergeben. Der Aufwand hängt nur von der Zahl der unterbrochenen Commits, Arbeitsverzeichnisse
+     * und Snapshots ab, nicht von der Größe des Datenbestands.
+     */
+    private void recover(Path intentLogDirectory) throws IOException {
+        recoveredCommits = IntentLog.recover(intentLogDirectory);
+        File tempDir = new File(System.getProperty("java.io.tmpdir"));
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(tempDir.toPath(), "tx_tx_*")) {
+            for (Path workingDir : stream) {
+                if (isOrphaned(workingDir.getFileName().toString())) {
+                    deleteRecursively(workingDir.toFile());
+                    orphansRemoved++;
+                }
+            }
+        }
+        try {
+            for (String snapshotName : snapshotBackend.listSnapshots()) {
+                if (isOrphaned(snapshotName)) {
+                    orphanedSnapshots.incrementAndGet();
+                    snapshotReaper.enqueue(snapshotName);
+                    orphansRemoved++;
+                }
+            }
+        } catch (IOException e) {
+            // Ohne Liste bleiben verwaiste Snapshots liegen; die Wiederherstellung der Commits ist davon unabhängig.
+            TransactionLog.warn("Verwaiste Snapshots konnten nicht ermittelt werden: " + e.getMessage());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Auflisten der Snapshots unterbrochen", e);
+        }
+        if (recoveredCommits > 0 || orphansRemoved > 0) {
+            TransactionLog.info("Wiederherstellung: " + recoveredCommits + " Commits nachgespielt, "
+                    + orphansRemoved + " verwaiste Arbeitsverzeichnisse und Snapshots entfernt.");
+        }
+    }
+
+    /**
+     * Prüft, ob ein Arbeitsverzeichnis oder Snapshot zu einer Transaktion gehört, deren Prozess nicht mehr läuft.
+     * Läuft unter der Prozess-ID inzwischen ein anderer Prozess, wird das an dessen Startzeit erkannt.
+     * Namen ohne Prozess-ID (ältere Versionen) gelten nie als verwaist.
+     */
+    private static boolean isOrphaned(String name) {
+        Matcher matcher = TRANSACTION_ID.matcher(name);
+        if (!matcher.find()) {
+            return false;
+        }
+        long pid = Long.parseLong(matcher.group(1));
+        long createdAt = Long.parseLong(matcher.group(2));
+        Optional<ProcessHandle> process = ProcessHandle.of(pid);
+        if (process.isEmpty() || !process.get().isAlive()) {
+            return true;
+        }
+        // Die Startzeit ist nur auf einige Millisekunden genau; eine Sekunde Abstand schließt Fehlalarme aus.
+        Optional<Instant> startedAt = process.get().info().startInstant();
+        return startedAt.isPresent() && startedAt.get().toEpochMilli() > createdAt + 1000;
+    }
+
+    private static void deleteRecursively(File file) {
+        File[] entries = file.listFiles();
+        if (entries != null) {
+            for (File entry : entries) {
+                deleteRecursively(entry);
+            }
+        }
+        file.delete();
+    }
+
+    /**
+     * @return Anzahl der Commits abgestürzter Prozesse, die beim Start dieses Managers nachgespielt wurden.
+     */
+    public int getRecoveredCommitCount() {
+        return recoveredCommits;
+    }
+
+    /**
+     * @return Anzahl der verwaisten Arbeitsverzeichnisse und Snapshots, die beim Start entfernt wurden.
+     */
+    public int getOrphansRemovedCount() {
+        return orphansRemoved;
+    }
+
+    IntentLog getIntentLog() {
+        return intentLog;
+    }
+
+    /**
+     * Registriert die Metriken beim Plattform-MBeanServer. Schlägt das fehl, läuft der Manager ohne JMX weiter.
+     */
+    private void registerMetrics() {
+        try {
+            ObjectName name = new ObjectName("transactionlib:type=TransactionManager,id=" + INSTANCE_COUNTER.incrementAndGet());
+            ManagementFactory.getPlatformMBeanServer().registerMBean(metrics, name);
+            metricsName = name;
+        } catch (JMException | SecurityException e) {
+            TransactionLog.warn("Metriken konnten nicht per JMX registriert werden: " + e.getMessage());
+        }
     }
-    
+
     /**
      * Beginnt eine neue Transaktion und gibt das Transaction-Objekt zurück.
-     * Die Transaktions-ID wird dynamisch erzeugt (Kombination aus einem Zähler und dem aktuellen Zeitstempel).
+     * Die Transaktions-ID wird dynamisch erzeugt (Kombination aus Prozess-ID, einem Zähler und dem aktuellen Zeitstempel).
+     * Der Snapshot wird erst beim ersten Schreibzugriff der Transaktion erstellt.
+     * Die Transaktion muss mit commit() oder rollback() beendet werden (runInTransaction tut das): Bis dahin hält
+     * sie ihren Snapshot und die Leases heißer Dateien, andere Transaktionen warten dann bis zur Lease-Wartezeit.
      */
     public Transaction beginTransaction() throws Exception {
+        long start = System.nanoTime();
         int count = transactionCounter.incrementAndGet();
         long timestamp = System.currentTimeMillis();
-        String transactionId = "tx_" + count + "_" + timestamp;
-        // Übergibt die Transaktions-ID und den ZfsManager an die Transaction
-        return new Transaction(transactionId, zfsManager);
+        String transactionId = "tx_" + PID + "_" + count + "_" + timestamp;
+        // Übergibt die Transaktions-ID und den Manager (und damit das Snapshot-Backend) an die Transaction
+        Transaction transaction = new Transaction(transactionId, this);
+        metrics.record(TransactionPhase.BEGIN, start);
+        return transaction;
+    }
+
+    /**
+     * Führt den Rumpf in einer Transaktion aus und committet sie. Scheitert der Commit an einem Konflikt
+     * (auch vorzeitig über eine TransactionConflictException), wird der Rumpf mit einer neuen Transaktion
+     * wiederholt, bis die RetryPolicy keine weiteren Versuche erlaubt. Zwischen den Versuchen wird mit
+     * exponentiell wachsender, zufällig gestreuter Wartezeit gewartet, die mit der Konfliktrate der
+     * beteiligten Dateien skaliert.
+     * Andere Exceptions des Rumpfes setzen die Transaktion zurück und werden ohne Wiederholung weitergereicht.
+     * Setzt der Rumpf die Transaktion selbst zurück, wird ebenfalls nicht wiederholt.
+     * @return Ergebnis mit Rückgabewert, Commit-Status und Anzahl der Versuche
+     */
+    public <T> TransactionResult<T> runInTransaction(TransactionBody<T> body, RetryPolicy policy) throws Exception {
+        long start = System.currentTimeMillis();
+        int attempt = 0;
+        // Nach einer gescheiterten Lease-Aufwertung liest der nächste Versuch heiße Dateien gleich exklusiv.
+        boolean exclusiveLeases = false;
+        while (true) {
+            attempt++;
+            Transaction tx = beginTransaction();
+            tx.setExclusiveLeases(exclusiveLeases);
+            T value;
+            boolean committed;
+            try {
+                value = body.run(tx);
+                if (!tx.isActive()) {
+                    return new TransactionResult<>(null, false, attempt, System.currentTimeMillis() - start);
+                }
+                committed = tx.commit();
+            } catch (TransactionConflictException e) {
+                value = null;
+                committed = false;
+            } catch (Exception e) {
+                if (tx.isActive()) {
+                    tx.rollback();
+                }
+                throw e;
+            }
+            long elapsed = System.currentTimeMillis() - start;
+            if (committed) {
+                return new TransactionResult<>(value, true, attempt, elapsed);
+            }
+            exclusiveLeases |= tx.isLeaseUpgradeFailed();
+            if (attempt >= policy.getMaxAttempts()) {
+                return new TransactionResult<>(null, false, attempt, elapsed);
+            }
+            long delay = policy.backoffMillis(attempt, contentionTracker.conflictRate(tx.getAccessedFiles()));
+            if (policy.getDeadlineMillis() > 0 && elapsed + delay >= policy.getDeadlineMillis()) {
+                return new TransactionResult<>(null, false, attempt, elapsed);
+            }
+            retries.incrementAndGet();
+            Thread.sleep(delay);
+        }
+    }
+
+    /**
+     * Wie runInTransaction(body, RetryPolicy.DEFAULT).
+     */
+    public <T> TransactionResult<T> runInTransaction(TransactionBody<T> body) throws Exception {
+        return runInTransaction(body, RetryPolicy.DEFAULT);
+    }
+
+    /**
+     * Beginnt eine Transaktion auf einem Thread des asynchronen Executors.
+     */
+    public CompletableFuture<Transaction> beginAsync() {
+        return supplyAsync(this::beginTransaction);
+    }
+
+    /**
+     * Committet die Transaktion auf einem Thread des asynchronen Executors.
+     * @return Future mit dem Ergebnis von commit(): true bei Erfolg, false bei Konflikt
+     */
+    public CompletableFuture<Boolean> commitAsync(Transaction transaction) {
+        return supplyAsync(transaction::commit);
+    }
+
+    /**
+     * Wie runInTransaction, aber auf einem Thread des asynchronen Executors. Der Rumpf darf blockieren;
+     * auf virtuellen Threads kostet das keinen Plattform-Thread.
+     */
+    public <T> CompletableFuture<TransactionResult<T>> runInTransactionAsync(TransactionBody<T> body, RetryPolicy policy) {
+        return supplyAsync(() -> runInTransaction(body, policy));
+    }
+
+    /**
+     * Ersetzt den Executor der asynchronen API, z.B. durch einen begrenzten Pool.
+     * Ein so übergebener Executor wird von close() nicht beendet.
+     */
+    public synchronized void setAsyncExecutor(ExecutorService executor) {
+        if (ownsAsyncExecutor) {
+            asyncExecutor.shutdown();
+        }
+        this.asyncExecutor = executor;
+        this.ownsAsyncExecutor = false;
+    }
+
+    private <T> CompletableFuture<T> supplyAsync(Callable<T> task) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        getAsyncExecutor().execute(() -> {
+            try {
+                future.complete(task.call());
+            } catch (Throwable t) {
+                future.completeExceptionally(t);
+            }
+        });
+        return future;
+    }
+
+    private synchronized ExecutorService getAsyncExecutor() {
+        if (asyncExecutor == null) {
+            asyncExecutor = newVirtualThreadExecutor();
+            ownsAsyncExecutor = true;
+        }
+        return asyncExecutor;
+    }
+
+    /**
+     * Erzeugt einen Executor mit einem virtuellen Thread pro Aufgabe (ab Java 21). Die Methode wird per
+     * Reflection gesucht, damit die Bibliothek auch auf älteren JVMs läuft; dort wird ein Pool von höchstens
+     * PLATFORM_THREAD_LIMIT Daemon-Threads verwendet, weitere Aufgaben warten, bis ein Thread frei wird.
+     */
+    private static ExecutorService newVirtualThreadExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            ThreadPoolExecutor pool = new ThreadPoolExecutor(PLATFORM_THREAD_LIMIT, PLATFORM_THREAD_LIMIT,
+                    60, TimeUnit.SECONDS, new LinkedBlockingQueue<>(), task -> {
+                        Thread thread = new Thread(task, "transaction-async");
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            pool.allowCoreThreadTimeOut(true);
+            return pool;
+        }
+    }
+
+    /**
+     * @return true, falls die JVM virtuelle Threads anbietet (ab Java 21) und die asynchrone API sie verwendet.
+     */
+    static boolean supportsVirtualThreads() {
+        try {
+            Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return true;
+        } catch (NoSuchMethodException e) {
+            return false;
+        }
+    }
+
+    public SnapshotBackend getSnapshotBackend() {
+        return snapshotBackend;
+    }
+
+    /**
+     * Legt fest, wie lange ein Snapshot nach seiner Erstellung an weitere Transaktionen vergeben wird.
+     * Unabhängig davon wird ein Snapshot nie über einen Commit hinweg geteilt.
+     * @param millis Zeitfenster in Millisekunden, 0 deaktiviert das Teilen von Snapshots
+     */
+    public void setSnapshotCoalescingWindowMillis(long millis) {
+        this.snapshotCoalescingWindowMillis = millis;
+    }
+
+    /**
+     * Ersetzt den Fingerprint-Cache, z.B. durch einen größeren oder einen mit Sicherungsdatei.
+     * Mit null wird jede Datei bei jeder Prüfung neu gehasht.
+     */
+    public void setFingerprintCache(FingerprintCache fingerprintCache) {
+        this.fingerprintCache = fingerprintCache;
+    }
+
+    public FingerprintCache getFingerprintCache() {
+        return fingerprintCache;
+    }
+
+    /**
+     * Legt das Verfahren fest, mit dem Dateiinhalte zur Konflikterkennung gehasht werden (Standard: XXH64).
+     * Gilt für Transaktionen, die danach begonnen werden.
+     */
+    public void setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+    }
+
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * Legt fest, ob ein Rollback nur die betroffenen Dateien (Standard) oder das ganze Dataset zurücksetzt.
+     */
+    public void setRollbackMode(RollbackMode rollbackMode) {
+        this.rollbackMode = rollbackMode;
+    }
+
+    public RollbackMode getRollbackMode() {
+        return rollbackMode;
+    }
+
+    /**
+     * Legt fest, ob ein Commit erst zurückkehrt, wenn die installierten Dateien per fsync auf dem
+     * Datenträger sind (Standard). Ohne Dauerhaftigkeit bleibt die Installation atomar, kann aber bei
+     * einem Stromausfall verloren gehen.
+     */
+    public void setDurableCommits(boolean durableCommits) {
+        this.durableCommits = durableCommits;
+    }
+
+    public boolean isDurableCommits() {
+        return durableCommits;
+    }
+
+    /**
+     * Legt fest, bis zu welcher Größe Transaktionen Arbeitskopien im Speicher statt im Arbeitsbereich halten
+     * (Standard: 64 KiB pro Datei, 32 MiB für alle Transaktionen zusammen). Größere Dateien und Schreibzugriffe
+     * jenseits des Budgets werden wie bisher im temporären Arbeitsbereich abgelegt.
+     * @param maxFileBytes Größengrenze pro Datei, 0 schaltet Arbeitskopien im Speicher ab
+     * @param budgetBytes Gesamtbudget aller Arbeitskopien im Speicher
+     */
+    public void setInMemoryWorkingCopyLimits(int maxFileBytes, long budgetBytes) {
+        workingCopyMemory.setLimits(maxFileBytes, budgetBytes);
+    }
+
+    /**
+     * Legt fest, ob Arbeitskopien im Speicher als Direct-ByteBuffer außerhalb des Heaps liegen (Standard: im Heap).
+     */
+    public void setOffHeapWorkingCopies(boolean offHeap) {
+        workingCopyMemory.setDirect(offHeap);
+    }
+
+    /**
+     * @return Bytes, die derzeit von Arbeitskopien im Speicher belegt sind.
+     */
+    public long getInMemoryWorkingCopyBytes() {
+        return workingCopyMemory.getUsedBytes();
+    }
+
+    /**
+     * @return Anzahl der Schreibzugriffe, deren Arbeitskopie wegen Größengrenze oder Budget im Arbeitsbereich landete.
+     */
+    public long getWorkingCopySpillCount() {
+        return workingCopyMemory.getSpillCount();
+    }
+
+    WorkingCopyMemory getWorkingCopyMemory() {
+        return workingCopyMemory;
+    }
+
+    /**
+     * @return Durchschnittliche Anzahl Transaktionen, deren fsyncs gemeinsam ausgeführt wurden.
+     */
+    public double getAverageSyncBatchSize() {
+        return groupCommit.getAverageBatchSize();
+    }
+
+    /**
+     * @return Anzahl der fsync-Aufrufe, die für Commits ausgeführt wurden.
+     */
+    public long getSyncCount() {
+        return groupCommit.getSyncCount();
+    }
+
+    /**
+     * Legt fest, wie ein Commit zusätzlich zur Versionstabelle Änderungen außerhalb der Bibliothek erkennt
+     * (Standard: MTIME). NONE ist nur sicher, wenn alle Schreibzugriffe über diesen Manager laufen.
+     */
+    public void setExternalChangeDetection(ExternalChangeDetection externalChangeDetection) {
+        this.externalChangeDetection = externalChangeDetection;
+    }
+
+    public ExternalChangeDetection getExternalChangeDetection() {
+        return externalChangeDetection;
+    }
+
+    /**
+     * Legt fest, ab wie vielen gelesenen oder geschriebenen Dateien ein Commit das Snapshot-Backend in einem Aufruf
+     * nach seit dem Snapshot geänderten Dateien fragt (siehe SnapshotBackend.changedSince), statt für jede Datei
+     * Zeitstempel bzw. Hash zu prüfen (Standard: 1000). 0 schaltet die Abfrage ab.
+     * Schlägt die Abfrage fehl, z.B. weil "zfs diff" nicht erlaubt ist, wird sie für diesen Manager abgeschaltet.
+     */
+    public void setChangedFileQueryThreshold(int files) {
+        this.changedFileQueryThreshold = files;
+    }
+
+    public int getChangedFileQueryThreshold() {
+        return changedFileQueryThreshold;
+    }
+
+    /**
+     * Schaltet die Abfrage geänderter Dateien nach einem Fehler ab und meldet das einmalig.
+     */
+    void disableChangedFileQuery(Exception cause) {
+        if (changedFileQueryThreshold > 0) {
+            changedFileQueryThreshold = 0;
+            TransactionLog.warn("Abfrage geänderter Dateien abgeschaltet, Commits prüfen jede Datei einzeln: "
+                    + cause.getMessage());
+        }
+    }
+
+    /**
+     * @return Aktuelle Version der Datei in der Versionstabelle.
+     */
+    long getFileVersion(File file) {
+        AtomicLong version = fileVersions.get(versionKey(file));
+        return version == null ? 0 : version.get();
+    }
+
+    /**
+     * Erhöht die Versionen der Dateien nach einer Installation und benachrichtigt alle anderen laufenden
+     * Transaktionen, die eine dieser Dateien verwenden. Wird unter den Commit-Sperren aufgerufen.
+     * @param source Die committende Transaktion, die selbst nicht benachrichtigt wird
+     */
+    void bumpFileVersions(Collection<File> files, Transaction source) {
+        for (File file : files) {
+            Path key = versionKey(file);
+            fileVersions.computeIfAbsent(key, k -> new AtomicLong()).incrementAndGet();
+            notifyWatchers(key, source);
+        }
+    }
+
+    /**
+     * Macht alle bisher gelesenen Versionen ungültig, z.B. nach einem Rollback des ganzen Datasets.
+     */
+    void invalidateFileVersions() {
+        for (AtomicLong version : fileVersions.values()) {
+            version.incrementAndGet();
+        }
+        notifyWatchers(null, null);
+    }
+
+    /**
+     * Meldet, dass die Transaktion auf die Datei zugreift und über Änderungen benachrichtigt werden möchte.
+     */
+    void watchFile(Transaction transaction, File file) {
+        Path key = versionKey(file);
+        watchers.compute(key, (k, transactions) -> {
+            if (transactions == null) {
+                transactions = new ConcurrentHashMap<>();
+            }
+            transactions.put(transaction, file);
+            return transactions;
+        });
+        if (externalChangeDetection != ExternalChangeDetection.NONE) {
+            fileChangeWatcher.watchDirectory(key.getParent());
+        }
+    }
+
+    /**
+     * Beendet die Benachrichtigungen für eine abgeschlossene Transaktion.
+     */
+    void unwatchFiles(Transaction transaction, Collection<File> files) {
+        for (File file : files) {
+            watchers.computeIfPresent(versionKey(file), (k, transactions) -> {
+                transactions.remove(transaction);
+                return transactions.isEmpty() ? null : transactions;
+            });
+        }
+    }
+
+    /**
+     * @return Anzahl der Wiederholungen, die runInTransaction nach Konflikten ausgeführt hat.
+     */
+    public long getRetryCount() {
+        return retries.get();
+    }
+
+    /**
+     * @return Beobachtete Konfliktrate der Datei zwischen 0 (nie) und 1 (jeder Commit scheitert an ihr).
+     */
+    public double getConflictRate(File file) {
+        return contentionTracker.conflictRate(Collections.singleton(file));
+    }
+
+    /**
+     * Legt fest, ab welcher Konfliktrate eine Datei pessimistisch mit Leases gesperrt wird (Standard: 0,5)
+     * und unterhalb welcher Rate sie wieder optimistisch validiert wird (Standard: 0,2).
+     * Ein hotThreshold größer als 1 deaktiviert den pessimistischen Modus.
+     */
+    public void setPessimisticThresholds(double hotThreshold, double coolThreshold) {
+        contentionTracker.setThresholds(hotThreshold, coolThreshold);
+    }
+
+    /**
+     * Legt fest, wie lange eine Transaktion höchstens auf eine Lease wartet, bevor sie als gescheitert
+     * abgebrochen wird (Standard: 30 s). Das löst auch Verklemmungen zwischen Transaktionen auf mehreren heißen Dateien.
+     */
+    public void setLeaseTimeoutMillis(long leaseTimeoutMillis) {
+        this.leaseTimeoutMillis = leaseTimeoutMillis;
+    }
+
+    public long getLeaseTimeoutMillis() {
+        return leaseTimeoutMillis;
+    }
+
+    /**
+     * @return Anzahl der Dateien, die derzeit pessimistisch gesperrt werden.
+     */
+    public int getHotFileCount() {
+        return contentionTracker.hotCount();
+    }
+
+    boolean isHot(File file) {
+        return contentionTracker.isHot(file);
+    }
+
+    LeaseTable getLeaseTable() {
+        return leaseTable;
+    }
+
+    void recordContention(Collection<File> files, File conflictingFile) {
+        contentionTracker.record(files, conflictingFile);
+    }
+
+    void recordTransactionDoomed() {
+        transactionsDoomed.incrementAndGet();
+    }
+
+    /**
+     * Lässt die Transaktionen, die die Datei verwenden, prüfen, ob sie dadurch gescheitert sind.
+     * @param key Geänderter Pfad, oder null für alle überwachten Pfade
+     */
+    private void notifyWatchers(Path key, Transaction source) {
+        if (key == null) {
+            for (Path watched : watchers.keySet()) {
+                notifyWatchers(watched, source);
+            }
+            return;
+        }
+        Map<Transaction, File> transactions = watchers.get(key);
+        if (transactions == null) {
+            return;
+        }
+        for (Map.Entry<Transaction, File> entry : transactions.entrySet()) {
+            if (entry.getKey() != source) {
+                entry.getKey().checkForConflict(entry.getValue());
+            }
+        }
+    }
+
+    private static Path versionKey(File file) {
+        return file.toPath().toAbsolutePath().normalize();
+    }
+
+    GroupCommit getGroupCommit() {
+        return groupCommit;
+    }
+
+    StripedLocks getCommitLocks() {
+        return commitLocks;
+    }
+
+    ParallelIo getParallelIo() {
+        return parallelIo;
+    }
+
+    /**
+     * Legt fest, wie viele Dateien Commits höchstens gleichzeitig hashen, bereitstellen bzw. per fsync
+     * synchronisieren (Standard: Anzahl der Prozessoren, mindestens 4). Die Grenze gilt für die Hilfs-Threads
+     * aller Commits zusammen (threads - 1); jeder committende Thread arbeitet zusätzlich selbst mit.
+     * Bei SSDs mit tiefer Warteschlange kann ein höherer Wert lohnen, 1 arbeitet alle Dateien im Thread des
+     * Commits ab. Transaktionen mit weniger als 8 Dateien werden immer im Thread des Commits abgearbeitet.
+     */
+    public void setCommitParallelism(int threads) {
+        parallelIo.setParallelism(threads);
+    }
+
+    public int getCommitParallelism() {
+        return parallelIo.getParallelism();
+    }
+
+    /**
+     * Legt fest, welche freigegebenen Snapshots der Hintergrund-Reaper noch behält.
+     * Standard ist 0/0, d.h. Snapshots werden beim nächsten Durchlauf gelöscht.
+     * @param keepLast Anzahl der zuletzt freigegebenen Snapshots, die immer behalten werden
+     * @param keepForMinutes Zeit in Minuten, die ein freigegebener Snapshot mindestens erhalten bleibt
+     */
+    public void setSnapshotRetention(int keepLast, long keepForMinutes) {
+        snapshotReaper.setRetention(keepLast, keepForMinutes);
+    }
+
+    /**
+     * Legt fest, in welchem Abstand der Reaper freigegebene Snapshots löscht (Standard: 1000 ms).
+     * Wirkt ab dem nächsten Start des Reapers.
+     */
+    public void setSnapshotReapIntervalMillis(long intervalMillis) {
+        snapshotReaper.setIntervalMillis(intervalMillis);
+    }
+
+    /**
+     * @return Anzahl der Snapshots dieses Managers, die derzeit noch existieren
+     *         (in Benutzung oder auf das Löschen durch den Reaper wartend).
+     */
+    public long getLiveSnapshotCount() {
+        return snapshotsCreated.get() + orphanedSnapshots.get() - snapshotReaper.getSnapshotsDestroyed();
+    }
+
+    /**
+     * @return Anzahl der freigegebenen Snapshots, die der Reaper noch nicht gelöscht hat, z.B. wegen der
+     *         Aufbewahrungsregeln oder weil das Löschen fehlgeschlagen ist und im nächsten Durchlauf wiederholt wird.
+     */
+    public int getPendingSnapshotCount() {
+        return snapshotReaper.getPendingCount();
+    }
+
+    /**
+     * @return Vom Reaper gelöschte Snapshots pro Sekunde im letzten Durchlauf.
+     */
+    public double getSnapshotReapRate() {
+        return snapshotReaper.getReapRatePerSecond();
+    }
+
+    /**
+     * @return Anzahl der Transaktionen, die ohne Snapshot committed oder zurückgesetzt wurden.
+     */
+    public long getSnapshotsAvoided() {
+        return snapshotsAvoided.get();
+    }
+
+    /**
+     * @return Anzahl der tatsächlich beim Backend erstellten Snapshots.
+     */
+    public long getSnapshotsCreated() {
+        return snapshotsCreated.get();
+    }
+
+    /**
+     * @return Anzahl der Transaktionen, die einen bereits vorhandenen Snapshot mitbenutzt haben.
+     */
+    public long getSnapshotsShared() {
+        return snapshotsShared.get();
+    }
+
+    /**
+     * @return Laufzeiten der Phasen und weitere Zähler dieses Managers.
+     */
+    public TransactionMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * @return Latenzen von beginTransaction in Nanosekunden.
+     */
+    public LatencyHistogram getBeginLatency() {
+        return metrics.getLatency(TransactionPhase.BEGIN);
+    }
+
+    /**
+     * @return Latenzen erfolgreicher Commits in Nanosekunden, einschließlich Validierung, Installation und fsync.
+     */
+    public LatencyHistogram getCommitLatency() {
+        return metrics.getLatency(TransactionPhase.COMMIT);
+    }
+
+    /**
+     * @return Latenzen von Rollbacks in Nanosekunden; gescheiterte Commits zählen hier mit ihrem Rollback.
+     */
+    public LatencyHistogram getRollbackLatency() {
+        return metrics.getLatency(TransactionPhase.ROLLBACK);
+    }
+
+    /**
+     * @return Anzahl der Transaktionen, die vor ihrem Commit über einen Konflikt benachrichtigt wurden.
+     */
+    public long getTransactionsDoomed() {
+        return transactionsDoomed.get();
+    }
+
+    void recordSnapshotAvoided() {
+        snapshotsAvoided.incrementAndGet();
+    }
+
+    void recordCommit() {
+        commitEpoch.incrementAndGet();
+    }
+
+    /**
+     * Liefert einen Snapshot für die Transaktion.
+     * Ist der aktuelle Snapshot jünger als das Zeitfenster und seitdem kein Commit erfolgt, wird er geteilt
+     * (auch wenn seine Erstellung noch läuft); andernfalls wird ein neuer Snapshot erstellt.
+     * Jeder Aufruf muss mit releaseSnapshot wieder freigegeben werden.
+     */
+    String acquireSnapshot(String transactionId) throws IOException, InterruptedException {
+        SharedSnapshot snapshot;
+        boolean creator = false;
+        synchronized (this) {
+            long now = System.nanoTime();
+            long windowNanos = snapshotCoalescingWindowMillis * 1_000_000L;
+            if (currentSnapshot != null
+                    && currentSnapshot.epoch == commitEpoch.get()
+                    && now - currentSnapshot.createdAt <= windowNanos) {
+                snapshot = currentSnapshot;
+                snapshot.refCount++;
+                snapshotsShared.incrementAndGet();
+            } else {
+                snapshot = new SharedSnapshot(now, commitEpoch.get());
+                currentSnapshot = snapshot;
+                creator = true;
+            }
+        }
+        if (creator) {
+            // Die Erstellung läuft außerhalb der Sperre; gleichzeitig ankommende Transaktionen warten auf das Ergebnis.
+            try {
+                long start = System.nanoTime();
+                String name = snapshotBackend.createSnapshot(transactionId);
+                metrics.record(TransactionPhase.SNAPSHOT_CREATE, start);
+                snapshotsCreated.incrementAndGet();
+                synchronized (this) {
+                    sharedSnapshots.put(name, snapshot);
+                }
+                snapshot.name.complete(name);
+            } catch (IOException | InterruptedException | RuntimeException e) {
+                synchronized (this) {
+                    if (currentSnapshot == snapshot) {
+                        currentSnapshot = null;
+                    }
+                }
+                snapshot.name.completeExceptionally(e);
+                throw e;
+            }
+        }
+        try {
+            return snapshot.name.get();
+        } catch (ExecutionException e) {
+            throw new IOException("Gemeinsamer Snapshot konnte nicht erstellt werden", e.getCause());
+        }
+    }
+
+    /**
+     * Gibt eine Referenz auf den Snapshot zurück.
+     * Nach der letzten Referenz wird der Snapshot dem Reaper zum Löschen übergeben.
+     */
+    void releaseSnapshot(String snapshotName) {
+        synchronized (this) {
+            SharedSnapshot snapshot = sharedSnapshots.get(snapshotName);
+            if (snapshot == null || --snapshot.refCount > 0) {
+                return;
+            }
+            sharedSnapshots.remove(snapshotName);
+            if (currentSnapshot == snapshot) {
+                currentSnapshot = null;
+            }
+        }
+        snapshotReaper.enqueue(snapshotName);
+    }
+
+    /**
+     * Beendet den eigenen asynchronen Executor und wartet, bis seine laufenden und bereits übergebenen Aufgaben
+     * abgearbeitet sind; erst danach werden die Helfer für Commits, die Dateiüberwachung und der Snapshot-Reaper
+     * beendet, freigegebene Snapshots werden dabei nach den Aufbewahrungsregeln gelöscht.
+     * Ein Fingerprint-Cache mit Sicherungsdatei wird gespeichert, die JMX-Registrierung wird aufgehoben.
+     * Das Intent-Log wird geschlossen und gelöscht, sofern kein Commit mehr offen ist.
+     * Wird der aufrufende Thread beim Warten unterbrochen, wird ohne weiteres Warten geschlossen.
+     */
+    @Override
+    public void close() {
+        ExecutorService ownExecutor = null;
+        synchronized (this) {
+            if (ownsAsyncExecutor) {
+                ownExecutor = asyncExecutor;
+                ownExecutor.shutdown();
+            }
+            if (metricsName != null) {
+                try {
+                    ManagementFactory.getPlatformMBeanServer().unregisterMBean(metricsName);
+                } catch (JMException e) {
+                    TransactionLog.warn("Metriken konnten nicht abgemeldet werden: " + e.getMessage());
+                }
+                metricsName = null;
+            }
+        }
+        // Außerhalb der Sperre, da die Aufgaben selbst synchronisierte Methoden des Managers aufrufen.
+        if (ownExecutor != null) {
+            awaitAsyncTasks(ownExecutor);
+        }
+        fileChangeWatcher.close();
+        snapshotReaper.close();
+        parallelIo.close();
+        if (intentLog != null) {
+            try {
+                intentLog.close();
+            } catch (IOException e) {
+                TransactionLog.warn("Intent-Log konnte nicht geschlossen werden: " + e.getMessage());
+            }
+        }
+        FingerprintCache cache = fingerprintCache;
+        if (cache != null) {
+            try {
+                cache.save();
+            } catch (IOException e) {
+                TransactionLog.warn("Fingerprint-Cache konnte nicht gespeichert werden: " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Wartet, bis der beendete Executor alle Aufgaben abgearbeitet hat, und meldet regelmäßig, worauf gewartet wird.
+     */
+    private static void awaitAsyncTasks(ExecutorService executor) {
+        try {
+            while (!executor.awaitTermination(10, TimeUnit.SECONDS)) {
+                TransactionLog.info("Warte auf laufende asynchrone Transaktionen ...");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            TransactionLog.warn("Warten auf asynchrone Transaktionen unterbrochen; Manager wird trotzdem geschlossen.");
+        }
+    }
+
+    /**
+     * Ein Snapshot, der von mehreren Transaktionen gemeinsam genutzt wird.
+     */
+    private static final class SharedSnapshot {
+        final CompletableFuture<String> name = new CompletableFuture<>();
+        final long createdAt;
+        final long epoch;
+        int refCount = 1;
+
+        SharedSnapshot(long createdAt, long epoch) {
+            this.createdAt = createdAt;
+            this.epoch = epoch;
+        }
     }
 }
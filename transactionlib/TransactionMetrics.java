@@ -0,0 +1,217 @@
+package transactionlib;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.LongAdder;
+
+public class TransactionMetrics implements TransactionMetricsMXBean {
+    // Sammelt Laufzeiten und Zähler eines TransactionManagers mit geringem Aufwand: ein LatencyHistogram pro
+    // TransactionPhase und LongAdder für Zähler, die von vielen Threads gleichzeitig erhöht werden.
+    // Die Snapshot-Zähler verwaltet weiterhin der Manager; sie werden hier nur durchgereicht.
+    // Der TransactionManager registriert die Metriken als MXBean, damit sie per JMX abrufbar sind.
+
+    // Höchstzahl der Pfade, für die Abbrüche einzeln gezählt werden.
+    private static final int MAX_TRACKED_PATHS = 10_000;
+    // Anzahl der Pfade, die getAbortsByPath liefert.
+    private static final int TOP_PATHS = 50;
+
+    private final TransactionManager transactionManager;
+    private final Map<TransactionPhase, LatencyHistogram> latencies = new EnumMap<>(TransactionPhase.class);
+    private final LongAdder activeTransactions = new LongAdder();
+    private final LongAdder bytesCopied = new LongAdder();
+    private final LongAdder appendCopyFallbacks = new LongAdder();
+    private final LongAdder blockDeltaFallbacks = new LongAdder();
+    private final Map<AbortReason, LongAdder> abortsByReason = new EnumMap<>(AbortReason.class);
+    private final ConcurrentHashMap<Path, LongAdder> abortsByPath = new ConcurrentHashMap<>();
+
+    TransactionMetrics(TransactionManager transactionManager) {
+        this.transactionManager = transactionManager;
+        for (TransactionPhase phase : TransactionPhase.values()) {
+            latencies.put(phase, new LatencyHistogram());
+        }
+        for (AbortReason reason : AbortReason.values()) {
+            abortsByReason.put(reason, new LongAdder());
+        }
+    }
+
+    /**
+     * @return Das Histogramm der Phase in Nanosekunden.
+     */
+    public LatencyHistogram getLatency(TransactionPhase phase) {
+        return latencies.get(phase);
+    }
+
+    /**
+     * Erfasst die Dauer einer Phase, die zum Zeitpunkt startNanos (System.nanoTime) begonnen hat.
+     */
+    void record(TransactionPhase phase, long startNanos) {
+        latencies.get(phase).record(System.nanoTime() - startNanos);
+    }
+
+    void transactionStarted() {
+        activeTransactions.increment();
+    }
+
+    void transactionFinished() {
+        activeTransactions.decrement();
+    }
+
+    void recordBytesCopied(long bytes) {
+        bytesCopied.add(bytes);
+    }
+
+    void recordAppendCopyFallback() {
+        appendCopyFallbacks.increment();
+    }
+
+    void recordBlockDeltaFallback() {
+        blockDeltaFallbacks.increment();
+    }
+
+    /**
+     * Zählt einen Abbruch.
+     * @param file Die auslösende Datei, oder null, falls keine bestimmte Datei verantwortlich ist
+     */
+    void recordAbort(AbortReason reason, File file) {
+        abortsByReason.get(reason).increment();
+        if (file == null) {
+            return;
+        }
+        Path key = file.toPath().toAbsolutePath().normalize();
+        LongAdder counter = abortsByPath.get(key);
+        if (counter == null) {
+            if (abortsByPath.size() >= MAX_TRACKED_PATHS) {
+                return;
+            }
+            counter = abortsByPath.computeIfAbsent(key, k -> new LongAdder());
+        }
+        counter.increment();
+    }
+
+    @Override
+    public long getActiveTransactions() {
+        return activeTransactions.sum();
+    }
+
+    @Override
+    public long getLiveSnapshots() {
+        return transactionManager.getLiveSnapshotCount();
+    }
+
+    @Override
+    public int getPendingSnapshots() {
+        return transactionManager.getPendingSnapshotCount();
+    }
+
+    @Override
+    public long getSnapshotsCreated() {
+        return transactionManager.getSnapshotsCreated();
+    }
+
+    @Override
+    public long getSnapshotsShared() {
+        return transactionManager.getSnapshotsShared();
+    }
+
+    @Override
+    public long getSnapshotsAvoided() {
+        return transactionManager.getSnapshotsAvoided();
+    }
+
+    @Override
+    public long getCommits() {
+        return latencies.get(TransactionPhase.COMMIT).getCount();
+    }
+
+    @Override
+    public long getRollbacks() {
+        return latencies.get(TransactionPhase.ROLLBACK).getCount();
+    }
+
+    @Override
+    public long getTransactionsDoomed() {
+        return transactionManager.getTransactionsDoomed();
+    }
+
+    @Override
+    public long getRetries() {
+        return transactionManager.getRetryCount();
+    }
+
+    @Override
+    public long getBytesCopied() {
+        return bytesCopied.sum();
+    }
+
+    @Override
+    public long getAppendCopyFallbacks() {
+        return appendCopyFallbacks.sum();
+    }
+
+    @Override
+    public long getBlockDeltaFallbacks() {
+        return blockDeltaFallbacks.sum();
+    }
+
+    @Override
+    public long getInMemoryWorkingCopyBytes() {
+        return transactionManager.getInMemoryWorkingCopyBytes();
+    }
+
+    @Override
+    public long getWorkingCopySpills() {
+        return transactionManager.getWorkingCopySpillCount();
+    }
+
+    @Override
+    public Map<String, Long> getAbortsByReason() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<AbortReason, LongAdder> entry : abortsByReason.entrySet()) {
+            result.put(entry.getKey().name(), entry.getValue().sum());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getAbortsByPath() {
+        List<Map.Entry<Path, Long>> counts = new ArrayList<>();
+        for (Map.Entry<Path, LongAdder> entry : abortsByPath.entrySet()) {
+            counts.add(Map.entry(entry.getKey(), entry.getValue().sum()));
+        }
+        counts.sort(Map.Entry.<Path, Long>comparingByValue().reversed());
+        Map<String, Long> result = new LinkedHashMap<>();
+        for (Map.Entry<Path, Long> entry : counts.subList(0, Math.min(TOP_PATHS, counts.size()))) {
+            result.put(entry.getKey().toString(), entry.getValue());
+        }
+        return result;
+    }
+
+    @Override
+    public Map<String, LatencySummary> getPhaseLatencies() {
+        Map<String, LatencySummary> result = new LinkedHashMap<>();
+        for (Map.Entry<TransactionPhase, LatencyHistogram> entry : latencies.entrySet()) {
+            result.put(entry.getKey().name(), entry.getValue().summary());
+        }
+        return result;
+    }
+
+    @Override
+    public void reset() {
+        for (LatencyHistogram histogram : latencies.values()) {
+            histogram.reset();
+        }
+        for (LongAdder counter : abortsByReason.values()) {
+            counter.reset();
+        }
+        abortsByPath.clear();
+        bytesCopied.reset();
+        appendCopyFallbacks.reset();
+        blockDeltaFallbacks.reset();
+    }
+}
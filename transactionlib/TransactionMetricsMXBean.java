@@ -0,0 +1,90 @@
+package transactionlib;
+
+import java.util.Map;
+
+/**
+ * JMX-Schnittstelle der Metriken eines TransactionManagers, registriert unter
+ * "transactionlib:type=TransactionManager,id=<n>" (z.B. in JConsole oder VisualVM sichtbar).
+ */
+public interface TransactionMetricsMXBean {
+
+    /**
+     * @return Anzahl der Transaktionen, die begonnen, aber weder committed noch zurückgesetzt wurden.
+     */
+    long getActiveTransactions();
+
+    /**
+     * @return Anzahl der Snapshots, die noch existieren (in Benutzung oder auf das Löschen wartend).
+     */
+    long getLiveSnapshots();
+
+    /**
+     * @return Anzahl der freigegebenen Snapshots, die auf das Löschen durch den Reaper warten.
+     */
+    int getPendingSnapshots();
+
+    long getSnapshotsCreated();
+
+    long getSnapshotsShared();
+
+    long getSnapshotsAvoided();
+
+    long getCommits();
+
+    long getRollbacks();
+
+    /**
+     * @return Anzahl der Transaktionen, die vor ihrem Commit über einen Konflikt benachrichtigt wurden.
+     */
+    long getTransactionsDoomed();
+
+    long getRetries();
+
+    /**
+     * @return Bytes, die für Arbeitskopien, Bereitstellung und dateiweise Rollbacks kopiert wurden.
+     */
+    long getBytesCopied();
+
+    /**
+     * @return Anzahl der appendFile-Commits, die die ganze Datei kopiert haben, statt nur das Delta anzuhängen,
+     *         weil die Live-Datei ihren Inode teilt (z.B. mit einem Hardlink-Snapshot des LocalSnapshotBackend).
+     */
+    long getAppendCopyFallbacks();
+
+    /**
+     * @return Anzahl der großen Arbeitskopien, die vollständig bereitgestellt wurden, ohne die blockweise Übernahme
+     *         zu prüfen: ohne Intent-Log, ohne dauerhafte Commits oder weil die Live-Datei ihren Inode teilt.
+     */
+    long getBlockDeltaFallbacks();
+
+    /**
+     * @return Bytes, die derzeit von Arbeitskopien im Speicher belegt sind.
+     */
+    long getInMemoryWorkingCopyBytes();
+
+    /**
+     * @return Anzahl der Schreibzugriffe, deren Arbeitskopie im Arbeitsbereich statt im Speicher abgelegt wurde.
+     */
+    long getWorkingCopySpills();
+
+    /**
+     * @return Abbruchgrund (siehe AbortReason) -> Anzahl.
+     */
+    Map<String, Long> getAbortsByReason();
+
+    /**
+     * @return Pfad -> Anzahl der Abbrüche, die diese Datei ausgelöst hat; die am häufigsten betroffenen Pfade zuerst.
+     */
+    Map<String, Long> getAbortsByPath();
+
+    /**
+     * @return Phase (siehe TransactionPhase) -> Latenzkennzahlen in Nanosekunden.
+     */
+    Map<String, LatencySummary> getPhaseLatencies();
+
+    /**
+     * Setzt Histogramme und Zähler dieser Metriken zurück, z.B. nach einer Aufwärmphase.
+     * Aktive Transaktionen und die Snapshot-Zähler des Managers bleiben unverändert.
+     */
+    void reset();
+}
@@ -0,0 +1,25 @@
+package transactionlib;
+
+/**
+ * Abschnitte einer Transaktion, deren Dauer TransactionMetrics getrennt erfasst.
+ */
+public enum TransactionPhase {
+    // beginTransaction, ohne Snapshot (der entsteht erst beim ersten Schreibzugriff).
+    BEGIN,
+    // Erstellung eines Snapshots durch das Backend; geteilte Snapshots werden nur einmal gezählt.
+    SNAPSHOT_CREATE,
+    // Kopieren von Dateiinhalten: Arbeitskopien anlegen und zur Installation bereitstellen.
+    WORKING_COPY,
+    // Ermitteln von Zeitstempel und Inhalts-Hash einer Datei, einschließlich Treffern im Fingerprint-Cache.
+    HASH,
+    // Eine Konfliktprüfung beim Commit (ohne und unter den Commit-Sperren je einmal).
+    VALIDATE,
+    // Übernahme der Änderungen ins Live-Dateisystem einschließlich fsync.
+    INSTALL,
+    // Ein erfolgreicher Commit insgesamt.
+    COMMIT,
+    // Ein Rollback insgesamt, auch nach einem Konflikt im Commit.
+    ROLLBACK,
+    // Laufzeit eines externen Prozesses, z.B. "zfs snapshot", vom Start bis zum Ende.
+    PROCESS_SPAWN
+}
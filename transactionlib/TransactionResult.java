@@ -0,0 +1,46 @@
+package transactionlib;
+
+/**
+ * Ergebnis von TransactionManager.runInTransaction.
+ */
+public class TransactionResult<T> {
+    // Enthält neben dem Rückgabewert des Rumpfes, wie viele Versuche nötig waren und ob
+    // der letzte Versuch committed wurde oder die RetryPolicy die Wiederholungen beendet hat.
+
+    private final T value;
+    private final boolean committed;
+    private final int attempts;
+    private final long elapsedMillis;
+
+    public TransactionResult(T value, boolean committed, int attempts, long elapsedMillis) {
+        this.value = value;
+        this.committed = committed;
+        this.attempts = attempts;
+        this.elapsedMillis = elapsedMillis;
+    }
+
+    /**
+     * @return Rückgabewert des Rumpfes im erfolgreichen Versuch, oder null, falls nicht committed wurde.
+     */
+    public T getValue() {
+        return value;
+    }
+
+    public boolean isCommitted() {
+        return committed;
+    }
+
+    /**
+     * @return Anzahl der Versuche einschließlich des letzten.
+     */
+    public int getAttempts() {
+        return attempts;
+    }
+
+    /**
+     * @return Gesamtdauer aller Versuche einschließlich der Wartezeiten.
+     */
+    public long getElapsedMillis() {
+        return elapsedMillis;
+    }
+}
@@ -5,8 +5,9 @@ import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Random;
+import java.util.Locale;
 import java.util.concurrent.*;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
@@ -18,112 +19,633 @@ import java.util.concurrent.atomic.AtomicLong;
  * um Konflikte zu erzeugen und die Robustheit des Systems zu testen.
  * Es werden Metriken erhoben wie:
  * - Erfolgreiche Commits vs. Konflikte (Rollbacks)
- * - Durchschnittliche Transaktionsdauer
+ * - Anzahl der Versuche pro Transaktion
+ * - Latenz-Histogramme (p50/p99/p999, Nanosekunden) für jede TransactionPhase und ganze Transaktionen
+ * - Durchsatz pro Zeitintervall
  *
- * Neuerungen für erhöhte Konfliktwahrscheinlichkeit:
+ * Standardlast (ohne Argumente), ausgelegt auf eine hohe Konfliktwahrscheinlichkeit:
  *  - Nur 1 Datei (file1.txt), damit sich alle Transaktionen wirklich "in die Quere kommen".
  *  - 10 zufällige Operationen pro Transaktion (jeweils 90% Schreibwahrscheinlichkeit).
+ *    Geschrieben wird per appendFile; Konflikte entstehen nur für Transaktionen, die die Datei auch gelesen haben.
  *  - Nach jeder Operation ein Thread.sleep(...) zwischen 1000ms und 5000ms,
  *    um die Transaktion zu verlängern und Überschneidungen zu provozieren.
- *  - 100 Threads, 200 Transaktionen (anpassbar).
+ *  - 100 Threads, 200 Transaktionen.
+ *  - Wird eine gelesene Datei inzwischen von einer anderen Transaktion geändert, bricht die Transaktion
+ *    beim nächsten Zugriff ab (TransactionConflictException), statt bis zum Commit weiterzulaufen.
+ *  - Gescheiterte Transaktionen werden über runInTransaction mit Backoff wiederholt (--max-attempts, --deadline).
+ *
+ * Alle Parameter lassen sich über die Kommandozeile ändern (siehe --help), z.B.
+ *   java transactionlib.ValidationTool --files 1000 --skew zipf:1.1 --duration 60 --rate 500 --report json
+ * Ohne --rate arbeitet das Tool geschlossen: --threads Worker starten jeweils nach dem Ende einer Transaktion
+ * die nächste (mit --async auf virtuellen Threads). Mit --rate werden Transaktionen offen mit fester
+ * Ankunftsrate gestartet, unabhängig davon, ob frühere schon fertig sind; die Transaktionslatenz zählt dann
+ * ab dem geplanten Startzeitpunkt, damit Rückstau nicht aus der Messung verschwindet.
+ * Die frühere Form "async [Transaktionen] [Dateien]" wird weiterhin verstanden.
  */
 public class ValidationTool {
 
     public static void main(String[] args) throws Exception {
-        // 1) ZFS-Dataset und Manager-Klassen initialisieren
-        String dataset = "testpool/mydata";  // Anpassen an dein ZFS-Dataset
-        ZfsManager zfsManager = new ZfsManager(dataset);
-        TransactionManager txManager = new TransactionManager(zfsManager);
+        Config config;
+        try {
+            config = Config.parse(args);
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println(Config.USAGE);
+            System.exit(2);
+            return;
+        }
+        if (config.help) {
+            System.out.println(Config.USAGE);
+            return;
+        }
+
+        if (config.quiet) {
+            TransactionLog.setEnabled(false);
+        }
+        if (config.async && !TransactionManager.supportsVirtualThreads()) {
+            System.err.println("Diese JVM bietet keine virtuellen Threads: --async läuft auf höchstens "
+                    + TransactionManager.PLATFORM_THREAD_LIMIT + " Plattform-Threads und misst nicht die Skalierung "
+                    + "mit virtuellen Threads (dafür mit Java 21 starten).");
+        }
 
-        // 2) Verzeichnis und Dateien für die Validierung anlegen
+        // 1) Verzeichnis für die Validierung anlegen
         File sharedDir = new File("validation");
         if (!sharedDir.exists()) {
             sharedDir.mkdir();
         }
-        
-        // Nur 1 Datei => Konfliktwahrscheinlichkeit steigt
-        File file = new File(sharedDir, "file1.txt");
-        if (!file.exists()) {
-            Files.write(file.toPath(), "Initial content\n".getBytes(StandardCharsets.UTF_8));
-        }
-
-        // 3) Parameter für die Simulation
-        final int numberOfTransactions = 200;   // Anzahl Transaktionen insgesamt
-        final int concurrentThreads = 100;       // Anzahl Threads, die parallel Transaktionen starten
-        final double writeProbability = 0.9;    // 90% Schreibzugriffe, 10% nur Lesen
-        final int operationsPerTransaction = 10; // Mehrere Operationen pro Transaktion
-        final int minSleepMs = 1000;             // Minimale künstliche Wartezeit
-        final int maxSleepMs = 5000;             // Maximale künstliche Wartezeit
-
-        // Thread-Pool für parallele Ausführung
-        ExecutorService executor = Executors.newFixedThreadPool(concurrentThreads);
-        List<Future<?>> futures = new ArrayList<>();
-
-        // Metriken: Erfolgszähler, Konfliktzähler, Summenzeiten
-        AtomicInteger successCount = new AtomicInteger(0);
-        AtomicInteger conflictCount = new AtomicInteger(0);
-        AtomicLong totalTransactionTime = new AtomicLong(0);
-
-        Random random = new Random();
-
-        // 4) Starte die Transaktionen in parallelen Threads
-        for (int i = 0; i < numberOfTransactions; i++) {
-            Future<?> future = executor.submit(() -> {
-                long startTime = System.currentTimeMillis();
-                try {
-                    // Beginne eine neue Transaktion
-                    Transaction tx = txManager.beginTransaction();
-
-                    // Führe mehrere Operationen in dieser Transaktion durch
-                    for (int op = 0; op < operationsPerTransaction; op++) {
-                        // Mit hoher Wahrscheinlichkeit: Schreibzugriff, sonst nur Lesen
-                        if (random.nextDouble() < writeProbability) {
-                            String currentContent = tx.readFile(file);
-                            String randomText = "RandomText_" + random.nextInt(1000) + "\n";
-                            String newContent = currentContent + randomText;
-                            tx.writeFile(file, newContent);
-                        } else {
-                            // Nur Lesen
-                            tx.readFile(file);
-                        }
 
-                        // Künstliche Verzögerung, um Überlappungen zu erhöhen
-                        int sleepTime = random.nextInt(maxSleepMs - minSleepMs + 1) + minSleepMs;
-                        Thread.sleep(sleepTime);
-                    }
+        // 2) ZFS-Dataset und Manager-Klassen initialisieren
+        String dataset = "testpool/mydata";  // Anpassen an dein ZFS-Dataset
+        SnapshotBackend snapshotBackend = SnapshotBackend.fromSystemProperties(dataset, sharedDir);
+        TransactionManager txManager = new TransactionManager(snapshotBackend);
+
+        // 3) Dateien anlegen; welche Datei eine Transaktion verwendet, bestimmt die Schlüsselverteilung.
+        File[] files = new File[config.files];
+        for (int i = 0; i < config.files; i++) {
+            files[i] = new File(sharedDir, "file" + (i + 1) + ".txt");
+            if (!files[i].exists()) {
+                Files.write(files[i].toPath(), "Initial content\n".getBytes(StandardCharsets.UTF_8));
+            }
+        }
+        KeyDistribution keys = config.zipfExponent > 0
+                ? new ZipfDistribution(config.files, config.zipfExponent)
+                : random -> random.nextInt(config.files);
+
+        // Eine Transaktion: mehrere Operationen auf einer Datei mit künstlichen Pausen (Think Time).
+        TransactionBody<Void> body = tx -> {
+            ThreadLocalRandom random = ThreadLocalRandom.current();
+            File file = files[keys.next(random)];
+            // Führe mehrere Operationen in dieser Transaktion durch
+            for (int op = 0; op < config.operations; op++) {
+                // Mit Wahrscheinlichkeit writeRatio: Schreibzugriff (Anhängen), sonst nur Lesen
+                if (random.nextDouble() < config.writeRatio) {
+                    String randomText = "RandomText_" + random.nextInt(1000) + "\n";
+                    tx.appendFile(file, randomText.getBytes(StandardCharsets.UTF_8));
+                } else {
+                    // Nur Lesen
+                    tx.readFile(file);
+                }
+
+                // Künstliche Verzögerung, um Überlappungen zu erhöhen;
+                // eine bereits gescheiterte Transaktion wartet nicht weiter, sondern bricht beim nächsten Zugriff ab.
+                if (config.maxThinkMs > 0 && !tx.isDoomed()) {
+                    Thread.sleep(random.nextLong(config.minThinkMs, config.maxThinkMs + 1));
+                }
+            }
+            return null;
+        };
+
+        // 4) Last erzeugen.
+        // runInTransaction wiederholt eine Transaktion nach einem Konflikt mit zufällig gestreuter Wartezeit;
+        // die Deadline begrenzt die Gesamtdauer einer Transaktion einschließlich aller Wiederholungen.
+        RetryPolicy retryPolicy = new RetryPolicy(config.maxAttempts, 100, 2000, config.deadlineMs);
+        LoadRun run = new LoadRun(config, txManager, body, retryPolicy);
+        run.execute();
+        txManager.close();
+
+        // 5) Ausgabe der Metriken
+        run.printSummary();
+        if (config.reportFormat != null) {
+            File reportFile = new File(config.reportFile != null ? config.reportFile
+                    : "validation-report." + config.reportFormat);
+            String report = config.reportFormat.equals("json") ? run.toJson() : run.toCsv();
+            Files.write(reportFile.toPath(), report.getBytes(StandardCharsets.UTF_8));
+            System.out.println("Bericht geschrieben: " + reportFile.getAbsolutePath());
+        }
+    }
+
+    /**
+     * Ein Lastlauf mit seinen Messwerten.
+     */
+    private static final class LoadRun {
+        private final Config config;
+        private final TransactionManager txManager;
+        private final TransactionBody<Void> body;
+        private final RetryPolicy retryPolicy;
+
+        // Begonnene Transaktionen (für die Abbruchbedingung) und Zähler der Ergebnisse.
+        private final AtomicInteger started = new AtomicInteger();
+        private final AtomicLong committed = new AtomicLong();
+        private final AtomicLong failed = new AtomicLong();
+        private final AtomicLong errors = new AtomicLong();
+        private final AtomicLong attempts = new AtomicLong();
+        // Dauer ganzer Transaktionen einschließlich aller Wiederholungen; nur abgeschlossene, ohne Exceptions.
+        private final LatencyHistogram transactionLatency = new LatencyHistogram();
+        private final List<long[]> throughput = new ArrayList<>();
+        // Wartet auf alle laufenden Transaktionen.
+        private final Phaser inFlight = new Phaser(1);
+        private long runStartNanos;
+        private long runNanos;
+
+        LoadRun(Config config, TransactionManager txManager, TransactionBody<Void> body, RetryPolicy retryPolicy) {
+            this.config = config;
+            this.txManager = txManager;
+            this.body = body;
+            this.retryPolicy = retryPolicy;
+        }
 
-                    // Versuche, die Transaktion zu committen (Konflikte => Rollback)
-                    boolean committed = tx.commit();
-                    long elapsed = System.currentTimeMillis() - startTime;
-                    totalTransactionTime.addAndGet(elapsed);
+        void execute() throws Exception {
+            ScheduledExecutorService sampler = Executors.newSingleThreadScheduledExecutor(task -> {
+                Thread thread = new Thread(task, "throughput-sampler");
+                thread.setDaemon(true);
+                return thread;
+            });
+            runStartNanos = System.nanoTime();
+            long intervalMillis = config.intervalSeconds * 1000L;
+            sampler.scheduleAtFixedRate(this::sample, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+            try {
+                if (config.rate > 0) {
+                    runOpenLoop();
+                } else if (config.async) {
+                    for (int i = 0; i < config.threads; i++) {
+                        startAsyncWorker();
+                    }
+                } else {
+                    runThreadPool();
+                }
+                inFlight.arriveAndAwaitAdvance();
+            } finally {
+                sampler.shutdownNow();
+            }
+            runNanos = System.nanoTime() - runStartNanos;
+            sample();
+        }
 
-                    if (committed) {
-                        successCount.incrementAndGet();
-                    } else {
-                        conflictCount.incrementAndGet();
+        /**
+         * Geschlossene Last: Jeder Worker-Thread startet nach dem Ende einer Transaktion die nächste.
+         */
+        private void runThreadPool() {
+            ExecutorService executor = Executors.newFixedThreadPool(config.threads);
+            for (int i = 0; i < config.threads; i++) {
+                inFlight.register();
+                executor.execute(() -> {
+                    try {
+                        while (claim()) {
+                            long start = System.nanoTime();
+                            try {
+                                record(txManager.runInTransaction(body, retryPolicy), start);
+                            } catch (IOException e) {
+                                errors.incrementAndGet();
+                                System.err.println("IOException: " + e.getMessage());
+                            } catch (Exception e) {
+                                errors.incrementAndGet();
+                                e.printStackTrace();
+                            }
+                        }
+                    } finally {
+                        inFlight.arriveAndDeregister();
                     }
+                });
+            }
+            executor.shutdown();
+        }
+
+        /**
+         * Geschlossene Last auf virtuellen Threads: Jeder Worker ist eine Kette von runInTransactionAsync-Aufrufen.
+         */
+        private void startAsyncWorker() {
+            if (!claim()) {
+                return;
+            }
+            inFlight.register();
+            runAsyncTransaction();
+        }
 
-                } catch (IOException e) {
-                    System.err.println("IOException: " + e.getMessage());
-                } catch (Exception e) {
-                    e.printStackTrace();
+        /**
+         * Startet eine bereits beanspruchte und registrierte Transaktion und danach die nächste des Workers.
+         * Die nächste wird registriert, bevor sich die beendete abmeldet; sonst könnte die Phase dazwischen enden
+         * und der Manager geschlossen werden, während der Worker noch Transaktionen startet.
+         */
+        private void runAsyncTransaction() {
+            long start = System.nanoTime();
+            txManager.runInTransactionAsync(body, retryPolicy).whenCompleteAsync((result, failure) -> {
+                boolean next = claim();
+                if (next) {
+                    inFlight.register();
+                }
+                complete(result, failure, start);
+                if (next) {
+                    runAsyncTransaction();
                 }
             });
-            futures.add(future);
         }
 
-        // 5) Warte auf Abschluss aller Transaktionen
-        for (Future<?> future : futures) {
-            future.get();
+        /**
+         * Offene Last: Transaktionen werden mit fester Rate gestartet, unabhängig von der Dauer früherer.
+         */
+        private void runOpenLoop() throws InterruptedException {
+            long intervalNanos = (long) (1e9 / config.rate);
+            long next = System.nanoTime();
+            while (claim()) {
+                long wait = next - System.nanoTime();
+                if (wait > 0) {
+                    TimeUnit.NANOSECONDS.sleep(wait);
+                }
+                // Die Latenz zählt ab dem geplanten Start, auch wenn der Scheduler selbst zu spät dran ist.
+                long intendedStart = next;
+                inFlight.register();
+                txManager.runInTransactionAsync(body, retryPolicy)
+                        .whenComplete((result, failure) -> complete(result, failure, intendedStart));
+                next += intervalNanos;
+            }
+        }
+
+        private void complete(TransactionResult<Void> result, Throwable failure, long start) {
+            try {
+                if (failure != null) {
+                    errors.incrementAndGet();
+                    System.err.println("Fehler: " + (failure.getCause() != null ? failure.getCause() : failure));
+                } else {
+                    record(result, start);
+                }
+            } finally {
+                inFlight.arriveAndDeregister();
+            }
+        }
+
+        private void record(TransactionResult<Void> result, long start) {
+            transactionLatency.record(System.nanoTime() - start);
+            attempts.addAndGet(result.getAttempts());
+            if (result.isCommitted()) {
+                committed.incrementAndGet();
+            } else {
+                failed.incrementAndGet();
+            }
         }
-        executor.shutdown();
 
-        // 6) Ausgabe der Metriken
-        System.out.println("=== Validierung abgeschlossen ===");
-        System.out.println("Gesamttransaktionen: " + numberOfTransactions);
-        System.out.println("Erfolgreiche Commits: " + successCount.get());
-        System.out.println("Rollbacks/Konflikte: " + conflictCount.get());
-        double avgTransactionTime = (double) totalTransactionTime.get() / numberOfTransactions;
-        System.out.println("Durchschnittliche Transaktionsdauer (ms): " + avgTransactionTime);
+        /**
+         * Reserviert die nächste Transaktion, solange weder die Anzahl noch die Laufzeit erreicht ist.
+         */
+        private boolean claim() {
+            if (config.durationSeconds > 0
+                    && System.nanoTime() - runStartNanos >= TimeUnit.SECONDS.toNanos(config.durationSeconds)) {
+                return false;
+            }
+            if (config.transactions <= 0) {
+                return true;
+            }
+            return started.getAndIncrement() < config.transactions;
+        }
+
+        /**
+         * Hält den Stand nach jedem Intervall fest: Sekunde seit Start, Commits und endgültige Fehlschläge insgesamt.
+         */
+        private synchronized void sample() {
+            long second = TimeUnit.NANOSECONDS.toSeconds(System.nanoTime() - runStartNanos);
+            long[] previous = throughput.isEmpty() ? new long[3] : throughput.get(throughput.size() - 1);
+            long[] current = {second, committed.get(), failed.get()};
+            if (!throughput.isEmpty() && previous[0] == second) {
+                throughput.set(throughput.size() - 1, current);
+                return;
+            }
+            throughput.add(current);
+            System.out.printf(Locale.ROOT, "[t=%ds] Commits: %d (+%d), gescheitert: %d (+%d)%n",
+                    second, current[1], current[1] - previous[1], current[2], current[2] - previous[2]);
+        }
+
+        private double commitsPerSecond() {
+            return committed.get() / Math.max(1e-9, runNanos / 1e9);
+        }
+
+        void printSummary() {
+            System.out.println("=== Validierung abgeschlossen ===");
+            System.out.println("Last: " + config.describe());
+            System.out.println("Laufzeit (ms): " + TimeUnit.NANOSECONDS.toMillis(runNanos)
+                    + ", Commits pro Sekunde: " + String.format(Locale.ROOT, "%.1f", commitsPerSecond()));
+            System.out.println("Abgeschlossene Transaktionen: " + transactionLatency.getCount()
+                    + " (Fehler mit Exception: " + errors.get() + ")");
+            System.out.println("Erfolgreiche Commits: " + committed.get());
+            System.out.println("Endgültig gescheitert (alle Versuche mit Konflikt): " + failed.get());
+            System.out.println("Versuche insgesamt: " + attempts.get()
+                    + " (Wiederholungen: " + txManager.getRetryCount()
+                    + ", vor dem Commit abgebrochen: " + txManager.getTransactionsDoomed() + ")");
+            for (TransactionPhase phase : TransactionPhase.values()) {
+                System.out.printf("Latenz %-16s %s%n", phase.name().toLowerCase(Locale.ROOT) + ":",
+                        txManager.getMetrics().getLatency(phase));
+            }
+            System.out.printf("Latenz %-16s %s (inkl. Wiederholungen)%n", "transaction:", transactionLatency);
+            System.out.println("Kopierte Bytes: " + txManager.getMetrics().getBytesCopied()
+                    + ", Anhängen mit vollständiger Kopie: " + txManager.getMetrics().getAppendCopyFallbacks()
+                    + ", große Dateien ohne blockweise Übernahme: " + txManager.getMetrics().getBlockDeltaFallbacks()
+                    + ", Abbrüche: " + txManager.getMetrics().getAbortsByReason());
+            System.out.println("Eingesparte Snapshots (reine Lesetransaktionen): " + txManager.getSnapshotsAvoided());
+            System.out.println("Erstellte Snapshots: " + txManager.getSnapshotsCreated()
+                    + ", geteilte Snapshots: " + txManager.getSnapshotsShared()
+                    + ", noch vorhanden: " + txManager.getLiveSnapshotCount());
+            System.out.println("Fingerprint-Cache: " + txManager.getFingerprintCache().getHits() + " Treffer, "
+                    + txManager.getFingerprintCache().getMisses() + " Fehlschläge");
+        }
+
+        String toJson() {
+            StringBuilder json = new StringBuilder();
+            json.append("{\n");
+            json.append("  \"config\": ").append(config.toJson()).append(",\n");
+            json.append("  \"durationMs\": ").append(TimeUnit.NANOSECONDS.toMillis(runNanos)).append(",\n");
+            json.append("  \"committed\": ").append(committed.get()).append(",\n");
+            json.append("  \"failed\": ").append(failed.get()).append(",\n");
+            json.append("  \"errors\": ").append(errors.get()).append(",\n");
+            json.append("  \"attempts\": ").append(attempts.get()).append(",\n");
+            json.append("  \"retries\": ").append(txManager.getRetryCount()).append(",\n");
+            json.append("  \"doomed\": ").append(txManager.getTransactionsDoomed()).append(",\n");
+            json.append("  \"commitsPerSecond\": ").append(String.format(Locale.ROOT, "%.3f", commitsPerSecond())).append(",\n");
+            json.append("  \"snapshotsCreated\": ").append(txManager.getSnapshotsCreated()).append(",\n");
+            json.append("  \"snapshotsShared\": ").append(txManager.getSnapshotsShared()).append(",\n");
+            json.append("  \"snapshotsAvoided\": ").append(txManager.getSnapshotsAvoided()).append(",\n");
+            json.append("  \"bytesCopied\": ").append(txManager.getMetrics().getBytesCopied()).append(",\n");
+            json.append("  \"appendCopyFallbacks\": ").append(txManager.getMetrics().getAppendCopyFallbacks()).append(",\n");
+            json.append("  \"blockDeltaFallbacks\": ").append(txManager.getMetrics().getBlockDeltaFallbacks()).append(",\n");
+            json.append("  \"latencyNs\": {\n");
+            for (TransactionPhase phase : TransactionPhase.values()) {
+                json.append("    \"").append(phase.name().toLowerCase(Locale.ROOT)).append("\": ")
+                        .append(histogramJson(txManager.getMetrics().getLatency(phase))).append(",\n");
+            }
+            json.append("    \"transaction\": ").append(histogramJson(transactionLatency)).append("\n");
+            json.append("  },\n");
+            json.append("  \"throughput\": [");
+            for (int i = 0; i < throughput.size(); i++) {
+                long[] sample = throughput.get(i);
+                json.append(i == 0 ? "\n" : ",\n");
+                json.append("    {\"second\": ").append(sample[0])
+                        .append(", \"committed\": ").append(sample[1])
+                        .append(", \"failed\": ").append(sample[2]).append("}");
+            }
+            json.append("\n  ]\n}\n");
+            return json.toString();
+        }
+
+        private static String histogramJson(LatencyHistogram histogram) {
+            return "{\"count\": " + histogram.getCount()
+                    + ", \"mean\": " + (long) histogram.getMeanNanos()
+                    + ", \"p50\": " + histogram.getPercentileNanos(50)
+                    + ", \"p99\": " + histogram.getPercentileNanos(99)
+                    + ", \"p999\": " + histogram.getPercentileNanos(99.9)
+                    + ", \"max\": " + histogram.getMaxNanos() + "}";
+        }
+
+        /**
+         * CSV im Langformat "section,key,metric,value", damit Summen, Latenzen und Zeitreihe in eine Tabelle passen.
+         */
+        String toCsv() {
+            StringBuilder csv = new StringBuilder("section,key,metric,value\n");
+            csv.append("total,,durationMs,").append(TimeUnit.NANOSECONDS.toMillis(runNanos)).append('\n');
+            csv.append("total,,committed,").append(committed.get()).append('\n');
+            csv.append("total,,failed,").append(failed.get()).append('\n');
+            csv.append("total,,errors,").append(errors.get()).append('\n');
+            csv.append("total,,attempts,").append(attempts.get()).append('\n');
+            csv.append("total,,retries,").append(txManager.getRetryCount()).append('\n');
+            csv.append("total,,doomed,").append(txManager.getTransactionsDoomed()).append('\n');
+            csv.append("total,,commitsPerSecond,").append(String.format(Locale.ROOT, "%.3f", commitsPerSecond())).append('\n');
+            csv.append("total,,bytesCopied,").append(txManager.getMetrics().getBytesCopied()).append('\n');
+            csv.append("total,,appendCopyFallbacks,").append(txManager.getMetrics().getAppendCopyFallbacks()).append('\n');
+            csv.append("total,,blockDeltaFallbacks,").append(txManager.getMetrics().getBlockDeltaFallbacks()).append('\n');
+            for (TransactionPhase phase : TransactionPhase.values()) {
+                histogramCsv(csv, phase.name().toLowerCase(Locale.ROOT), txManager.getMetrics().getLatency(phase));
+            }
+            histogramCsv(csv, "transaction", transactionLatency);
+            for (long[] sample : throughput) {
+                csv.append("throughput,").append(sample[0]).append(",committed,").append(sample[1]).append('\n');
+                csv.append("throughput,").append(sample[0]).append(",failed,").append(sample[2]).append('\n');
+            }
+            return csv.toString();
+        }
+
+        private static void histogramCsv(StringBuilder csv, String name, LatencyHistogram histogram) {
+            csv.append("latencyNs,").append(name).append(",count,").append(histogram.getCount()).append('\n');
+            csv.append("latencyNs,").append(name).append(",mean,").append((long) histogram.getMeanNanos()).append('\n');
+            csv.append("latencyNs,").append(name).append(",p50,").append(histogram.getPercentileNanos(50)).append('\n');
+            csv.append("latencyNs,").append(name).append(",p99,").append(histogram.getPercentileNanos(99)).append('\n');
+            csv.append("latencyNs,").append(name).append(",p999,").append(histogram.getPercentileNanos(99.9)).append('\n');
+            csv.append("latencyNs,").append(name).append(",max,").append(histogram.getMaxNanos()).append('\n');
+        }
+    }
+
+    /**
+     * Wählt für jede Transaktion den Index der Datei, auf der sie arbeitet.
+     */
+    private interface KeyDistribution {
+        int next(ThreadLocalRandom random);
+    }
+
+    /**
+     * Zipf-Verteilung über n Dateien: Datei k wird mit Wahrscheinlichkeit proportional zu 1/k^s gewählt,
+     * wenige Dateien erhalten also den Großteil der Zugriffe.
+     */
+    private static final class ZipfDistribution implements KeyDistribution {
+        private final double[] cumulative;
+
+        ZipfDistribution(int n, double exponent) {
+            cumulative = new double[n];
+            double sum = 0;
+            for (int k = 1; k <= n; k++) {
+                sum += 1 / Math.pow(k, exponent);
+                cumulative[k - 1] = sum;
+            }
+            for (int i = 0; i < n; i++) {
+                cumulative[i] /= sum;
+            }
+        }
+
+        @Override
+        public int next(ThreadLocalRandom random) {
+            int index = Arrays.binarySearch(cumulative, random.nextDouble());
+            int rank = index >= 0 ? index : -index - 1;
+            return Math.min(rank, cumulative.length - 1);
+        }
+    }
+
+    /**
+     * Parameter eines Lastlaufs; die Standardwerte entsprechen der ursprünglichen Validierung.
+     */
+    private static final class Config {
+        static final String USAGE = String.join("\n",
+                "Aufruf: java transactionlib.ValidationTool [Optionen]",
+                "  --transactions N    Anzahl Transaktionen (Standard 200, 0 = unbegrenzt mit --duration)",
+                "  --duration S        Laufzeit in Sekunden (Standard 0 = bis alle Transaktionen fertig sind)",
+                "  --threads N         Worker für geschlossene Last (Standard 100)",
+                "  --async             Worker laufen über runInTransactionAsync auf virtuellen Threads",
+                "                      (vor Java 21 auf höchstens " + TransactionManager.PLATFORM_THREAD_LIMIT
+                        + " Plattform-Threads)",
+                "  --rate R            Offene Last: R Transaktionen pro Sekunde starten (Standard 0 = geschlossen)",
+                "  --files N           Anzahl Dateien (Standard 1)",
+                "  --skew uniform|zipf[:S]  Verteilung der Zugriffe auf die Dateien (S > 0, zipf ohne S: 0.99)",
+                "  --write-ratio P     Anteil der Schreibzugriffe (Standard 0.9)",
+                "  --ops N             Operationen pro Transaktion (Standard 10)",
+                "  --think MIN-MAX     Pause nach jeder Operation in ms (Standard 1000-5000, 0 = keine)",
+                "  --max-attempts N    Versuche pro Transaktion (Standard 5)",
+                "  --deadline MS       Keine Wiederholung mehr nach dieser Gesamtdauer (Standard 120000, 0 = keine Grenze)",
+                "  --interval S        Intervall der Durchsatzmessung in Sekunden (Standard 1)",
+                "  --report json|csv   Maschinenlesbaren Bericht schreiben",
+                "  --report-file PFAD  Zieldatei des Berichts (Standard validation-report.<format>)",
+                "  --quiet             Keine Meldungen pro Transaktion und Snapshot (siehe TransactionLog)");
+
+        int transactions = 200;
+        long durationSeconds;
+        int threads = 100;
+        boolean async;
+        double rate;
+        int files = 1;
+        double zipfExponent;
+        double writeRatio = 0.9;
+        int operations = 10;
+        long minThinkMs = 1000;
+        long maxThinkMs = 5000;
+        int maxAttempts = 5;
+        long deadlineMs = 120_000;
+        int intervalSeconds = 1;
+        String reportFormat;
+        String reportFile;
+        boolean quiet;
+        boolean help;
+
+        static Config parse(String[] args) {
+            Config config = new Config();
+            if (args.length > 0 && args[0].equals("async")) {
+                // Frühere Form: async [Transaktionen] [Dateien], alle Transaktionen gleichzeitig. Ohne virtuelle
+                // Threads laufen höchstens PLATFORM_THREAD_LIMIT gleichzeitig; der Standard wird entsprechend kleiner.
+                config.async = true;
+                config.transactions = args.length > 1 ? Integer.parseInt(args[1])
+                        : TransactionManager.supportsVirtualThreads() ? 20_000 : TransactionManager.PLATFORM_THREAD_LIMIT;
+                config.files = args.length > 2 ? Integer.parseInt(args[2]) : 1000;
+                config.threads = config.transactions;
+                return config;
+            }
+            for (int i = 0; i < args.length; i++) {
+                String option = args[i];
+                switch (option) {
+                    case "--help":
+                        config.help = true;
+                        break;
+                    case "--async":
+                        config.async = true;
+                        break;
+                    case "--quiet":
+                        config.quiet = true;
+                        break;
+                    case "--transactions":
+                        config.transactions = Integer.parseInt(value(args, ++i, option));
+                        break;
+                    case "--duration":
+                        config.durationSeconds = Long.parseLong(value(args, ++i, option));
+                        break;
+                    case "--threads":
+                        config.threads = Integer.parseInt(value(args, ++i, option));
+                        break;
+                    case "--rate":
+                        config.rate = Double.parseDouble(value(args, ++i, option));
+                        break;
+                    case "--files":
+                        config.files = Integer.parseInt(value(args, ++i, option));
+                        break;
+                    case "--skew": {
+                        String skew = value(args, ++i, option);
+                        if (skew.equals("uniform")) {
+                            config.zipfExponent = 0;
+                        } else if (skew.equals("zipf")) {
+                            config.zipfExponent = 0.99;
+                        } else if (skew.startsWith("zipf:")) {
+                            config.zipfExponent = Double.parseDouble(skew.substring(5));
+                            // 0 oder negativ wäre stillschweigend eine Gleichverteilung.
+                            if (!(config.zipfExponent > 0) || Double.isInfinite(config.zipfExponent)) {
+                                throw new IllegalArgumentException("Zipf-Exponent muss größer als 0 sein: " + skew);
+                            }
+                        } else {
+                            throw new IllegalArgumentException("Unbekannte Verteilung: " + skew);
+                        }
+                        break;
+                    }
+                    case "--write-ratio":
+                        config.writeRatio = Double.parseDouble(value(args, ++i, option));
+                        break;
+                    case "--ops":
+                        config.operations = Integer.parseInt(value(args, ++i, option));
+                        break;
+                    case "--think": {
+                        String think = value(args, ++i, option);
+                        int dash = think.indexOf('-');
+                        config.minThinkMs = Long.parseLong(dash < 0 ? think : think.substring(0, dash));
+                        config.maxThinkMs = Long.parseLong(dash < 0 ? think : think.substring(dash + 1));
+                        break;
+                    }
+                    case "--max-attempts":
+                        config.maxAttempts = Integer.parseInt(value(args, ++i, option));
+                        break;
+                    case "--deadline":
+                        config.deadlineMs = Long.parseLong(value(args, ++i, option));
+                        break;
+                    case "--interval":
+                        config.intervalSeconds = Integer.parseInt(value(args, ++i, option));
+                        break;
+                    case "--report":
+                        config.reportFormat = value(args, ++i, option);
+                        if (!config.reportFormat.equals("json") && !config.reportFormat.equals("csv")) {
+                            throw new IllegalArgumentException("Unbekanntes Berichtsformat: " + config.reportFormat);
+                        }
+                        break;
+                    case "--report-file":
+                        config.reportFile = value(args, ++i, option);
+                        break;
+                    default:
+                        throw new IllegalArgumentException("Unbekannte Option: " + option);
+                }
+            }
+            if (config.files < 1 || config.threads < 1 || config.intervalSeconds < 1
+                    || config.minThinkMs < 0 || config.maxThinkMs < config.minThinkMs
+                    || !(config.rate >= 0) || !(config.writeRatio >= 0 && config.writeRatio <= 1)
+                    || config.operations < 1 || config.maxAttempts < 1 || config.deadlineMs < 0) {
+                throw new IllegalArgumentException("Ungültige Parameter");
+            }
+            if (config.transactions <= 0 && config.durationSeconds <= 0) {
+                throw new IllegalArgumentException("--transactions 0 erfordert --duration");
+            }
+            return config;
+        }
+
+        private static String value(String[] args, int index, String option) {
+            if (index >= args.length) {
+                throw new IllegalArgumentException("Wert fehlt für " + option);
+            }
+            return args[index];
+        }
+
+        String describe() {
+            String limit = (transactions > 0 ? transactions + " Transaktionen" : "unbegrenzt")
+                    + (durationSeconds > 0 ? ", höchstens " + durationSeconds + " s" : "");
+            String mode = rate > 0 ? "offen mit " + rate + "/s"
+                    : threads + (!async ? " Threads" : TransactionManager.supportsVirtualThreads() ? " virtuelle Worker"
+                            : " Worker auf höchstens " + TransactionManager.PLATFORM_THREAD_LIMIT + " Plattform-Threads");
+            return limit + ", " + mode + ", " + files + " Datei(en) "
+                    + (zipfExponent > 0 ? "zipf:" + zipfExponent : "uniform")
+                    + ", Schreibanteil " + writeRatio + ", " + operations + " Operationen, Pause "
+                    + minThinkMs + "-" + maxThinkMs + " ms";
+        }
+
+        String toJson() {
+            return String.format(Locale.ROOT,
+                    "{\"transactions\": %d, \"durationSeconds\": %d, \"threads\": %d, \"async\": %b, \"virtualThreads\": %b, "
+                            + "\"rate\": %s, \"files\": %d, \"zipfExponent\": %s, \"writeRatio\": %s, \"operations\": %d, "
+                            + "\"minThinkMs\": %d, \"maxThinkMs\": %d, \"maxAttempts\": %d, \"deadlineMs\": %d}",
+                    transactions, durationSeconds, threads, async, async && TransactionManager.supportsVirtualThreads(),
+                    rate, files, zipfExponent, writeRatio, operations, minThinkMs, maxThinkMs, maxAttempts, deadlineMs);
+        }
     }
 }
@@ -0,0 +1,92 @@
+package transactionlib;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+class WorkingCopyMemory {
+    // Speicherbudget für Arbeitskopien, die Transaktionen eines Managers im Speicher statt im Arbeitsbereich halten.
+    // Kleine Dateien (z.B. Ideen und Kommentare der BrainstormingApp) kommen so ohne Datei, Inode und
+    // Kopie im temporären Verzeichnis aus. Eine Arbeitskopie bleibt nur im Speicher, solange sie die Größengrenze
+    // pro Datei einhält und das Gesamtbudget aller Transaktionen reicht; andernfalls landet sie im Arbeitsbereich.
+    // Die Puffer liegen im Heap oder, falls eingestellt, als Direct-ByteBuffer außerhalb des Heaps.
+
+    private volatile int maxFileSize;
+    private volatile long budget;
+    private volatile boolean direct;
+    private final AtomicLong used = new AtomicLong(0);
+    private final LongAdder spills = new LongAdder();
+
+    WorkingCopyMemory(int maxFileSize, long budget) {
+        this.maxFileSize = maxFileSize;
+        this.budget = budget;
+    }
+
+    /**
+     * Legt die Grenzen fest; bereits vergebene Puffer bleiben gültig.
+     * @param maxFileSize Maximale Größe einer Arbeitskopie im Speicher in Bytes, 0 schaltet das Verfahren ab
+     * @param budget Maximaler Speicher aller Arbeitskopien zusammen in Bytes
+     */
+    void setLimits(int maxFileSize, long budget) {
+        this.maxFileSize = maxFileSize;
+        this.budget = budget;
+    }
+
+    int getMaxFileSize() {
+        return maxFileSize;
+    }
+
+    long getBudget() {
+        return budget;
+    }
+
+    void setDirect(boolean direct) {
+        this.direct = direct;
+    }
+
+    boolean isDirect() {
+        return direct;
+    }
+
+    /**
+     * Reserviert einen Puffer der angegebenen Größe.
+     * @return Einen leeren Puffer mit genau size Bytes Kapazität, oder null, falls Größengrenze oder Budget
+     *         überschritten würden und die Arbeitskopie daher in den Arbeitsbereich ausgelagert werden muss
+     */
+    ByteBuffer allocate(long size) {
+        if (maxFileSize <= 0 || size > maxFileSize) {
+            spills.increment();
+            return null;
+        }
+        long current;
+        do {
+            current = used.get();
+            if (current + size > budget) {
+                spills.increment();
+                return null;
+            }
+        } while (!used.compareAndSet(current, current + size));
+        return direct ? ByteBuffer.allocateDirect((int) size) : ByteBuffer.allocate((int) size);
+    }
+
+    /**
+     * Gibt den mit allocate reservierten Puffer wieder frei.
+     */
+    void release(ByteBuffer buffer) {
+        used.addAndGet(-buffer.capacity());
+    }
+
+    /**
+     * @return Bytes, die derzeit von Arbeitskopien im Speicher belegt sind.
+     */
+    long getUsedBytes() {
+        return used.get();
+    }
+
+    /**
+     * @return Anzahl der Schreibzugriffe, deren Arbeitskopie wegen der Grenzen im Arbeitsbereich abgelegt wurde.
+     */
+    long getSpillCount() {
+        return spills.sum();
+    }
+}
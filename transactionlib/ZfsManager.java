@@ -1,14 +1,24 @@
 package transactionlib;
 
 import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.*;
 
-public class ZfsManager {
+public class ZfsManager implements SnapshotBackend {
     // Diese Klasse ist zuständig für das Erstellen und Verwalten von ZFS-Snapshots.
     // Sie wird von den Transaktionen verwendet, um zu Beginn einen konsistenten Zustand des Dateisystems zu sichern
     // und bei Konflikten einen Rollback durchzuführen.
     
+    // Maximale Anzahl Snapshots pro "zfs destroy"-Aufruf, damit die Kommandozeile nicht zu lang wird.
+    private static final int DESTROY_BATCH_SIZE = 200;
+
     private String dataset;
+    // Einhängepunkt des Datasets, wird beim ersten Bedarf per "zfs get" ermittelt.
+    private volatile Path mountpoint;
+    // Erfasst die Laufzeit der zfs-Prozesse, sobald der TransactionManager seine Metriken übergibt.
+    private volatile TransactionMetrics metrics;
     
     /**
      * Konstruktor.
@@ -18,12 +28,18 @@ public class ZfsManager {
         this.dataset = dataset;
     }
     
+    @Override
+    public void attachMetrics(TransactionMetrics metrics) {
+        this.metrics = metrics;
+    }
+
     /**
      * Erstellt einen ZFS-Snapshot, der zur Transaktion gehört.
      * Hier wird ein Snapshot mit einem eindeutigen Namen (inklusive Transaktions-ID) angelegt.
      * @param transactionId Eindeutige Transaktions-ID
      * @return Den Namen des erstellten Snapshots
      */
+    @Override
     public String createSnapshot(String transactionId) throws IOException, InterruptedException {
         String snapshotName = dataset + "@tx_" + transactionId;
         ProcessBuilder pb = new ProcessBuilder("sudo", "zfs", "snapshot", snapshotName);
@@ -31,7 +47,7 @@ public class ZfsManager {
         if (exitCode != 0) {
             throw new IOException("Fehler beim Erstellen des Snapshots: " + snapshotName);
         }
-        System.out.println("Snapshot erstellt: " + snapshotName);
+        TransactionLog.info("Snapshot erstellt: " + snapshotName);
         return snapshotName;
     }
     
@@ -40,10 +56,11 @@ public class ZfsManager {
      * Falls der Snapshot nicht existiert, wird dies geloggt und der Rollback als erfolgreich angesehen.
      * @param snapshotName Der Snapshot, zu dem zurückgesetzt wird.
      */
+    @Override
     public void rollbackToSnapshot(String snapshotName) throws IOException, InterruptedException {
         // Prüfe, ob der Snapshot existiert.
         if (!snapshotExists(snapshotName)) {
-            System.out.println("Snapshot " + snapshotName + " existiert nicht. Rollback wird übersprungen.");
+            TransactionLog.info("Snapshot " + snapshotName + " existiert nicht. Rollback wird übersprungen.");
             return;
         }
         // Hier wird "-r" hinzugefügt, um den Rollback zu erzwingen.
@@ -52,15 +69,114 @@ public class ZfsManager {
         if (exitCode != 0) {
             throw new IOException("Fehler beim Rollback zum Snapshot: " + snapshotName);
         }
-        System.out.println("Rollback durchgeführt: " + snapshotName);
+        TransactionLog.info("Rollback durchgeführt: " + snapshotName);
+    }
+    
+    /**
+     * Liefert den Pfad der Datei im schreibgeschützten Snapshot-Verzeichnis
+     * <mountpoint>/.zfs/snapshot/<name>/..., ohne den Snapshot einzuhängen oder zurückzurollen.
+     */
+    @Override
+    public File resolveInSnapshot(String snapshotName, File liveFile) throws IOException, InterruptedException {
+        Path root = getMountpoint();
+        Path live = liveFile.toPath().toAbsolutePath().normalize();
+        if (!live.startsWith(root)) {
+            return null;
+        }
+        String shortName = snapshotName.substring(snapshotName.indexOf('@') + 1);
+        return root.resolve(".zfs").resolve("snapshot").resolve(shortName).resolve(root.relativize(live)).toFile();
+    }
+
+    /**
+     * Ermittelt den Einhängepunkt des Datasets.
+     */
+    private Path getMountpoint() throws IOException, InterruptedException {
+        Path result = mountpoint;
+        if (result == null) {
+            ProcessBuilder pb = new ProcessBuilder("zfs", "get", "-H", "-o", "value", "mountpoint", dataset);
+            pb.redirectErrorStream(true);
+            long start = System.nanoTime();
+            Process process = pb.start();
+            String line;
+            try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+                line = reader.readLine();
+            }
+            int exitCode = process.waitFor();
+            recordProcess(start);
+            if (exitCode != 0 || line == null || !line.startsWith("/")) {
+                throw new IOException("Einhängepunkt des Datasets nicht ermittelbar: " + dataset);
+            }
+            result = Paths.get(line.trim());
+            mountpoint = result;
+        }
+        return result;
+    }
+
+    /**
+     * Löscht den angegebenen Snapshot.
+     * @param snapshotName Vollständiger Snapshot-Name, z.B. "testpool/mydata@tx_..."
+     */
+    @Override
+    public void destroySnapshot(String snapshotName) throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder("sudo", "zfs", "destroy", snapshotName);
+        int exitCode = runCommand(pb);
+        if (exitCode != 0) {
+            throw new IOException("Fehler beim Löschen des Snapshots: " + snapshotName);
+        }
+        TransactionLog.info("Snapshot gelöscht: " + snapshotName);
+    }
+    
+    /**
+     * Löscht mehrere Snapshots des Datasets mit möglichst wenigen "zfs destroy"-Aufrufen.
+     * ZFS akzeptiert dafür die Form "dataset@snap1,snap2,...". Scheitert ein Aufruf, z.B. weil ein Snapshot nach
+     * "zfs rollback -r" bereits fehlt, zeigt die Snapshot-Liste des Datasets, welche Snapshots des Abschnitts
+     * nicht mehr vorhanden sind; nur diese gelten als gelöscht.
+     */
+    @Override
+    public List<String> destroySnapshots(List<String> snapshotNames) {
+        List<String> destroyed = new ArrayList<>();
+        for (int start = 0; start < snapshotNames.size(); start += DESTROY_BATCH_SIZE) {
+            List<String> chunk = snapshotNames.subList(start, Math.min(start + DESTROY_BATCH_SIZE, snapshotNames.size()));
+            StringBuilder spec = new StringBuilder(dataset).append('@');
+            for (int i = 0; i < chunk.size(); i++) {
+                if (i > 0) {
+                    spec.append(',');
+                }
+                String name = chunk.get(i);
+                spec.append(name.substring(name.indexOf('@') + 1));
+            }
+            try {
+                ProcessBuilder pb = new ProcessBuilder("sudo", "zfs", "destroy", spec.toString());
+                if (runCommand(pb) == 0) {
+                    destroyed.addAll(chunk);
+                    TransactionLog.info(chunk.size() + " Snapshots gelöscht.");
+                    continue;
+                }
+                TransactionLog.warn("Fehler beim Löschen der Snapshots: " + spec);
+                Set<String> remaining = new HashSet<>(listSnapshots());
+                for (String name : chunk) {
+                    if (!remaining.contains(name)) {
+                        destroyed.add(name);
+                    }
+                }
+            } catch (IOException e) {
+                TransactionLog.warn("Snapshots konnten nicht gelöscht werden: " + e.getMessage());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            }
+        }
+        return destroyed;
     }
     
     /**
      * Überprüft, ob ein Snapshot existiert.
      */
-    private boolean snapshotExists(String snapshotName) throws IOException, InterruptedException {
+    @Override
+    public boolean snapshotExists(String snapshotName) throws IOException, InterruptedException {
         ProcessBuilder pb = new ProcessBuilder("sudo", "zfs", "list", "-t", "snapshot", snapshotName);
         pb.redirectErrorStream(true);
+        long start = System.nanoTime();
         Process process = pb.start();
         BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
         String line;
@@ -72,20 +188,126 @@ public class ZfsManager {
             }
         }
         process.waitFor();
+        recordProcess(start);
         return found;
     }
     
+    /**
+     * Listet die Snapshots des Datasets selbst auf (ohne untergeordnete Datasets).
+     */
+    @Override
+    public List<String> listSnapshots() throws IOException, InterruptedException {
+        ProcessBuilder pb = new ProcessBuilder("zfs", "list", "-H", "-t", "snapshot", "-o", "name", "-d", "1", dataset);
+        pb.redirectErrorStream(true);
+        long start = System.nanoTime();
+        Process process = pb.start();
+        List<String> names = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                if (line.startsWith(dataset + "@")) {
+                    names.add(line.trim());
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        recordProcess(start);
+        if (exitCode != 0) {
+            throw new IOException("Snapshots des Datasets nicht auflistbar: " + dataset);
+        }
+        return names;
+    }
+
+    /**
+     * Fragt per "zfs diff" ab, welche Pfade des Datasets sich seit dem Snapshot geändert haben, und schneidet
+     * das Ergebnis mit files. Die Laufzeit hängt von der Menge der Änderungen ab, nicht von der Anzahl der Dateien.
+     * Pfade werden wie in resolveInSnapshot ohne Auflösen symbolischer Links verglichen; Dateien außerhalb
+     * des Einhängepunkts gelten als geändert.
+     */
+    @Override
+    public Set<File> changedSince(String snapshotName, Collection<File> files) throws IOException, InterruptedException {
+        Path root = getMountpoint();
+        ProcessBuilder pb = new ProcessBuilder("sudo", "zfs", "diff", "-H", snapshotName);
+        pb.redirectError(ProcessBuilder.Redirect.DISCARD);
+        long start = System.nanoTime();
+        Process process = pb.start();
+        Set<Path> changedPaths = new HashSet<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()))) {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                // Format: <Änderung>\t<Pfad>[\t<neuer Pfad>] mit M, +, - oder R als Änderung.
+                String[] fields = line.split("\t");
+                for (int i = 1; i < fields.length; i++) {
+                    changedPaths.add(Paths.get(decodeDiffPath(fields[i])));
+                }
+            }
+        }
+        int exitCode = process.waitFor();
+        recordProcess(start);
+        if (exitCode != 0) {
+            throw new IOException("Fehler bei zfs diff für Snapshot: " + snapshotName);
+        }
+        Set<File> changed = new HashSet<>();
+        for (File file : files) {
+            Path live = file.toPath().toAbsolutePath().normalize();
+            if (!live.startsWith(root) || changedPaths.contains(live)) {
+                changed.add(file);
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * "zfs diff" gibt Leerzeichen und nicht druckbare Bytes eines Pfads als \0ooo (oktal) aus.
+     */
+    static String decodeDiffPath(String escaped) {
+        if (escaped.indexOf('\\') < 0) {
+            return escaped;
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int literalStart = 0;
+        for (int i = 0; i + 4 < escaped.length(); i++) {
+            if (escaped.charAt(i) == '\\' && isOctal(escaped, i + 1, 4)) {
+                bytes.writeBytes(escaped.substring(literalStart, i).getBytes(StandardCharsets.UTF_8));
+                bytes.write(Integer.parseInt(escaped.substring(i + 1, i + 5), 8));
+                i += 4;
+                literalStart = i + 1;
+            }
+        }
+        bytes.writeBytes(escaped.substring(literalStart).getBytes(StandardCharsets.UTF_8));
+        return bytes.toString(StandardCharsets.UTF_8);
+    }
+
+    private static boolean isOctal(String text, int from, int count) {
+        for (int i = from; i < from + count; i++) {
+            if (text.charAt(i) < '0' || text.charAt(i) > '7') {
+                return false;
+            }
+        }
+        return true;
+    }
+
     /**
      * Führt den übergebenen ProcessBuilder aus und gibt den Exit-Code zurück.
      */
     private int runCommand(ProcessBuilder pb) throws IOException, InterruptedException {
         pb.redirectErrorStream(true);
+        long start = System.nanoTime();
         Process process = pb.start();
         BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream()));
         String line;
         while ((line = reader.readLine()) != null) {
-            System.out.println(line);
+            TransactionLog.info(line);
+        }
+        int exitCode = process.waitFor();
+        recordProcess(start);
+        return exitCode;
+    }
+
+    private void recordProcess(long startNanos) {
+        TransactionMetrics current = metrics;
+        if (current != null) {
+            current.record(TransactionPhase.PROCESS_SPAWN, startNanos);
         }
-        return process.waitFor();
     }
 }